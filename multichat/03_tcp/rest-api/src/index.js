@@ -10,9 +10,15 @@ import {
   createGroup,
   addToGroup,
   getHistory,
+  getMessagesSince,
+  getHistoryStats,
+  getConversations,
+  markRead,
   getGroups,
   getUserGroups,
   getPendingMessages,
+  ackMessages,
+  getPresence,
   clearChatHistory,
   deleteUser,
   cleanupInvalidUsers
@@ -48,7 +54,7 @@ app.post('/api/logout', async (req, res) => {
 // Get online users
 app.get('/api/users/online', async (req, res) => {
   try {
-    const result = await getOnlineUsers();
+    const result = await getOnlineUsers(req.query.sinceVersion);
     res.status(200).json(result);
   } catch (error) {
     res.status(500).json({ status: 'ERROR', message: error.message });
@@ -58,7 +64,7 @@ app.get('/api/users/online', async (req, res) => {
 // Get all users (with online/offline status)
 app.get('/api/users/all', async (req, res) => {
   try {
-    const result = await getAllUsers();
+    const result = await getAllUsers(req.query.sinceVersion);
     res.status(200).json(result);
   } catch (error) {
     res.status(500).json({ status: 'ERROR', message: error.message });
@@ -120,11 +126,56 @@ app.get('/api/groups/:username', async (req, res) => {
   }
 });
 
-// Get history
+// Get history (optional ?from=&to= in epoch ms to read only that time range)
 app.get('/api/history/:username', async (req, res) => {
   try {
     const { username } = req.params;
-    const result = await getHistory(username);
+    const { from, to } = req.query;
+    const result = await getHistory(username, from, to);
+    res.status(200).json(result);
+  } catch (error) {
+    res.status(500).json({ status: 'ERROR', message: error.message });
+  }
+});
+
+// Get the messages of a conversation after a sequence (gap resync)
+app.get('/api/history/:username/since', async (req, res) => {
+  try {
+    const { username } = req.params;
+    const { conversation, seq } = req.query;
+    const result = await getMessagesSince(username, conversation, seq);
+    res.status(200).json(result);
+  } catch (error) {
+    res.status(500).json({ status: 'ERROR', message: error.message });
+  }
+});
+
+// History compression stats (ratio of cold segments, blocks decoded/skipped, decode time)
+app.get('/api/stats/history', async (req, res) => {
+  try {
+    const result = await getHistoryStats();
+    res.status(200).json(result);
+  } catch (error) {
+    res.status(500).json({ status: 'ERROR', message: error.message });
+  }
+});
+
+// Get the conversation list (last message and unread count per chat)
+app.get('/api/conversations/:username', async (req, res) => {
+  try {
+    const { username } = req.params;
+    const result = await getConversations(username);
+    res.status(200).json(result);
+  } catch (error) {
+    res.status(500).json({ status: 'ERROR', message: error.message });
+  }
+});
+
+// Mark a conversation as read up to a sequence
+app.post('/api/conversations/read', async (req, res) => {
+  try {
+    const { username, conversation, seq } = req.body;
+    const result = await markRead(username, conversation, seq);
     res.status(200).json(result);
   } catch (error) {
     res.status(500).json({ status: 'ERROR', message: error.message });
@@ -135,7 +186,30 @@ app.get('/api/history/:username', async (req, res) => {
 app.get('/api/messages/pending/:username', async (req, res) => {
   try {
     const { username } = req.params;
-    const result = await getPendingMessages(username);
+    const { ack, acked } = req.query;
+    const result = await getPendingMessages(username, ack, acked === '1' || acked === 'true');
+    res.status(200).json(result);
+  } catch (error) {
+    res.status(500).json({ status: 'ERROR', message: error.message });
+  }
+});
+
+// Acknowledge pending messages up to a sequence
+app.post('/api/messages/ack', async (req, res) => {
+  try {
+    const { username, upTo } = req.body;
+    const result = await ackMessages(username, upTo);
+    res.status(200).json(result);
+  } catch (error) {
+    res.status(500).json({ status: 'ERROR', message: error.message });
+  }
+});
+
+// Get contacts' presence snapshot (with version)
+app.get('/api/presence/:username', async (req, res) => {
+  try {
+    const { username } = req.params;
+    const result = await getPresence(username);
     res.status(200).json(result);
   } catch (error) {
     res.status(500).json({ status: 'ERROR', message: error.message });
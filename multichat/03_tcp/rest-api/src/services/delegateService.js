@@ -97,12 +97,18 @@ export const sendMessageToGroup = (from, groupName, content) => {
   return sendRequest('SEND_MESSAGE_GROUP', { from, groupName, content });
 };
 
-export const getOnlineUsers = () => {
-  return sendRequest('GET_ONLINE_USERS', {});
+// sinceVersion opcional: el servidor responde "unchanged" o sólo los cambios desde esa versión
+const versionParams = (sinceVersion) => {
+  const v = Number(sinceVersion);
+  return sinceVersion !== undefined && Number.isFinite(v) ? { sinceVersion: v } : {};
 };
 
-export const getAllUsers = () => {
-  return sendRequest('GET_ALL_USERS', {});
+export const getOnlineUsers = (sinceVersion) => {
+  return sendRequest('GET_ONLINE_USERS', versionParams(sinceVersion));
+};
+
+export const getAllUsers = (sinceVersion) => {
+  return sendRequest('GET_ALL_USERS', versionParams(sinceVersion));
 };
 
 export const createGroup = (groupName, creator) => {
@@ -113,20 +119,57 @@ export const addToGroup = (groupName, username) => {
   return sendRequest('ADD_TO_GROUP', { groupName, username });
 };
 
-export const getHistory = (username) => {
-  return sendRequest('GET_HISTORY', { username });
+// from/to (epoch ms) opcionales: sólo el historial de ese rango de tiempo
+export const getHistory = (username, from, to) => {
+  const params = { username };
+  if (from !== undefined && from !== '') params.from = Number(from);
+  if (to !== undefined && to !== '') params.to = Number(to);
+  return sendRequest('GET_HISTORY', params);
+};
+
+// Resincronización: mensajes de la conversación (usuario o #grupo) posteriores a seq
+export const getMessagesSince = (username, conversation, seq) => {
+  return sendRequest('GET_MESSAGES_SINCE', { username, conversation, seq: Number(seq) || 0 });
+};
+
+export const getHistoryStats = () => {
+  return sendRequest('GET_HISTORY_STATS', {});
+};
+
+export const getConversations = (username) => {
+  return sendRequest('GET_CONVERSATIONS', { username });
+};
+
+export const markRead = (username, conversation, seq) => {
+  return sendRequest('MARK_READ', { username, conversation, seq: Number(seq) || 0 });
 };
 
-export const getGroups = () => {
-  return sendRequest('GET_GROUPS', {});
+export const getGroups = (sinceVersion) => {
+  return sendRequest('GET_GROUPS', versionParams(sinceVersion));
 };
 
 export const getUserGroups = (username) => {
   return sendRequest('GET_USER_GROUPS', { username });
 };
 
-export const getPendingMessages = (username) => {
-  return sendRequest('GET_PENDING_MESSAGES', { username });
+// Entrega confirmada: ack confirma lo recibido en la consulta anterior; acked la activa sin confirmar nada
+export const getPendingMessages = (username, ack, acked) => {
+  const data = { username };
+  const a = Number(ack);
+  if (ack !== undefined && Number.isFinite(a)) {
+    data.ack = a;
+  } else if (acked) {
+    data.acked = true;
+  }
+  return sendRequest('GET_PENDING_MESSAGES', data);
+};
+
+export const ackMessages = (username, upTo) => {
+  return sendRequest('ACK_MESSAGES', { username, upTo: Number(upTo) });
+};
+
+export const getPresence = (username) => {
+  return sendRequest('GET_PRESENCE', { username });
 };
 
 export const clearChatHistory = (user1, user2) => {
@@ -6,8 +6,10 @@ import java.net.URLDecoder;
 import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
@@ -17,10 +19,29 @@ public class AudioServer extends WebSocketServer {
     private final Map<String, WebSocket> userConnections = new ConcurrentHashMap<>();
     private final Map<WebSocket, String> connectionUsers = new ConcurrentHashMap<>();
 
+    // Pacing of buffered streams: one wheel shared by every stream
+    private static final long PACING_TICK_MS = 5;
+    private static final int PACING_SLOTS = 64;
+    private TimerWheel pacer;
+
+    // Congestion control: audio for a receiver with more than this many bytes
+    // still queued in its socket is stale, so new frames are dropped instead of queued
+    private static final long MAX_PENDING_AUDIO_BYTES = 256 * 1024;
+
     // Simple structure to keep the target and the format of the stream
     private static class CallTarget {
         public String target;
         public String format;
+        // Optional jitter buffer (null = forward frames as soon as they arrive)
+        public JitterBuffer jitter;
+        // true if the client prefixes every frame with a 4-byte sequence number
+        public boolean seqHeader;
+        public long arrivalSeq = 0;
+        public volatile boolean active = true;
+        // Optional silence suppression (only for pcm streams)
+        public SilenceDetector silence;
+        public final AtomicLong congestionDrops = new AtomicLong();
+        public final AtomicLong silenceSkips = new AtomicLong();
         public CallTarget(String t, String f) { this.target = t; this.format = f; }
     }
 
@@ -28,6 +49,13 @@ public class AudioServer extends WebSocketServer {
         super(new InetSocketAddress(port));
     }
 
+    private synchronized TimerWheel pacer() {
+        if (pacer == null) {
+            pacer = new TimerWheel(PACING_TICK_MS, PACING_SLOTS);
+        }
+        return pacer;
+    }
+
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         // Expecting user ID in the resource descriptor, e.g.,
@@ -65,7 +93,7 @@ public class AudioServer extends WebSocketServer {
         String username = connectionUsers.remove(conn);
         if (username != null) {
             userConnections.remove(username);
-            activeCallTargets.remove(username);
+            stopStream(username);
             System.out.println("[AUDIO] User disconnected: " + username);
         }
     }
@@ -104,24 +132,52 @@ public class AudioServer extends WebSocketServer {
             } else if (parts.length >= 2 && "START_STREAM".equals(parts[0])) {
                 String targetUser = parts[1];
                 String format = "unknown";
-                // Optional format in the protocol: START_STREAM|target|format=pcm
-                if (parts.length > 2 && parts[2] != null && parts[2].startsWith("format=")) {
-                    format = parts[2].substring("format=".length());
+                String jitterMode = "off";
+                String silenceMode = "off";
+                // Optional options in the protocol: START_STREAM|target|format=pcm|jitter=on
+                // jitter=on  -> frames are buffered and paced, sequenced by arrival order
+                // jitter=seq -> same, but each frame starts with a 4-byte big-endian sequence number
+                // silence=skip -> silent frames are not forwarded (pcm 16-bit LE only)
+                for (int i = 2; i < parts.length; i++) {
+                    if (parts[i] == null) continue;
+                    for (String option : parts[i].split("\\|")) {
+                        if (option.startsWith("format=")) {
+                            format = option.substring("format=".length());
+                        } else if (option.startsWith("jitter=")) {
+                            jitterMode = option.substring("jitter=".length());
+                        } else if (option.startsWith("silence=")) {
+                            silenceMode = option.substring("silence=".length());
+                        }
+                    }
                 }
                 String sender = connectionUsers.get(conn);
-                System.out.println("[AUDIO] START_STREAM from '" + sender + "' to '" + targetUser + "' (format=" + format + ")");
+                System.out.println("[AUDIO] START_STREAM from '" + sender + "' to '" + targetUser + "' (format=" + format + ", jitter=" + jitterMode + ")");
                 if (sender == null || sender.isEmpty()) {
                     conn.send("ERROR|No sender associated with connection");
                 } else if (targetUser == null || targetUser.isEmpty()) {
                     conn.send("ERROR|Invalid target user");
                 } else {
-                    activeCallTargets.put(sender, new CallTarget(targetUser, format));
+                    CallTarget ct = new CallTarget(targetUser, format);
+                    if ("on".equals(jitterMode) || "seq".equals(jitterMode)) {
+                        ct.jitter = new JitterBuffer();
+                        ct.seqHeader = "seq".equals(jitterMode);
+                    }
+                    if ("skip".equals(silenceMode) && "pcm".equalsIgnoreCase(format)) {
+                        ct.silence = new SilenceDetector();
+                    }
+                    CallTarget previous = activeCallTargets.put(sender, ct);
+                    if (previous != null) {
+                        previous.active = false;
+                    }
+                    if (ct.jitter != null) {
+                        schedulePacing(sender, ct, 0);
+                    }
                     System.out.println("[AUDIO] Stream started from " + sender + " to " + targetUser + " (format=" + format + ")");
                 }
             } else if (parts.length >= 1 && "STOP_STREAM".equals(parts[0])) {
                 String sender = connectionUsers.get(conn);
                 if (sender != null) {
-                    activeCallTargets.remove(sender);
+                    stopStream(sender);
                     System.out.println("[AUDIO] Stream stopped from " + sender);
                 }
             }
@@ -163,11 +219,17 @@ public class AudioServer extends WebSocketServer {
                 System.out.println("[AUDIO] Warning: sender and target are the same (" + sender + "). Skipping forward to avoid echo.");
                 return;
             }
+            if (ct.jitter != null) {
+                bufferFrame(ct, message);
+                return;
+            }
             if (targetConn != null && targetConn.isOpen()) {
                 // Optionally, we can log the stream format for debugging
                 String format = ct.format != null ? ct.format : "unknown";
-                System.out.println("[AUDIO] Forwarding audio from " + sender + " to " + target + " (format=" + format + ", size=" + message.remaining() + ")");
-                targetConn.send(message);
+                int size = message.remaining();
+                if (forwardFrame(ct, targetConn, message)) {
+                    System.out.println("[AUDIO] Forwarding audio from " + sender + " to " + target + " (format=" + format + ", size=" + size + ")");
+                }
             }
         }
     }
@@ -175,6 +237,110 @@ public class AudioServer extends WebSocketServer {
     // Map to store who is streaming to whom: Sender -> CallTarget
     private final Map<String, CallTarget> activeCallTargets = new ConcurrentHashMap<>();
 
+    // ---- Jitter buffer / pacing ----
+
+    private void bufferFrame(CallTarget ct, ByteBuffer message) {
+        long seq;
+        if (ct.seqHeader) {
+            if (message.remaining() < 4) {
+                return; // frame without header, nothing to play
+            }
+            seq = message.getInt() & 0xFFFFFFFFL;
+        } else {
+            synchronized (ct) {
+                seq = ct.arrivalSeq++;
+            }
+        }
+        // The library may reuse the incoming buffer, so keep a private copy of the payload
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message);
+        copy.flip();
+        ct.jitter.offer(seq, copy, System.currentTimeMillis());
+    }
+
+    private void schedulePacing(String sender, CallTarget ct, long delayMs) {
+        pacer().schedule(delayMs, () -> emitFrames(sender, ct));
+    }
+
+    private void emitFrames(String sender, CallTarget ct) {
+        if (!ct.active) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        ByteBuffer frame;
+        while ((frame = ct.jitter.poll(now)) != null) {
+            WebSocket targetConn = userConnections.get(ct.target);
+            if (targetConn != null && targetConn.isOpen() && !ct.target.equals(sender)) {
+                if (!forwardFrame(ct, targetConn, frame) && isCongested(targetConn)) {
+                    // Receiver is behind: whatever is still buffered here is stale too
+                    ct.congestionDrops.addAndGet(ct.jitter.trimTo(ct.jitter.getTargetDepth()));
+                    break;
+                }
+            }
+        }
+        schedulePacing(sender, ct, ct.jitter.millisUntilNext(now));
+    }
+
+    private void stopStream(String sender) {
+        CallTarget ct = activeCallTargets.remove(sender);
+        if (ct != null) {
+            ct.active = false;
+            if (ct.jitter != null) {
+                System.out.println("[AUDIO] Jitter stats for " + sender + " -> " + ct.target + ": " + ct.jitter);
+            }
+            if (ct.congestionDrops.get() > 0 || ct.silenceSkips.get() > 0) {
+                System.out.println("[AUDIO] Stream " + sender + " -> " + ct.target + ": dropped " + ct.congestionDrops.get()
+                        + " frames (congestion), skipped " + ct.silenceSkips.get() + " silent frames");
+            }
+        }
+    }
+
+    // ---- Congestion control ----
+
+    /**
+     * Sends one audio frame unless it is silence or the receiver is congested
+     * @return true if the frame was queued for the receiver
+     */
+    private boolean forwardFrame(CallTarget ct, WebSocket targetConn, ByteBuffer frame) {
+        if (ct.silence != null && ct.silence.shouldSkip(frame)) {
+            ct.silenceSkips.incrementAndGet();
+            return false;
+        }
+        if (isCongested(targetConn)) {
+            ct.congestionDrops.incrementAndGet();
+            return false;
+        }
+        targetConn.send(frame);
+        return true;
+    }
+
+    private static boolean isCongested(WebSocket conn) {
+        return pendingBytes(conn) > MAX_PENDING_AUDIO_BYTES;
+    }
+
+    /**
+     * Bytes queued in the connection that the socket has not written yet
+     */
+    static long pendingBytes(WebSocket conn) {
+        if (!conn.hasBufferedData() || !(conn instanceof WebSocketImpl)) {
+            return 0;
+        }
+        long total = 0;
+        for (ByteBuffer queued : ((WebSocketImpl) conn).outQueue) {
+            total += queued.remaining();
+        }
+        return total;
+    }
+
+    /**
+     * Jitter buffer of the stream currently sent by the user, or null if the stream
+     * is not buffered
+     */
+    public JitterBuffer getJitterBuffer(String sender) {
+        CallTarget ct = activeCallTargets.get(sender);
+        return ct != null ? ct.jitter : null;
+    }
+
     @Override
     public void onError(WebSocket conn, Exception ex) {
         System.err.println("[AUDIO] Error: " + ex.getMessage());
@@ -191,6 +357,6 @@ public class AudioServer extends WebSocketServer {
     }
 
     public void removeCallTarget(String sender) {
-        activeCallTargets.remove(sender);
+        stopStream(sender);
     }
 }
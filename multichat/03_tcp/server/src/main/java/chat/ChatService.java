@@ -17,11 +17,13 @@ package chat;
 
 public interface ChatService extends com.zeroc.Ice.Object
 {
-    Message[] getHistory(String userOrGroupId, com.zeroc.Ice.Current current);
+    java.util.concurrent.CompletionStage<Message[]> getHistoryAsync(String userOrGroupId, com.zeroc.Ice.Current current);
 
-    void sendMessage(String receiver, String content, com.zeroc.Ice.Current current);
+    java.util.concurrent.CompletionStage<SequencedMessage[]> getMessagesSinceAsync(String conversation, long seq, com.zeroc.Ice.Current current);
 
-    void sendAudio(String receiver, String audioBase64, com.zeroc.Ice.Current current);
+    java.util.concurrent.CompletionStage<Void> sendMessageAsync(String receiver, String content, com.zeroc.Ice.Current current);
+
+    java.util.concurrent.CompletionStage<Void> sendAudioAsync(String receiver, String audioBase64, com.zeroc.Ice.Current current);
 
     Call startCall(String caller, String callee, com.zeroc.Ice.Current current);
 
@@ -69,11 +71,32 @@ public interface ChatService extends com.zeroc.Ice.Object
         String iceP_userOrGroupId;
         iceP_userOrGroupId = istr.readString();
         inS.endReadParams();
-        Message[] ret = obj.getHistory(iceP_userOrGroupId, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        MessageSeqHelper.write(ostr, ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.getHistoryAsync(iceP_userOrGroupId, current), (ostr, ret) ->
+            {
+                MessageSeqHelper.write(ostr, ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getMessagesSince(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_conversation;
+        long iceP_seq;
+        iceP_conversation = istr.readString();
+        iceP_seq = istr.readLong();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.getMessagesSinceAsync(iceP_conversation, iceP_seq, current), (ostr, ret) ->
+            {
+                SequencedMessageSeqHelper.write(ostr, ret);
+            });
     }
 
     /**
@@ -92,8 +115,7 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_receiver = istr.readString();
         iceP_content = istr.readString();
         inS.endReadParams();
-        obj.sendMessage(iceP_receiver, iceP_content, current);
-        return inS.setResult(inS.writeEmptyParams());
+        return inS.setResultFuture(obj.sendMessageAsync(iceP_receiver, iceP_content, current));
     }
 
     /**
@@ -112,8 +134,7 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_receiver = istr.readString();
         iceP_audioBase64 = istr.readString();
         inS.endReadParams();
-        obj.sendAudio(iceP_receiver, iceP_audioBase64, current);
-        return inS.setResult(inS.writeEmptyParams());
+        return inS.setResultFuture(obj.sendAudioAsync(iceP_receiver, iceP_audioBase64, current));
     }
 
     /**
@@ -204,6 +225,7 @@ public interface ChatService extends com.zeroc.Ice.Object
         "endCall",
         "getActiveCalls",
         "getHistory",
+        "getMessagesSince",
         "ice_id",
         "ice_ids",
         "ice_isA",
@@ -241,33 +263,37 @@ public interface ChatService extends com.zeroc.Ice.Object
             }
             case 3:
             {
-                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
+                return _iceD_getMessagesSince(this, in, current);
             }
             case 4:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
             }
             case 5:
             {
-                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
             }
             case 6:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
             }
             case 7:
             {
-                return _iceD_sendAudio(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
             }
             case 8:
             {
-                return _iceD_sendMessage(this, in, current);
+                return _iceD_sendAudio(this, in, current);
             }
             case 9:
             {
-                return _iceD_startCall(this, in, current);
+                return _iceD_sendMessage(this, in, current);
             }
             case 10:
+            {
+                return _iceD_startCall(this, in, current);
+            }
+            case 11:
             {
                 return _iceD_subscribe(this, in, current);
             }
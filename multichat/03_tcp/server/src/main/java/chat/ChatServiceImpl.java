@@ -1,26 +1,96 @@
 package chat;
 
 import java.io.IOException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import com.zeroc.Ice.Connection;
 import com.zeroc.Ice.Current;
 
 import services.ChatServicesImpl;
+import services.ConversationSeqs;
+import services.Envelope;
+import services.IdGenerator;
 
 public class ChatServiceImpl implements ChatService {
+    /** Hilos de I/O por defecto; configurable con -Dchat.io.threads=N */
+    public static final int DEFAULT_IO_THREADS = Integer.getInteger("chat.io.threads", 8);
+
     private final ChatServicesImpl chatServices;
-    private final Map<String, ChatCallbackPrx> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService ioExecutor;
+    // Usuario -> un callback por dispositivo, con la conexión ICE como clave
+    private final Map<String, Map<Object, ChatCallbackPrx>> subscribers = new ConcurrentHashMap<>();
+    // Identidad ligada a cada conexión ICE; se elimina en el close callback de la conexión
+    private final Map<Connection, String> connectionUsers = new ConcurrentHashMap<>();
+    // Un carril por conexión (o por usuario en llamadas colocadas) para los envíos: se
+    // guardan y notifican en el orden en que el cliente los hizo
+    private final Map<Object, SerialExecutor> sendLanes = new ConcurrentHashMap<>();
 
     public ChatServiceImpl(ChatServicesImpl chatServices) {
+        this(chatServices, newIoExecutor(DEFAULT_IO_THREADS));
+    }
+
+    /**
+     * @param ioExecutor hilos donde se completan getHistory, sendMessage y sendAudio (AMD),
+     *                   para que las escrituras a disco no ocupen el thread pool de ICE; los
+     *                   envíos de una misma conexión pasan por un carril serial encima
+     */
+    public ChatServiceImpl(ChatServicesImpl chatServices, ExecutorService ioExecutor) {
         this.chatServices = chatServices;
+        this.ioExecutor = ioExecutor;
+    }
+
+    public static ExecutorService newIoExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ice-io-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public CompletionStage<Message[]> getHistoryAsync(String userOrGroupId, Current current) {
+        return CompletableFuture.supplyAsync(() -> getHistory(userOrGroupId), ioExecutor);
+    }
+
+    @Override
+    public CompletionStage<SequencedMessage[]> getMessagesSinceAsync(String conversation, long seq, Current current) {
+        String user = getUserFromCurrent(current);
+        return CompletableFuture.supplyAsync(() -> getMessagesSince(user, conversation, seq), ioExecutor);
     }
 
     @Override
-    public Message[] getHistory(String userOrGroupId, Current current) {
+    public CompletionStage<Void> sendMessageAsync(String receiver, String content, Current current) {
+        // El remitente se resuelve en el hilo de despacho, antes de pasar al executor
+        String sender = getUserFromCurrent(current);
+        return CompletableFuture.runAsync(() -> sendMessage(sender, receiver, content), sendLane(current, sender));
+    }
+
+    @Override
+    public CompletionStage<Void> sendAudioAsync(String receiver, String audioBase64, Current current) {
+        String sender = getUserFromCurrent(current);
+        return CompletableFuture.runAsync(() -> sendAudio(sender, receiver, audioBase64), sendLane(current, sender));
+    }
+
+    /**
+     * Carril de envíos de quien llama. Ice despacha en orden las peticiones de una conexión
+     * (Ice.ThreadPool.Server.Serialize) y el carril conserva ese orden en el pool de I/O
+     */
+    private SerialExecutor sendLane(Current current, String sender) {
+        Object key = current.con != null ? current.con : sender;
+        return sendLanes.computeIfAbsent(key, k -> new SerialExecutor(ioExecutor));
+    }
+
+    private Message[] getHistory(String userOrGroupId) {
         try {
             List<String> history = chatServices.getHistory(userOrGroupId);
             List<Message> messages = new ArrayList<>();
@@ -40,28 +110,43 @@ public class ChatServiceImpl implements ChatService {
         }
     }
 
-    @Override
-    public void sendMessage(String receiver, String content, Current current) {
-        String sender = getUserFromCurrent(current);
+    private SequencedMessage[] getMessagesSince(String user, String conversation, long seq) {
+        try {
+            List<SequencedMessage> messages = new ArrayList<>();
+            for (String line : chatServices.getMessagesSince(user, conversation, seq)) {
+                Message msg = parseMessage(line);
+                if (msg != null) {
+                    // Sólo de la cabecera; 0 en registros antiguos
+                    messages.add(new SequencedMessage(msg, ConversationSeqs.seqOf(line)));
+                }
+            }
+            return messages.toArray(new SequencedMessage[0]);
+        } catch (IOException e) {
+            throw new RuntimeException("Error getting messages since " + seq, e);
+        }
+    }
+
+    private void sendMessage(String sender, String receiver, String content) {
         System.out.println("[SERVER] sendMessage called — sender: " + sender + ", receiver: " + receiver + ", content: "
                 + content);
         try {
+            Envelope env;
             if (receiver.startsWith("#")) {
                 // Group message
-                chatServices.sendMessageToGroup(sender, receiver.substring(1), content);
+                env = chatServices.sendToGroup(sender, receiver.substring(1), content);
             } else {
                 // Private message
-                chatServices.sendMessageToUser(sender, receiver, content);
+                env = chatServices.sendToUser(sender, receiver, content);
             }
 
             // Notify subscribers
             Message msg = new Message();
-            msg.id = System.currentTimeMillis() + "";
+            msg.id = Long.toString(env.id);
             msg.sender = sender;
             msg.receiver = receiver;
             msg.content = content;
             msg.isAudio = false;
-            msg.timestamp = System.currentTimeMillis();
+            msg.timestamp = env.ts.toEpochMilli();
 
             notifySubscribers(msg);
 
@@ -93,29 +178,7 @@ public class ChatServiceImpl implements ChatService {
         }
     }
 
-    @Override
-    public void sendAudio(String receiver, String audioBase64, Current current) {
-        String sender = getUserFromCurrent(current);
-        String actualAudioData = audioBase64;
-
-        // WORKAROUND: Check if audioBase64 is a JSON payload with sender info
-        // This is necessary because Ice context propagation is failing in some
-        // environments
-        if (audioBase64 != null && audioBase64.trim().startsWith("{")) {
-            try {
-                @SuppressWarnings("unchecked")
-                java.util.Map<String, Object> payload = new com.google.gson.Gson().fromJson(audioBase64,
-                        java.util.Map.class);
-                if (payload.containsKey("sender") && payload.containsKey("data")) {
-                    sender = (String) payload.get("sender");
-                    actualAudioData = (String) payload.get("data");
-                    System.out.println("[SERVER] Extracted sender from payload: " + sender);
-                }
-            } catch (Exception e) {
-                System.err.println("[SERVER] Failed to parse audio payload: " + e.getMessage());
-            }
-        }
-
+    private void sendAudio(String sender, String receiver, String actualAudioData) {
         System.out.println("[SERVER] sendAudio called — sender: " + sender + ", receiver: " + receiver
                 + ", size(base64): " + (actualAudioData != null ? actualAudioData.length() : 0));
         try {
@@ -131,7 +194,6 @@ public class ChatServiceImpl implements ChatService {
             // Notify subscribers - use JSON content for audio so clients can parse
             // structured audio messages.
             Message msg = new Message();
-            msg.id = System.currentTimeMillis() + "";
             msg.sender = sender;
             msg.receiver = receiver;
             // Build JSON payload so clients can parse: { type:'audio', data: '<base64>' }
@@ -147,15 +209,21 @@ public class ChatServiceImpl implements ChatService {
             msg.isAudio = true;
             msg.timestamp = System.currentTimeMillis();
 
-            notifySubscribers(msg);
-
             // Also log the audio message to history (since sendVoiceNoteToUser doesn't log
-            // the JSON)
+            // the JSON); its id is the one clients see in history. A "#grupo" goes to the
+            // group's history and pending log, never to a DM/mailbox named after the group
             try {
-                chatServices.sendMessageToUser(sender, receiver, msg.content);
-            } catch (IOException e) {
+                Envelope logged = receiver.startsWith("#")
+                        ? chatServices.sendToGroup(sender, receiver.substring(1), msg.content)
+                        : chatServices.sendToUser(sender, receiver, msg.content);
+                msg.id = Long.toString(logged.id);
+                msg.timestamp = logged.ts.toEpochMilli();
+            } catch (IOException | IllegalArgumentException e) {
                 System.err.println("[SERVER] Failed to log audio message to history: " + e.getMessage());
+                msg.id = Long.toString(IdGenerator.next());
             }
+
+            notifySubscribers(msg);
         } catch (IOException e) {
             throw new RuntimeException("Error sending audio", e);
         }
@@ -180,19 +248,8 @@ public class ChatServiceImpl implements ChatService {
         call.active = true;
         call.startedAt = System.currentTimeMillis();
 
-        // Notify callee (preferred via callback if available)
-        ChatCallbackPrx callback = subscribers.get(callee);
-        boolean notified = false;
-        if (callback != null) {
-            try {
-                callback.onCallStarted(call);
-                notified = true;
-            } catch (Exception e) {
-                System.err.println("[SERVER] Error delivering onCallStarted to callback: " + e.getMessage());
-                e.printStackTrace();
-                subscribers.remove(callee);
-            }
-        }
+        // Notify callee (preferred via callback if available) on every device
+        boolean notified = deliver(callee, cb -> cb.onCallStarted(call), "onCallStarted") > 0;
         // If not notified via ICE callback, try AudioServer websocket signaling as
         // fallback
         if (!notified) {
@@ -250,34 +307,83 @@ public class ChatServiceImpl implements ChatService {
 
     @Override
     public void subscribe(String userId, ChatCallbackPrx cb, Current current) {
-        System.out.println(
-                "[SERVER] ICE subscribe called for user: " + userId + ", connection: " + current.con.toString());
-        subscribers.put(userId, cb);
+        System.out.println("[SERVER] ICE subscribe called for user: " + userId);
+        String previous = current.con != null ? connectionUsers.get(current.con) : null;
+        if (previous != null && !previous.equals(userId)) {
+            unsubscribe(previous, current.con); // Otro usuario inició sesión en la misma pestaña
+        }
+        bindConnection(current.con, userId);
+        Object key = current.con != null ? current.con : cb;
+        subscribers.computeIfAbsent(userId, u -> new ConcurrentHashMap<>()).put(key, cb);
+    }
+
+    private void unsubscribe(String userId, Object key) {
+        subscribers.computeIfPresent(userId, (u, devices) -> {
+            devices.remove(key);
+            return devices.isEmpty() ? null : devices;
+        });
+    }
+
+    /**
+     * Invoca el callback en todos los dispositivos suscritos del usuario; los que fallan se
+     * dan de baja. Devuelve cuántos dispositivos lo recibieron
+     */
+    private int deliver(String userId, Consumer<ChatCallbackPrx> call, String what) {
+        Map<Object, ChatCallbackPrx> devices = subscribers.get(userId);
+        if (devices == null) {
+            return 0;
+        }
+        int delivered = 0;
+        for (Map.Entry<Object, ChatCallbackPrx> device : devices.entrySet()) {
+            try {
+                call.accept(device.getValue());
+                delivered++;
+            } catch (Exception e) {
+                System.err.println("[SERVER] Error delivering " + what + " to " + userId + ": "
+                        + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                unsubscribe(userId, device.getKey());
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Liga la identidad a la conexión una sola vez; las llamadas siguientes por la misma
+     * conexión la resuelven con una búsqueda en el mapa
+     */
+    private void bindConnection(Connection con, String userId) {
+        if (con == null || userId == null) {
+            return; // Llamada colocada (sin conexión)
+        }
+        if (connectionUsers.put(con, userId) == null) {
+            try {
+                con.setCloseCallback(this::connectionClosed);
+            } catch (Exception e) {
+                // La conexión ya se cerró: el callback no se registró
+                connectionUsers.remove(con);
+            }
+        }
+    }
+
+    private void connectionClosed(Connection con) {
+        sendLanes.remove(con); // Lo ya encolado termina igual
+        String userId = connectionUsers.remove(con);
+        if (userId != null) {
+            unsubscribe(userId, con);
+            System.out.println("[SERVER] ICE connection closed for user: " + userId);
+        }
     }
 
     private void notifySubscribers(Message msg) {
         System.out.println("[SERVER] notifySubscribers called for msg to: " + msg.receiver + ", from: " + msg.sender);
 
-        // 1. Send to receiver (if online)
+        // 1. Send to receiver (if online), on every subscribed device
         if (subscribers.containsKey(msg.receiver)) {
-            try {
-                System.out.println("[SERVER] Sending to receiver: " + msg.receiver);
-                subscribers.get(msg.receiver).onNewMessage(msg);
-            } catch (Exception e) {
-                System.err.println("[SERVER] Error sending to receiver: "
-                        + (e.getMessage() != null ? e.getMessage() : "(no message)"));
-                e.printStackTrace();
-                subscribers.remove(msg.receiver);
+            System.out.println("[SERVER] Sending to receiver: " + msg.receiver);
+            if (deliver(msg.receiver, cb -> cb.onNewMessage(msg), "onNewMessage") == 0) {
                 // Fallback: send via AudioServer signaling if available
                 if (AudioServer.INSTANCE != null) {
-                    String encodedContent = msg.content;
-                    try {
-                        encodedContent = URLEncoder.encode(msg.content != null ? msg.content : "", "UTF-8");
-                    } catch (Exception encEx) {
-                        System.err.println("[SERVER] Failed to URL-encode message content for SIGNAL fallback: "
-                                + encEx.getMessage());
-                    }
-                    String signal = "MSG|" + msg.sender + "|MSG|" + encodedContent;
+                    String signal = Envelope.text(msg.sender, msg.receiver, false, msg.content).signalLine();
                     boolean ok = AudioServer.INSTANCE.sendSignalTo(msg.receiver, signal);
                     if (ok) {
                         System.out.println("[SERVER] Fallback: sent message via AudioServer to " + msg.receiver);
@@ -296,66 +402,56 @@ public class ChatServiceImpl implements ChatService {
             String groupName = msg.receiver.substring(1);
             List<String> members = chatServices.getGroupMembers(groupName);
             for (String member : members) {
-                if (!member.equals(msg.sender) && subscribers.containsKey(member)) {
-                    try {
-                        subscribers.get(member).onNewMessage(msg);
-                    } catch (Exception e) {
-                        subscribers.remove(member);
-                    }
+                if (!member.equals(msg.sender)) {
+                    deliver(member, cb -> cb.onNewMessage(msg), "onNewMessage");
                 }
             }
         }
     }
 
     private void notifyCallEnded(String userId, Call call) {
-        ChatCallbackPrx callback = subscribers.get(userId);
-        if (callback != null) {
-            try {
-                callback.onCallEnded(call.callId);
-            } catch (Exception e) {
-                // Ignore
-            }
-        }
+        deliver(userId, cb -> cb.onCallEnded(call.callId), "onCallEnded");
     }
 
     private String getUserFromCurrent(Current current) {
-        // Extract user from connection context or connection info
-        // For WebSocket connections, we can try to get user from connection string
-        String connectionInfo = current.con.toString();
-
-        // Look for user parameter in connection string
-        // (ws://host:port/ChatService?user=username)
-        if (connectionInfo.contains("user=")) {
-            String[] parts = connectionInfo.split("user=");
-            if (parts.length > 1) {
-                String userPart = parts[1].split("[&\\s]")[0]; // Extract until & or space
-                return userPart;
+        if (current.con != null) {
+            String bound = connectionUsers.get(current.con);
+            if (bound != null) {
+                return bound;
             }
         }
-
-        // Fallback: try context
-        if (current.ctx != null && current.ctx.containsKey("user")) {
-            Object ctxVal = current.ctx.get("user");
-            System.out.println("[SERVER] current.ctx contains: user=" + ctxVal);
-            return (String) ctxVal;
+        // Primera llamada por esta conexión sin subscribe previo: resolver una vez y ligar
+        String user = parseUserFromCurrent(current);
+        if (user == null) {
+            System.out.println("[SERVER] Unable to extract user from current, ctx: " + current.ctx);
+            return "unknown_user";
         }
+        bindConnection(current.con, user);
+        return user;
+    }
 
-        // Last resort: extract from connection string pattern
-        // This is a temporary solution for demo purposes
-        if (current.ctx != null) {
-            System.out.println("[SERVER] Current.ctx entries: " + current.ctx);
+    private String parseUserFromCurrent(Current current) {
+        // Proxy con ?user= en el recurso WebSocket (ws://host:port/ChatService?user=username)
+        if (current.con != null) {
+            String connectionInfo = current.con.toString();
+            int idx = connectionInfo.indexOf("user=");
+            if (idx >= 0) {
+                return connectionInfo.substring(idx + 5).split("[&\\s]")[0];
+            }
+        }
+        // Contexto explícito o implícito del cliente
+        if (current.ctx != null && current.ctx.containsKey("user")) {
+            return current.ctx.get("user");
         }
-        System.out.println("[SERVER] Unable to extract user from current: " + connectionInfo + ", ctx: "
-                + (current.ctx != null ? current.ctx : "null"));
-        return "unknown_user";
+        return null;
     }
 
     private Message parseMessage(String line) {
         // Simple parser for the JSON-like format
-        // {type:text,from:user1,target:user2,isGroup:false,msg:hello,ts:2023-...}
+        // {type:text,id:123,seq:4,from:user1,target:user2,isGroup:false,msg:hello,ts:2023-...}
         try {
             Message msg = new Message();
-            msg.id = System.currentTimeMillis() + ""; // Generate ID
+            msg.id = null;
             msg.isAudio = line.contains("type:voice_note");
 
             // Extract fields
@@ -366,6 +462,11 @@ public class ChatServiceImpl implements ChatService {
                     String key = kv[0].trim();
                     String value = kv[1].trim();
                     switch (key) {
+                        case "id":
+                            if (msg.id == null) {
+                                msg.id = value; // El primero es el del registro; el texto podría contener otro
+                            }
+                            break;
                         case "from":
                             msg.sender = value;
                             break;
@@ -382,6 +483,10 @@ public class ChatServiceImpl implements ChatService {
                     }
                 }
             }
+            if (msg.id == null) {
+                // Registro anterior a los ids: id estable derivado del instante y del contenido
+                msg.id = Long.toString(IdGenerator.legacyId(msg.timestamp, line.hashCode()));
+            }
             return msg;
         } catch (Exception e) {
             return null;
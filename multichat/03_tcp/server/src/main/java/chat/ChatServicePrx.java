@@ -57,6 +57,48 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         return f;
     }
 
+    default SequencedMessage[] getMessagesSince(String conversation, long seq)
+    {
+        return getMessagesSince(conversation, seq, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default SequencedMessage[] getMessagesSince(String conversation, long seq, java.util.Map<String, String> context)
+    {
+        return _iceI_getMessagesSinceAsync(conversation, seq, context, true).waitForResponse();
+    }
+
+    default java.util.concurrent.CompletableFuture<SequencedMessage[]> getMessagesSinceAsync(String conversation, long seq)
+    {
+        return _iceI_getMessagesSinceAsync(conversation, seq, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<SequencedMessage[]> getMessagesSinceAsync(String conversation, long seq, java.util.Map<String, String> context)
+    {
+        return _iceI_getMessagesSinceAsync(conversation, seq, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_conversation -
+     * @param iceP_seq -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<SequencedMessage[]> _iceI_getMessagesSinceAsync(String iceP_conversation, long iceP_seq, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<SequencedMessage[]> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getMessagesSince", null, sync, null);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_conversation);
+                     ostr.writeLong(iceP_seq);
+                 }, istr -> {
+                     SequencedMessage[] ret;
+                     ret = SequencedMessageSeqHelper.read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
     default void sendMessage(String receiver, String content)
     {
         sendMessage(receiver, content, com.zeroc.Ice.ObjectPrx.noExplicitContext);
@@ -0,0 +1,168 @@
+package chat;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Buffer de jitter para un stream de audio reenviado por AudioServer.
+ * Reordena los frames por número de secuencia, los libera a ritmo constante y
+ * ajusta su profundidad según el jitter de llegada medido (estimador de RFC 3550).
+ */
+public class JitterBuffer {
+
+    public static final int MIN_DEPTH = 1;
+    public static final int MAX_DEPTH = 12;
+    private static final long DEFAULT_INTERVAL_MS = 20;
+
+    private final TreeMap<Long, ByteBuffer> frames = new TreeMap<>();
+
+    // Estado de reproducción
+    private long nextSeq = -1;
+    private boolean prefilling = true;
+    private long nextEmitAt = 0;
+
+    // Estimación de llegada
+    private long lastArrivalMs = -1;
+    private double intervalMs = DEFAULT_INTERVAL_MS;
+    private double jitterMs = 0;
+    private int targetDepth = 2;
+
+    // Instrumentación
+    private long received = 0;
+    private long emitted = 0;
+    private long lateFrames = 0;
+    private long droppedFrames = 0;
+    private long lostFrames = 0;
+    private long underruns = 0;
+
+    /**
+     * Agrega un frame recibido. Los frames que llegan después de que su turno ya
+     * pasó se descartan como tardíos.
+     */
+    public synchronized void offer(long seq, ByteBuffer frame, long nowMs) {
+        received++;
+        updateArrivalStats(nowMs);
+
+        if (nextSeq >= 0 && seq < nextSeq) {
+            lateFrames++;
+            return;
+        }
+        if (frames.putIfAbsent(seq, frame) != null) {
+            return; // duplicado
+        }
+        // No dejar crecer el buffer sin límite: se descartan los frames más viejos
+        while (frames.size() > MAX_DEPTH * 2) {
+            frames.pollFirstEntry();
+            droppedFrames++;
+            nextSeq = frames.firstKey();
+        }
+    }
+
+    /**
+     * Devuelve el siguiente frame si ya le toca salir, o null si todavía no.
+     * Si falta un número de secuencia y el buffer ya tiene suficiente profundidad,
+     * el hueco se da por perdido y se salta.
+     */
+    public synchronized ByteBuffer poll(long nowMs) {
+        if (frames.isEmpty()) {
+            if (!prefilling && emitted > 0) {
+                underruns++;
+                prefilling = true;
+            }
+            return null;
+        }
+        if (prefilling) {
+            if (frames.size() < targetDepth) {
+                return null;
+            }
+            prefilling = false;
+            nextEmitAt = nowMs;
+        }
+        if (nowMs < nextEmitAt) {
+            return null;
+        }
+
+        Map.Entry<Long, ByteBuffer> first = frames.firstEntry();
+        if (nextSeq < 0) {
+            nextSeq = first.getKey();
+        }
+        if (first.getKey() > nextSeq && frames.size() < targetDepth) {
+            // Esperar un poco por el frame que falta
+            return null;
+        }
+        if (first.getKey() > nextSeq) {
+            lostFrames += first.getKey() - nextSeq;
+        }
+        frames.pollFirstEntry();
+        nextSeq = first.getKey() + 1;
+        emitted++;
+
+        // Si el buffer está por encima del objetivo se acelera un poco para drenarlo
+        long step = Math.round(intervalMs);
+        if (frames.size() > targetDepth) {
+            step = Math.max(1, step * 3 / 4);
+        }
+        nextEmitAt = Math.max(nextEmitAt + step, nowMs - step);
+        return first.getValue();
+    }
+
+    /**
+     * Descarta los frames más viejos hasta dejar como máximo depth en el buffer
+     * @return número de frames descartados
+     */
+    public synchronized int trimTo(int depth) {
+        int dropped = 0;
+        while (frames.size() > depth) {
+            frames.pollFirstEntry();
+            dropped++;
+        }
+        if (dropped > 0) {
+            droppedFrames += dropped;
+            nextSeq = frames.isEmpty() ? nextSeq : frames.firstKey();
+        }
+        return dropped;
+    }
+
+    /**
+     * Milisegundos hasta que vale la pena volver a llamar a poll
+     */
+    public synchronized long millisUntilNext(long nowMs) {
+        if (frames.isEmpty() || prefilling) {
+            return Math.max(1, Math.round(intervalMs / 2));
+        }
+        return Math.max(0, nextEmitAt - nowMs);
+    }
+
+    private void updateArrivalStats(long nowMs) {
+        if (lastArrivalMs >= 0) {
+            long delta = nowMs - lastArrivalMs;
+            // El intervalo entre frames se estima con una media móvil; el jitter es la
+            // desviación absoluta respecto a ese intervalo, suavizada con factor 1/16
+            double deviation = Math.abs(delta - intervalMs);
+            intervalMs += (delta - intervalMs) / 8.0;
+            intervalMs = Math.max(1, intervalMs);
+            jitterMs += (deviation - jitterMs) / 16.0;
+            int depth = (int) Math.ceil((2 * jitterMs) / intervalMs) + 1;
+            targetDepth = Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth));
+        }
+        lastArrivalMs = nowMs;
+    }
+
+    public synchronized int size() { return frames.size(); }
+    public synchronized int getTargetDepth() { return targetDepth; }
+    public synchronized double getJitterMs() { return jitterMs; }
+    public synchronized double getIntervalMs() { return intervalMs; }
+    public synchronized long getReceived() { return received; }
+    public synchronized long getEmitted() { return emitted; }
+    public synchronized long getLateFrames() { return lateFrames; }
+    public synchronized long getDroppedFrames() { return droppedFrames; }
+    public synchronized long getLostFrames() { return lostFrames; }
+    public synchronized long getUnderruns() { return underruns; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("received=%d, emitted=%d, late=%d, dropped=%d, lost=%d, underruns=%d, jitter=%.1fms, interval=%.1fms, depth=%d/%d",
+                received, emitted, lateFrames, droppedFrames, lostFrames, underruns, jitterMs, intervalMs, frames.size(), targetDepth);
+    }
+}
@@ -0,0 +1,157 @@
+//
+// Copyright (c) ZeroC, Inc. All rights reserved.
+//
+//
+// Ice version 3.7.10
+//
+// <auto-generated>
+//
+// Generated from file `ChatService.ice'
+//
+// Warning: do not edit this file.
+//
+// </auto-generated>
+//
+
+package chat;
+
+public class SequencedMessage implements java.lang.Cloneable,
+                                        java.io.Serializable
+{
+    public Message msg;
+
+    public long seq;
+
+    public SequencedMessage()
+    {
+        this.msg = new Message();
+    }
+
+    public SequencedMessage(Message msg, long seq)
+    {
+        this.msg = msg;
+        this.seq = seq;
+    }
+
+    public boolean equals(java.lang.Object rhs)
+    {
+        if(this == rhs)
+        {
+            return true;
+        }
+        SequencedMessage r = null;
+        if(rhs instanceof SequencedMessage)
+        {
+            r = (SequencedMessage)rhs;
+        }
+
+        if(r != null)
+        {
+            if(this.msg != r.msg)
+            {
+                if(this.msg == null || r.msg == null || !this.msg.equals(r.msg))
+                {
+                    return false;
+                }
+            }
+            if(this.seq != r.seq)
+            {
+                return false;
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    public int hashCode()
+    {
+        int h_ = 5381;
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, "::chat::SequencedMessage");
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, msg);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, seq);
+        return h_;
+    }
+
+    public SequencedMessage clone()
+    {
+        SequencedMessage c = null;
+        try
+        {
+            c = (SequencedMessage)super.clone();
+        }
+        catch(CloneNotSupportedException ex)
+        {
+            assert false; // impossible
+        }
+        return c;
+    }
+
+    public void ice_writeMembers(com.zeroc.Ice.OutputStream ostr)
+    {
+        Message.ice_write(ostr, this.msg);
+        ostr.writeLong(this.seq);
+    }
+
+    public void ice_readMembers(com.zeroc.Ice.InputStream istr)
+    {
+        this.msg = Message.ice_read(istr);
+        this.seq = istr.readLong();
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, SequencedMessage v)
+    {
+        if(v == null)
+        {
+            _nullMarshalValue.ice_writeMembers(ostr);
+        }
+        else
+        {
+            v.ice_writeMembers(ostr);
+        }
+    }
+
+    static public SequencedMessage ice_read(com.zeroc.Ice.InputStream istr)
+    {
+        SequencedMessage v = new SequencedMessage();
+        v.ice_readMembers(istr);
+        return v;
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, int tag, java.util.Optional<SequencedMessage> v)
+    {
+        if(v != null && v.isPresent())
+        {
+            ice_write(ostr, tag, v.get());
+        }
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, int tag, SequencedMessage v)
+    {
+        if(ostr.writeOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            int pos = ostr.startSize();
+            ice_write(ostr, v);
+            ostr.endSize(pos);
+        }
+    }
+
+    static public java.util.Optional<SequencedMessage> ice_read(com.zeroc.Ice.InputStream istr, int tag)
+    {
+        if(istr.readOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            istr.skip(4);
+            return java.util.Optional.of(SequencedMessage.ice_read(istr));
+        }
+        else
+        {
+            return java.util.Optional.empty();
+        }
+    }
+
+    private static final SequencedMessage _nullMarshalValue = new SequencedMessage();
+
+    /** @hidden */
+    public static final long serialVersionUID = 4735216019388150277L;
+}
@@ -0,0 +1,62 @@
+package chat;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Carril sobre un executor compartido: las tareas se ejecutan de a una y en el orden en
+ * que llegaron, aunque el executor de abajo tenga varios hilos. Después de cada tarea el
+ * carril vuelve a la cola del executor, así uno con mucho trabajo no acapara un hilo.
+ */
+class SerialExecutor implements Executor {
+
+    private final Executor backing;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running = false; // Hay un drenado en curso o encolado en backing
+
+    SerialExecutor(Executor backing) {
+        this.backing = backing;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(task);
+        if (!running) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        running = true;
+        try {
+            backing.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            running = false; // Executor apagado: las tareas quedan sin ejecutar
+            tasks.clear();
+            throw e;
+        }
+    }
+
+    private void runNext() {
+        Runnable task;
+        synchronized (this) {
+            task = tasks.poll();
+        }
+        try {
+            if (task != null) {
+                task.run();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] Task failed in serial executor: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    running = false;
+                } else {
+                    schedule();
+                }
+            }
+        }
+    }
+}
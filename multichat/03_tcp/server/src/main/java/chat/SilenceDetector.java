@@ -0,0 +1,58 @@
+package chat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Detector de silencio para streams PCM de 16 bits little-endian.
+ * Un frame se considera silencio si su energía RMS está por debajo del umbral;
+ * después de voz se siguen dejando pasar algunos frames (hangover) para no cortar
+ * el final de las palabras.
+ */
+public class SilenceDetector {
+
+    public static final double DEFAULT_THRESHOLD = 300.0;
+    public static final int DEFAULT_HANGOVER_FRAMES = 5;
+
+    private final double threshold;
+    private final int hangoverFrames;
+    private int silentRun = 0;
+
+    public SilenceDetector() {
+        this(DEFAULT_THRESHOLD, DEFAULT_HANGOVER_FRAMES);
+    }
+
+    public SilenceDetector(double threshold, int hangoverFrames) {
+        this.threshold = threshold;
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    /**
+     * @return true si el frame puede omitirse (silencio fuera del hangover)
+     */
+    public synchronized boolean shouldSkip(ByteBuffer frame) {
+        if (rms(frame) >= threshold) {
+            silentRun = 0;
+            return false;
+        }
+        silentRun++;
+        return silentRun > hangoverFrames;
+    }
+
+    /**
+     * Energía RMS del frame, sin modificar la posición del buffer
+     */
+    public static double rms(ByteBuffer frame) {
+        ByteBuffer view = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int samples = view.remaining() / 2;
+        if (samples == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < samples; i++) {
+            short s = view.getShort();
+            sum += (double) s * s;
+        }
+        return Math.sqrt(sum / samples);
+    }
+}
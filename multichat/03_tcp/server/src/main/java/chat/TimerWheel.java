@@ -0,0 +1,104 @@
+package chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rueda de temporización (hashed timer wheel) con un único hilo de tick.
+ * Se usa para emitir frames de audio a ritmo constante sin crear un timer por stream:
+ * cada tick sólo procesa las tareas de su ranura.
+ *
+ * Sólo el hilo de tick toca las ranuras: schedule deja la tarea en una cola de entrada
+ * con su tick de vencimiento y el tick siguiente la ubica. Así una tarea programada
+ * justo mientras se procesa su ranura no espera una vuelta entera de la rueda.
+ */
+public final class TimerWheel {
+
+    private static class Entry {
+        final long deadline; // Tick en el que vence
+        final Runnable task;
+        Entry(long deadline, Runnable task) { this.deadline = deadline; this.task = task; }
+    }
+
+    private final long tickMs;
+    private final List<ArrayDeque<Entry>> slots;
+    private final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService ticker;
+    private volatile long currentTick = 0;
+
+    public TimerWheel(long tickMs, int slotCount) {
+        this(tickMs, slotCount, true);
+    }
+
+    /**
+     * @param start false para avanzar la rueda a mano con {@link #tick()} (tests)
+     */
+    TimerWheel(long tickMs, int slotCount, boolean start) {
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayDeque<>());
+        }
+        if (!start) {
+            this.ticker = null;
+            return;
+        }
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "audio-timer-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    /**
+     * Programa una tarea para dentro de delayMs (redondeado al tick, mínimo un tick)
+     */
+    public void schedule(long delayMs, Runnable task) {
+        long ticks = Math.max(1, (delayMs + tickMs - 1) / tickMs);
+        incoming.add(new Entry(currentTick + ticks, task));
+    }
+
+    void tick() {
+        long tick = ++currentTick;
+        ArrayDeque<Entry> slot = slotFor(tick);
+        // Lo programado desde el último tick; lo ya vencido (o que vence ahora) se procesa en esta ranura
+        Entry added;
+        while ((added = incoming.poll()) != null) {
+            (added.deadline <= tick ? slot : slotFor(added.deadline)).add(added);
+        }
+        int pending = slot.size();
+        for (int i = 0; i < pending; i++) {
+            Entry e = slot.poll();
+            if (e.deadline > tick) {
+                slot.add(e); // Vence en una vuelta posterior
+                continue;
+            }
+            try {
+                e.task.run();
+            } catch (Exception ex) {
+                System.err.println("[AUDIO] Timer wheel task failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    private ArrayDeque<Entry> slotFor(long tick) {
+        return slots.get((int) (tick % slots.size()));
+    }
+
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+}
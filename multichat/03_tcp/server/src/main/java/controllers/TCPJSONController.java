@@ -17,6 +17,10 @@ import com.google.gson.GsonBuilder;
 import dtos.Request;
 import dtos.Response;
 import services.ChatServicesImpl;
+import services.ConversationSeqs;
+import services.Envelope;
+import services.PresenceService;
+import services.VersionedDirectory;
 
 
 public class TCPJSONController {
@@ -113,34 +117,34 @@ public class TCPJSONController {
                             String from = (String) data.get("from");
                             String to = (String) data.get("to");
                             String content = (String) data.get("content");
-                            boolean sent = chatServices.sendMessageToUser(from, to, content);
-                            response.setStatus(sent ? "OK" : "ERROR");
-                            response.setSuccess(sent);
-                            response.setMessage(sent ? "Mensaje enviado" : "Error al enviar mensaje");
+                            Envelope env = chatServices.sendToUser(from, to, content);
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.setMessage("Mensaje enviado");
+                            response.put("id", env.id);
                             break;
 
                         case "SEND_MESSAGE_GROUP":
                             from = (String) data.get("from");
                             String groupName = (String) data.get("groupName");
                             content = (String) data.get("content");
-                            sent = chatServices.sendMessageToGroup(from, groupName, content);
-                            response.setStatus(sent ? "OK" : "ERROR");
-                            response.setSuccess(sent);
-                            response.setMessage(sent ? "Mensaje enviado al grupo" : "Error al enviar mensaje al grupo");
+                            env = chatServices.sendToGroup(from, groupName, content);
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.setMessage("Mensaje enviado al grupo");
+                            response.put("id", env.id);
                             break;
 
                         case "GET_ONLINE_USERS":
-                            List<String> users = chatServices.getOnlineUsers();
                             response.setStatus("OK");
                             response.setSuccess(true);
-                            response.put("users", users);
+                            putVersioned(response, "users", chatServices.getOnlineView(), data);
                             break;
                         
                         case "GET_ALL_USERS":
-                            Map<String, Boolean> usersStatus = chatServices.getAllUsersWithStatus();
                             response.setStatus("OK");
                             response.setSuccess(true);
-                            response.put("users", usersStatus);
+                            putVersioned(response, "users", chatServices.getUsersView(), data);
                             break;
 
                         case "CREATE_GROUP":
@@ -163,17 +167,61 @@ public class TCPJSONController {
 
                         case "GET_HISTORY":
                             username = (String) data.get("username");
-                            List<String> history = chatServices.getHistory(username);
+                            // Rango opcional (epoch ms): sólo se leen los segmentos que lo cruzan
+                            Object fromMs = data.get("from");
+                            Object toMs = data.get("to");
+                            List<String> history = fromMs instanceof Number || toMs instanceof Number
+                                    ? chatServices.getHistory(username,
+                                            fromMs instanceof Number ? ((Number) fromMs).longValue() : Long.MIN_VALUE,
+                                            toMs instanceof Number ? ((Number) toMs).longValue() : Long.MAX_VALUE)
+                                    : chatServices.getHistory(username);
                             response.setStatus("OK");
                             response.setSuccess(true);
                             response.put("history", history);
                             break;
 
+                        case "GET_MESSAGES_SINCE":
+                            // Resincronización: sólo lo posterior a la última secuencia vista
+                            username = (String) data.get("username");
+                            String conversation = (String) data.get("conversation");
+                            long sinceSeq = data.get("seq") instanceof Number ? ((Number) data.get("seq")).longValue() : 0;
+                            List<String> gap = chatServices.getMessagesSince(username, conversation, sinceSeq);
+                            long lastSeq = sinceSeq; // Nuevo cursor del cliente
+                            for (String record : gap) {
+                                lastSeq = Math.max(lastSeq, ConversationSeqs.seqOf(record));
+                            }
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("messages", gap);
+                            response.put("lastSeq", lastSeq);
+                            break;
+
+                        case "GET_HISTORY_STATS":
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("stats", chatServices.getHistoryStats());
+                            break;
+
+                        case "GET_CONVERSATIONS":
+                            username = (String) data.get("username");
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("conversations", chatServices.getConversations(username));
+                            break;
+
+                        case "MARK_READ":
+                            username = (String) data.get("username");
+                            int unread = chatServices.markRead(username, (String) data.get("conversation"),
+                                    ((Number) data.get("seq")).longValue());
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("unread", unread);
+                            break;
+
                         case "GET_GROUPS":
-                            List<String> groups = chatServices.getGroups();
                             response.setStatus("OK");
                             response.setSuccess(true);
-                            response.put("groups", groups);
+                            putVersioned(response, "groups", chatServices.getGroupsView(), data);
                             break;
                         
                         case "GET_USER_GROUPS":
@@ -186,10 +234,38 @@ public class TCPJSONController {
 
                         case "GET_PENDING_MESSAGES":
                             username = (String) data.get("username");
-                            List<String> pending = chatServices.getPendingMessages(username);
                             response.setStatus("OK");
                             response.setSuccess(true);
-                            response.put("messages", pending);
+                            // "ack" confirma la respuesta anterior; con "ack" o "acked" la entrega es confirmada
+                            Object ackSeq = data.get("ack");
+                            if (ackSeq instanceof Number) {
+                                chatServices.ackPending(username, ((Number) ackSeq).longValue());
+                            }
+                            if (ackSeq instanceof Number || Boolean.TRUE.equals(data.get("acked"))) {
+                                ChatServicesImpl.PendingBatch batch = chatServices.fetchPending(username);
+                                response.put("messages", batch.messages);
+                                response.put("seqs", batch.seqs);
+                                response.put("lastSeq", batch.lastSeq);
+                            } else {
+                                response.put("messages", chatServices.getPendingMessages(username));
+                            }
+                            break;
+
+                        case "ACK_MESSAGES":
+                            username = (String) data.get("username");
+                            long acked = chatServices.ackPending(username, ((Number) data.get("upTo")).longValue());
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("acked", acked);
+                            break;
+
+                        case "GET_PRESENCE":
+                            username = (String) data.get("username");
+                            PresenceService.Snapshot presence = chatServices.getPresence(username);
+                            response.setStatus("OK");
+                            response.setSuccess(true);
+                            response.put("version", presence.version);
+                            response.put("contacts", presence.contacts);
                             break;
 
                         case "CLEAR_CHAT_HISTORY":
@@ -240,5 +316,30 @@ public class TCPJSONController {
                 e.printStackTrace();
             }
         }
+
+        /**
+         * Con sinceVersion responde "unchanged" o sólo los cambios; sin él (o si es muy vieja), el snapshot completo.
+         * Siempre incluye "version" para la siguiente consulta
+         */
+        private void putVersioned(Response response, String field, VersionedDirectory.View<?> view, Map<String, Object> data) {
+            Object since = data != null ? data.get("sinceVersion") : null;
+            if (since instanceof Number) {
+                VersionedDirectory.Delta delta = view.since(((Number) since).longValue());
+                if (delta != null) {
+                    response.put("version", delta.version);
+                    if (delta.isEmpty()) {
+                        response.put("unchanged", true);
+                    } else {
+                        response.put("delta", true);
+                        response.put("changed", delta.changed);
+                        response.put("removed", delta.removed);
+                    }
+                    return;
+                }
+            }
+            VersionedDirectory.Snapshot<?> snapshot = view.snapshot();
+            response.put("version", snapshot.version);
+            response.put(field, snapshot.data);
+        }
     }
 }
@@ -0,0 +1,55 @@
+package services;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Reemplazo seguro de archivos: se escribe un temporal, se fuerza a disco y se renombra
+ * sobre el original. Una caída deja el archivo anterior o el nuevo, nunca uno a medias.
+ */
+final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Reemplaza el contenido de file por text (UTF-8)
+     */
+    static void write(File file, String text) throws IOException {
+        write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void write(File file, byte[] content) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(content);
+            fos.getFD().sync();
+        }
+        move(tmp, file);
+    }
+
+    /**
+     * Fuerza a disco un archivo ya escrito (antes de apoyarse en él para borrar otro)
+     */
+    static void sync(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.getFD().sync();
+        }
+    }
+
+    /**
+     * Renombra from sobre to, atómicamente si el sistema de archivos lo permite
+     */
+    static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (java.nio.file.AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -1,16 +1,14 @@
 package services;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,106 +24,138 @@ public class ChatServicesImpl {
     private final Map<String, ClientSession> users = new ConcurrentHashMap<>();
     private final Set<String> allKnownUsers = ConcurrentHashMap.newKeySet(); // Registro permanente de usuarios
     private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
-    private final Map<String, List<String>> pendingMessages = new ConcurrentHashMap<>(); // Cola de mensajes pendientes para cada usuario
-    private final File dataDir = new File("data");
-    private final File historyDir = new File(dataDir, "history");
-    private final File mediaDir = new File(dataDir, "media");
-    private final File usersFile = new File(dataDir, "users.txt");
-    private final File groupsFile = new File(dataDir, "groups.txt");
+    private final Map<String, Set<String>> userGroups = new ConcurrentHashMap<>(); // Índice inverso: usuario -> grupos
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>(); // Buzón privado de cada usuario, en disco
+    private final Map<String, GroupLog> groupLogs = new ConcurrentHashMap<>(); // Mensajes pendientes de grupo, guardados una sola vez
+    private final File dataDir;
+    private final File mediaDir;
+    private final File mailboxDir;
+    private final File groupLogDir;
+    private final RegistryStore registry; // users.txt, groups.txt + log de cambios
+    private final PresenceService presence; // Avisos de conexión sólo a los contactos, en lotes
+    private final ConversationSeqs seqs = new ConversationSeqs(this::lastSeqOnDisk); // Secuencia de cada conversación
+    private final HistoryStore history; // Un archivo por conversación
+    private final ConversationIndex conversations; // Lista de chats de cada usuario, en memoria
+
+    // Snapshots versionados para el polling del cliente web (GET_ALL_USERS, GET_GROUPS, GET_ONLINE_USERS)
+    private final VersionedDirectory directory = new VersionedDirectory();
+    private final VersionedDirectory.View<Map<String, Boolean>> usersView = directory.view(this::buildUsersWithStatus);
+    private final VersionedDirectory.View<List<String>> groupsView = directory.view(() -> List.copyOf(groups.keySet()));
+    private final VersionedDirectory.View<List<String>> onlineView = directory.view(() -> List.copyOf(users.keySet()));
 
     public ChatServicesImpl() {
-        historyDir.mkdirs();
+        this(new File("data"));
+    }
+
+    public ChatServicesImpl(File dataDir) {
+        this.dataDir = dataDir;
+        this.mediaDir = new File(dataDir, "media");
+        this.mailboxDir = new File(dataDir, "mailbox");
+        this.groupLogDir = new File(dataDir, "grouplog");
+        this.registry = new RegistryStore(dataDir, allKnownUsers, groups);
+        this.history = new HistoryStore(new File(dataDir, "history"));
+        this.conversations = new ConversationIndex(new File(dataDir, "read"), this::historyOrEmpty);
+        this.presence = new PresenceService(groups, userGroups, (user, line) -> {
+            ClientSession session = users.get(user);
+            if (session != null) {
+                session.send(line);
+            }
+        }, PresenceService.DEFAULT_FLUSH_MS);
         mediaDir.mkdirs();
-        loadKnownUsers();
-        loadGroups();
+        mailboxDir.mkdirs();
+        registry.load();
+        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
+            for (String member : entry.getValue()) {
+                indexMember(entry.getKey(), member);
+            }
+        }
+        recoverMailboxes();
+        history.enforceRetention();
     }
-    
-    private void loadKnownUsers() {
-        if (usersFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(usersFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    allKnownUsers.add(line.trim());
+
+    /**
+     * Carga los buzones con mensajes sin entregar; cada uno se lee desde su offset confirmado
+     */
+    private void recoverMailboxes() {
+        int recovered = 0;
+        for (String user : Mailbox.listUsers(mailboxDir)) {
+            try {
+                Mailbox box = Mailbox.open(mailboxDir, user);
+                if (box.size() > 0) {
+                    mailboxes.put(user, box);
+                    recovered += box.size();
                 }
-                System.out.println("[DEBUG] Loaded " + allKnownUsers.size() + " known users");
             } catch (IOException e) {
-                System.err.println("[ERROR] Failed to load users: " + e.getMessage());
+                System.err.println("[ERROR] Could not recover mailbox of " + user + ": " + e.getMessage());
             }
         }
-    }
-    
-    private void saveKnownUsers() {
-        try (FileWriter writer = new FileWriter(usersFile)) {
-            for (String username : allKnownUsers) {
-                writer.write(username + "\n");
-            }
-        } catch (IOException e) {
-            System.err.println("[ERROR] Failed to save users: " + e.getMessage());
+        if (recovered > 0) {
+            System.out.println("[SERVER] Recovered " + recovered + " undelivered messages");
         }
     }
-    
-    private void loadGroups() {
-        if (groupsFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(groupsFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    // Formato: groupName:member1,member2,member3
-                    String[] parts = line.split(":", 2);
-                    if (parts.length == 2) {
-                        String groupName = parts[0].trim();
-                        String[] members = parts[1].split(",");
-                        
-                        Set<String> memberSet = ConcurrentHashMap.newKeySet();
-                        for (String member : members) {
-                            String trimmedMember = member.trim();
-                            if (!trimmedMember.isEmpty()) {
-                                memberSet.add(trimmedMember);
-                            }
-                        }
-                        
-                        if (!memberSet.isEmpty()) {
-                            groups.put(groupName, memberSet);
-                        }
-                    }
-                }
-                System.out.println("[DEBUG] Loaded " + groups.size() + " groups");
-                for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-                    System.out.println("[DEBUG]   - " + entry.getKey() + ": " + entry.getValue());
-                }
-            } catch (IOException e) {
-                System.err.println("[ERROR] Failed to load groups: " + e.getMessage());
+
+    private Mailbox mailbox(String user) throws IOException {
+        Mailbox box = mailboxes.get(user);
+        if (box == null) {
+            Mailbox opened = Mailbox.open(mailboxDir, user);
+            box = mailboxes.putIfAbsent(user, opened);
+            if (box == null) {
+                box = opened;
             }
         }
+        return box;
     }
-    
-    private void saveGroups() {
-        try (FileWriter writer = new FileWriter(groupsFile)) {
-            for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-                String groupName = entry.getKey();
-                String members = String.join(",", entry.getValue());
-                writer.write(groupName + ":" + members + "\n");
-            }
-            System.out.println("[DEBUG] Saved " + groups.size() + " groups to file");
-        } catch (IOException e) {
-            System.err.println("[ERROR] Failed to save groups: " + e.getMessage());
+
+    private void deleteMailbox(String user) {
+        Mailbox box = mailboxes.remove(user);
+        if (box != null) {
+            box.delete();
         }
     }
 
     // ---- Sesión de cliente ----
     public static class ClientSession {
         public final String username;
-        public Socket socket;
-        public PrintWriter out;
+        public volatile Socket socket;
+        public volatile PrintWriter out; // Encola líneas en outbound; nunca escribe directo al socket
         public volatile int udpPort;
+        private volatile SessionOutbound outbound;
 
-        public ClientSession(String username, Socket socket) throws IOException {
+        public ClientSession(String username, Socket socket) {
             this.username = username;
-            this.socket = socket;
             if (socket != null) {
-                this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                attach(socket);
             }
         }
 
+        /**
+         * Asocia la sesión a un socket nuevo con su propia cola de salida
+         */
+        synchronized void attach(Socket socket) {
+            SessionOutbound previous = outbound;
+            this.outbound = new SessionOutbound(socket, username);
+            this.out = outbound.writer();
+            this.socket = socket;
+            if (previous != null) {
+                previous.close();
+            }
+        }
+
+        /**
+         * Encola bytes ya codificados; los destinatarios de un grupo comparten el mismo arreglo.
+         * Nunca bloquea: devuelve false si la sesión no tiene socket o se desconectó
+         */
+        public boolean send(byte[] data) {
+            SessionOutbound o = outbound;
+            return o != null && o.send(data);
+        }
+
+        /** Sesión con un socket propio (cliente nativo del puerto 6000) al que se puede empujar */
+        public boolean isSocketConnected() {
+            SessionOutbound o = outbound;
+            return o != null && !o.isClosed();
+        }
+
         public ClientSession(String username) {
             this.username = username;
             this.socket = null;
@@ -145,9 +175,8 @@ public class ChatServicesImpl {
         username = username.trim();
         
         // Registrar usuario si es nuevo
-        if (!allKnownUsers.contains(username)) {
-            allKnownUsers.add(username);
-            saveKnownUsers();
+        // El registro lo agrega a allKnownUsers y al log bajo su lock
+        if (!allKnownUsers.contains(username) && registry.addUser(username)) {
             System.out.println("[DEBUG] New user registered: " + username);
         }
         
@@ -155,31 +184,59 @@ public class ChatServicesImpl {
         if (users.containsKey(username)) {
             System.out.println("[DEBUG] User " + username + " reconnecting - updating session");
             ClientSession existingSession = users.get(username);
-            existingSession.socket = socket;
+            // Un login sin socket (TCP-JSON/ICE) no desconecta al cliente nativo de la misma cuenta
             if (socket != null) {
-                existingSession.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                existingSession.attach(socket);
+                existingSession.udpPort = udpPort;
+            } else if (udpPort != 0) {
+                existingSession.udpPort = udpPort;
             }
-            existingSession.udpPort = udpPort;
-            broadcast("SYS " + username + " reconnected");
+            presence.online(username);
             return true;
         }
         
         ClientSession session = new ClientSession(username, socket);
         session.udpPort = udpPort;
         users.put(username, session);
-        broadcast("SYS " + username + " joined");
+        usersView.put(username, true);
+        onlineView.put(username, true);
+        presence.online(username);
         return true;
     }
 
     public boolean logout(String username) {
         ClientSession session = users.remove(username);
         if (session != null) {
-            broadcast("SYS " + username + " left");
+            markOffline(username);
             return true;
         }
         return false;
     }
 
+    /**
+     * Cierra la sesión sólo si sigue asociada a este socket (el usuario pudo reconectarse por otro)
+     */
+    public boolean logout(String username, Socket socket) {
+        ClientSession session = users.get(username);
+        if (session == null || session.socket != socket || !users.remove(username, session)) {
+            return false;
+        }
+        markOffline(username);
+        return true;
+    }
+
+    private void markOffline(String username) {
+        if (allKnownUsers.contains(username)) {
+            usersView.put(username, false);
+        }
+        onlineView.remove(username);
+        presence.offline(username);
+    }
+
+    public ClientSession getSession(String username) {
+        return users.get(username);
+    }
+
     /**
      * Limpia usuarios inválidos (vacíos o solo espacios)
      * @return número de usuarios limpiados
@@ -198,20 +255,18 @@ public class ChatServicesImpl {
         
         // Eliminar usuarios inválidos
         for (String username : toRemove) {
-            allKnownUsers.remove(username);
+            // Baja en memoria y en el log a la vez (usuario y membresías)
+            registry.deleteUser(username, userGroups.getOrDefault(username, Set.of()));
             users.remove(username);
-            pendingMessages.remove(username);
+            usersView.remove(username);
+            onlineView.remove(username);
+            deleteMailbox(username);
             
             // Eliminar de grupos
-            for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-                entry.getValue().remove(username);
-            }
+            removeFromAllGroups(username);
         }
         
-        // Guardar cambios
         if (cleaned > 0) {
-            saveKnownUsers();
-            saveGroups();
             System.out.println("[CLEANUP] Removed " + cleaned + " invalid users");
         }
         
@@ -231,37 +286,30 @@ public class ChatServicesImpl {
         // 1. Hacer logout si está online
         logout(username);
         
-        // 2. Eliminar de todos los grupos
-        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-            entry.getValue().remove(username);
-        }
-        
-        // 3. Eliminar mensajes pendientes
-        pendingMessages.remove(username);
-        
-        // 4. Eliminar de la lista de usuarios conocidos
-        allKnownUsers.remove(username);
+        // 2. Baja del usuario y de sus membresías, en memoria y en el log del registro a la vez
+        registry.deleteUser(username, userGroups.getOrDefault(username, Set.of()));
+        usersView.remove(username);
         
-        // 5. Eliminar archivo de historial del usuario
-        File userHistoryFile = new File(historyDir, username + ".jsonl");
-        if (userHistoryFile.exists()) {
-            userHistoryFile.delete();
-        }
+        // 3. Quitarlo del índice de grupos y de los logs de pendientes
+        removeFromAllGroups(username);
         
-        // 6. Guardar cambios en users.txt
-        saveKnownUsers();
+        // 4. Eliminar mensajes pendientes
+        deleteMailbox(username);
         
-        // 7. Guardar cambios en groups.txt
-        saveGroups();
+        // 5. Olvidar sus chats privados (sus contactos conservan la conversación)
+        history.forget(username);
         
-        // 8. Broadcast de eliminación
-        broadcast("SYS User " + username + " has been deleted from the system");
+        // 6. Avisar a sus contactos
+        presence.forget(username);
+
+        // 7. Olvidar su lista de conversaciones y marcas de lectura
+        conversations.forget(username);
         
         return true;
     }
 
     public List<String> getOnlineUsers() {
-        return new ArrayList<>(users.keySet());
+        return onlineView.snapshot().data;
     }
     
     public List<String> getAllUsers() {
@@ -269,13 +317,22 @@ public class ChatServicesImpl {
     }
     
     public Map<String, Boolean> getAllUsersWithStatus() {
+        return usersView.snapshot().data;
+    }
+
+    private Map<String, Boolean> buildUsersWithStatus() {
         Map<String, Boolean> usersStatus = new HashMap<>();
         for (String username : allKnownUsers) {
             usersStatus.put(username, users.containsKey(username));
         }
-        return usersStatus;
+        return Collections.unmodifiableMap(usersStatus);
     }
 
+    // ---- Snapshots versionados ----
+    public VersionedDirectory.View<Map<String, Boolean>> getUsersView() { return usersView; }
+    public VersionedDirectory.View<List<String>> getGroupsView() { return groupsView; }
+    public VersionedDirectory.View<List<String>> getOnlineView() { return onlineView; }
+
     public void setUserUdpPort(String username, int port) {
         ClientSession session = users.get(username);
         if (session != null) {
@@ -285,42 +342,79 @@ public class ChatServicesImpl {
 
     // ---- Gestión de grupos ----
     public boolean createGroup(String groupName) {
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
-        saveGroups(); // Guardar inmediatamente
+        ensureGroup(groupName);
         System.out.println("[DEBUG] Group created (no creator): " + groupName);
         return true;
     }
     
     public boolean createGroup(String groupName, String creator) {
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
-        groups.get(groupName).add(creator);
-        saveGroups(); // Guardar inmediatamente
+        ensureGroup(groupName);
+        registry.addMember(groupName, creator);
+        indexMember(groupName, creator);
         System.out.println("[DEBUG] Group created: " + groupName + " by " + creator);
         System.out.println("[DEBUG] Members after creation: " + groups.get(groupName));
         return true;
     }
 
     public boolean addToGroup(String groupName, String username) {
-        groups.putIfAbsent(groupName, ConcurrentHashMap.newKeySet());
-        groups.get(groupName).add(username);
-        saveGroups(); // Guardar inmediatamente
+        ensureGroup(groupName);
+        registry.addMember(groupName, username);
+        indexMember(groupName, username);
         System.out.println("[DEBUG] User " + username + " added to group " + groupName);
         System.out.println("[DEBUG] Group members now: " + groups.get(groupName));
         return true;
     }
 
+    /**
+     * Crea el grupo si no existe; el registro lo agrega al mapa y al log bajo su lock
+     */
+    private void ensureGroup(String groupName) {
+        if (!groups.containsKey(groupName) && registry.createGroup(groupName)) {
+            groupsView.put(groupName, true);
+        }
+    }
+
     public List<String> getGroups() {
-        return new ArrayList<>(groups.keySet());
+        return groupsView.snapshot().data;
     }
     
     public List<String> getUserGroups(String username) {
-        List<String> userGroups = new ArrayList<>();
-        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-            if (entry.getValue().contains(username)) {
-                userGroups.add(entry.getKey());
+        return new ArrayList<>(userGroups.getOrDefault(username, Set.of()));
+    }
+
+    private void indexMember(String groupName, String username) {
+        userGroups.computeIfAbsent(username, u -> ConcurrentHashMap.newKeySet()).add(groupName);
+        groupLog(groupName).join(username);
+    }
+
+    /**
+     * Log de pendientes del grupo, abierto desde disco la primera vez (recupera lo que los
+     * miembros no confirmaron antes de un reinicio)
+     */
+    private GroupLog groupLog(String groupName) {
+        return groupLogs.computeIfAbsent(groupName, g -> {
+            try {
+                return GroupLog.open(groupLogDir, g);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Could not open pending log of group " + g + ": " + e.getMessage());
+                return new GroupLog(); // Sigue funcionando, sólo en memoria
+            }
+        });
+    }
+
+    /**
+     * Quita al usuario del índice inverso y de los logs de pendientes de sus grupos (de
+     * los miembros ya lo sacó registry.deleteUser, con un REMOVE_MEMBER por cada uno)
+     */
+    private void removeFromAllGroups(String username) {
+        Set<String> memberships = userGroups.remove(username);
+        if (memberships == null) return;
+        for (String groupName : memberships) {
+            GroupLog log = groupLogs.get(groupName);
+            if (log != null) {
+                log.leave(username);
             }
         }
-        return userGroups;
     }
 
     public List<String> getGroupMembers(String groupName) {
@@ -330,91 +424,247 @@ public class ChatServicesImpl {
 
     // ---- Mensajes de texto ----
     public boolean sendMessageToUser(String from, String to, String message) throws IOException {
-        String record = "{type:text,from:" + from + ",target:" + to + ",isGroup:false,msg:" + message + ",ts:" + Instant.now() + "}";
-        persist(from, to, false, record);
+        sendToUser(from, to, message);
+        return true;
+    }
+
+    /**
+     * Envía un mensaje privado y devuelve el mensaje con su id asignado
+     */
+    public Envelope sendToUser(String from, String to, String message) throws IOException {
+        if (to == null || !allKnownUsers.contains(to)) {
+            // Un destinatario desconocido no deja buzón ni historial en disco
+            throw new IllegalArgumentException("Unknown user: " + to);
+        }
+        Envelope env = persist(Envelope.text(from, to, false, message));
+        presence.recordPeers(from, to);
 
         ClientSession session = users.get(to);
-        
-        // Solo agregar a pendientes si el usuario está OFFLINE
+        if (session != null && session.isSocketConnected()) {
+            // Cliente nativo conectado: se empuja por su socket y no hace falta encolarlo
+            session.send(env.nativeBytes());
+            return env;
+        }
+
+        // El id del mensaje es también su orden y la secuencia que confirma el cliente
+        mailbox(to).append(env.id, from, env.pendingLine());
+
         if (session == null) {
-            pendingMessages.putIfAbsent(to, new ArrayList<>());
-            pendingMessages.get(to).add("MSG|" + from + "|" + message);
             System.out.println("[DEBUG] User " + to + " is offline, message queued");
         } else {
             // Usuario online - enviar vía polling (pendientes)
-            pendingMessages.putIfAbsent(to, new ArrayList<>());
-            pendingMessages.get(to).add("MSG|" + from + "|" + message);
             System.out.println("[DEBUG] User " + to + " is online, message sent to pending for polling");
         }
         
-        return true;
+        return env;
     }
 
     public boolean sendMessageToGroup(String from, String groupName, String message) throws IOException {
-        String record = "{type:text,from:" + from + ",target:" + groupName + ",isGroup:true,msg:" + message + ",ts:" + Instant.now() + "}";
-        persist(from, groupName, true, record);
+        sendToGroup(from, groupName, message);
+        return true;
+    }
+
+    /**
+     * Envía un mensaje a un grupo y devuelve el mensaje con su id asignado
+     */
+    public Envelope sendToGroup(String from, String groupName, String message) throws IOException {
+        Envelope env = persist(Envelope.text(from, groupName, true, message));
 
         Set<String> members = groups.getOrDefault(groupName, Set.of());
         System.out.println("[DEBUG] Sending message to group: " + groupName);
         System.out.println("[DEBUG] Group members: " + members);
         System.out.println("[DEBUG] Message: " + message + " from: " + from);
-        
+
+        // Se guarda una vez en el log del grupo; cada miembro lo lee desde su cursor
+        GroupLog log = groupLogs.get(groupName);
+        if (log != null) {
+            log.append(env.id, from, env.pendingLine());
+        }
+
         for (String username : members) {
             // NO enviar el mensaje al remitente
             if (username.equals(from)) {
                 continue;
             }
-            
-            // Agregar a cola de mensajes pendientes de cada miembro
-            pendingMessages.putIfAbsent(username, new ArrayList<>());
-            String pendingMsg = "GROUP|" + groupName + "|" + from + "|" + message;
-            pendingMessages.get(username).add(pendingMsg);
-            System.out.println("[DEBUG] Added to pending queue for " + username + ": " + pendingMsg);
-            
+
             ClientSession session = users.get(username);
-            if (session != null && session.out != null) {
-                session.out.println("MSG " + from + " -> #" + groupName + ": " + message);
+            if (session != null && session.isSocketConnected()) {
+                session.send(env.nativeBytes()); // Mismos bytes para todos los miembros
             }
         }
-        return true;
+        return env;
     }
     
     // ---- Polling de mensajes pendientes ----
+
+    /** Tiempo tras el cual lo enviado y no confirmado se vuelve a entregar */
+    public static final long PENDING_RESEND_MS = Long.getLong("chat.pending.resendMs", 10_000);
+
+    /** Mensajes pendientes con su secuencia (id del mensaje), para entrega confirmada */
+    public static final class PendingBatch {
+        public final List<String> messages;
+        public final List<Long> seqs;
+        public final long lastSeq; // Valor a confirmar; -1 si no hubo mensajes
+
+        PendingBatch(List<String> messages, List<Long> seqs, long lastSeq) {
+            this.messages = messages;
+            this.seqs = seqs;
+            this.lastSeq = lastSeq;
+        }
+    }
+
+    /**
+     * Entrega confirmada: devuelve los pendientes sin borrarlos. Quedan en el buzón hasta
+     * {@link #ackPending} y se reenvían si no se confirman en {@link #PENDING_RESEND_MS}
+     */
+    public PendingBatch fetchPending(String username) {
+        return fetchPending(username, System.currentTimeMillis());
+    }
+
+    PendingBatch fetchPending(String username, long now) {
+        List<GroupLog.Entry> merged = new ArrayList<>();
+        Mailbox mailbox = mailboxes.get(username);
+        if (mailbox != null) {
+            merged.addAll(mailbox.deliver(now, PENDING_RESEND_MS));
+        }
+        for (String groupName : userGroups.getOrDefault(username, Set.of())) {
+            GroupLog log = groupLogs.get(groupName);
+            if (log != null) {
+                merged.addAll(log.deliver(username, now, PENDING_RESEND_MS));
+            }
+        }
+        merged.sort(Comparator.comparingLong(e -> e.order));
+
+        List<String> messages = new ArrayList<>(merged.size());
+        List<Long> seqs = new ArrayList<>(merged.size());
+        for (GroupLog.Entry e : merged) {
+            messages.add(e.text);
+            seqs.add(e.order);
+        }
+        long lastSeq = merged.isEmpty() ? -1 : merged.get(merged.size() - 1).order;
+        return new PendingBatch(messages, seqs, lastSeq);
+    }
+
+    /**
+     * Confirma lo entregado hasta la secuencia dada; devuelve cuántos mensajes del buzón y
+     * posiciones de grupo se liberaron
+     */
+    public long ackPending(String username, long upToSeq) {
+        long acked = 0;
+        Mailbox mailbox = mailboxes.get(username);
+        if (mailbox != null) {
+            acked += mailbox.ack(upToSeq);
+        }
+        for (String groupName : userGroups.getOrDefault(username, Set.of())) {
+            GroupLog log = groupLogs.get(groupName);
+            if (log != null) {
+                acked += log.ack(username, upToSeq);
+            }
+        }
+        return acked;
+    }
+
+    /**
+     * Modo anterior: devuelve los pendientes y los da por entregados en la misma llamada
+     */
     public List<String> getPendingMessages(String username) {
-        List<String> messages = pendingMessages.getOrDefault(username, new ArrayList<>());
-        pendingMessages.put(username, new ArrayList<>()); // Limpiar mensajes después de obtenerlos
+        List<GroupLog.Entry> merged = new ArrayList<>();
+        Mailbox mailbox = mailboxes.get(username);
+        if (mailbox != null) {
+            merged.addAll(mailbox.drain()); // Se marcan como entregados en disco
+        }
+        for (String groupName : userGroups.getOrDefault(username, Set.of())) {
+            GroupLog log = groupLogs.get(groupName);
+            if (log != null) {
+                merged.addAll(log.read(username));
+            }
+        }
+        merged.sort(Comparator.comparingLong(e -> e.order));
+
+        List<String> messages = new ArrayList<>(merged.size());
+        for (GroupLog.Entry e : merged) {
+            messages.add(e.text);
+        }
         return messages;
     }
 
     public List<String> getHistory(String username) throws IOException {
-        File historyFile = new File(historyDir, username + ".jsonl");
-        List<String> history = new ArrayList<>();
-        
-        // Cargar mensajes privados del usuario
-        if (historyFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(historyFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    history.add(line);
-                }
-            }
+        List<String> result = new ArrayList<>();
+
+        // Chats privados del usuario: un historial por conversación
+        for (String peer : history.peersOf(username)) {
+            result.addAll(history.read(ConversationSeqs.key(username, peer, false), 0));
         }
-        
+
         // Cargar mensajes de grupos donde el usuario es miembro
-        List<String> userGroups = getUserGroups(username);
-        for (String groupName : userGroups) {
-            File groupFile = new File(historyDir, "#" + groupName + ".jsonl");
-            if (groupFile.exists()) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(groupFile))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        history.add(line);
-                    }
-                }
-            }
+        for (String groupName : getUserGroups(username)) {
+            result.addAll(history.read(ConversationSeqs.key(username, groupName, true), 0));
         }
-        
-        return history;
+
+        return result;
+    }
+
+    /**
+     * Historial del usuario entre dos instantes (epoch ms, inclusivos); sólo se leen los
+     * segmentos que se cruzan con el rango
+     */
+    public List<String> getHistory(String username, long fromMs, long toMs) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (String peer : history.peersOf(username)) {
+            result.addAll(history.readRange(ConversationSeqs.key(username, peer, false), fromMs, toMs));
+        }
+        for (String groupName : getUserGroups(username)) {
+            result.addAll(history.readRange(ConversationSeqs.key(username, groupName, true), fromMs, toMs));
+        }
+        return result;
+    }
+
+    /**
+     * Compresión de los segmentos viejos del historial: relación, bloques leídos y saltados,
+     * y tiempo de descompresión
+     */
+    public Map<String, Object> getHistoryStats() {
+        return history.stats();
+    }
+
+    private List<String> historyOrEmpty(String username) {
+        try {
+            return getHistory(username);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not read history of " + username + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    // ---- Lista de conversaciones ----
+
+    /**
+     * Conversaciones del usuario con último mensaje y no leídos, la más reciente primero
+     */
+    public List<ConversationIndex.Summary> getConversations(String username) {
+        return conversations.conversations(username);
+    }
+
+    /**
+     * Marca una conversación como leída hasta una secuencia; devuelve los no leídos restantes
+     */
+    public int markRead(String username, String conversation, long upToSeq) {
+        return conversations.markRead(username, conversation, upToSeq);
+    }
+
+    /**
+     * Mensajes de una conversación posteriores a una secuencia, para que un cliente que
+     * perdió pushes pida sólo el hueco
+     * @param conversation usuario del chat privado o #grupo
+     * @param sinceSeq última secuencia que el cliente ya tiene (0: todo)
+     */
+    public List<String> getMessagesSince(String username, String conversation, long sinceSeq) throws IOException {
+        boolean isGroup = conversation.startsWith("#");
+        String target = isGroup ? conversation.substring(1) : conversation;
+        if (isGroup && !groups.getOrDefault(target, Set.of()).contains(username)) {
+            return new ArrayList<>(); // Sólo los miembros leen el grupo
+        }
+        return history.read(ConversationSeqs.key(username, target, isGroup), sinceSeq);
     }
 
     /**
@@ -425,48 +675,14 @@ public class ChatServicesImpl {
      */
     public boolean clearChatHistory(String user1, String user2) {
         try {
-            // Limpiar historial del usuario 1
-            File historyFile1 = new File(historyDir, user1 + ".jsonl");
-            if (historyFile1.exists()) {
-                List<String> filteredHistory = new ArrayList<>();
-                try (BufferedReader reader = new BufferedReader(new FileReader(historyFile1))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        // Mantener solo mensajes que NO sean entre user1 y user2
-                        if (!line.contains("from:" + user2) && !line.contains("target:" + user2)) {
-                            filteredHistory.add(line);
-                        }
-                    }
-                }
-                // Reescribir archivo sin los mensajes entre estos usuarios
-                try (FileWriter writer = new FileWriter(historyFile1)) {
-                    for (String line : filteredHistory) {
-                        writer.write(line + "\n");
-                    }
-                }
-            }
-
-            // Limpiar historial del usuario 2
-            File historyFile2 = new File(historyDir, user2 + ".jsonl");
-            if (historyFile2.exists()) {
-                List<String> filteredHistory = new ArrayList<>();
-                try (BufferedReader reader = new BufferedReader(new FileReader(historyFile2))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        // Mantener solo mensajes que NO sean entre user2 y user1
-                        if (!line.contains("from:" + user1) && !line.contains("target:" + user1)) {
-                            filteredHistory.add(line);
-                        }
-                    }
-                }
-                // Reescribir archivo sin los mensajes entre estos usuarios
-                try (FileWriter writer = new FileWriter(historyFile2)) {
-                    for (String line : filteredHistory) {
-                        writer.write(line + "\n");
-                    }
-                }
+            // Lápida hasta la última secuencia: el archivo se reescribe en segundo plano
+            String key = ConversationSeqs.key(user1, user2, false);
+            ConversationSeqs.Counter counter = seqs.counter(key);
+            synchronized (counter) {
+                history.clear(key, counter.last());
+                conversations.remove(user1, user2);
+                conversations.remove(user2, user1);
             }
-
             System.out.println("[CHAT] History cleared between " + user1 + " and " + user2);
             return true;
         } catch (IOException e) {
@@ -482,15 +698,11 @@ public class ChatServicesImpl {
             fos.write(audioData);
         }
 
-        String record = "{type:voice_note,from:" + from + ",target:" + to + ",isGroup:false,file:" + audioFile.getPath() + ",ts:" + Instant.now() + "}";
-        persist(from, to, false, record);
+        persist(Envelope.voiceNote(from, to, false, audioFile.getPath()));
 
         ClientSession session = users.get(to);
-        if (session != null && session.socket != null) {
-            session.out.println("VOICE_NOTE_FROM " + from + " " + audioData.length);
-            session.out.flush();
-            session.socket.getOutputStream().write(audioData);
-            session.socket.getOutputStream().flush();
+        if (session != null) {
+            session.send(voiceNoteFrame(from, audioData));
         }
         return true;
     }
@@ -501,24 +713,35 @@ public class ChatServicesImpl {
             fos.write(audioData);
         }
 
-        String record = "{type:voice_note,from:" + from + ",target:" + groupName + ",isGroup:true,file:" + audioFile.getPath() + ",ts:" + Instant.now() + "}";
-        persist(from, groupName, true, record);
+        persist(Envelope.voiceNote(from, groupName, true, audioFile.getPath()));
 
         Set<String> members = groups.getOrDefault(groupName, Set.of());
+        byte[] frame = null;
         for (String username : members) {
             if (username.equals(from)) continue;
             
             ClientSession session = users.get(username);
-            if (session != null && session.socket != null) {
-                session.out.println("VOICE_NOTE_FROM " + from + " " + audioData.length);
-                session.out.flush();
-                session.socket.getOutputStream().write(audioData);
-                session.socket.getOutputStream().flush();
+            if (session != null && session.isSocketConnected()) {
+                if (frame == null) {
+                    frame = voiceNoteFrame(from, audioData); // Un solo frame compartido por todos los miembros
+                }
+                session.send(frame);
             }
         }
         return true;
     }
 
+    /**
+     * Cabecera VOICE_NOTE_FROM y audio en un mismo frame, para que no se intercalen con otras escrituras
+     */
+    private static byte[] voiceNoteFrame(String from, byte[] audioData) {
+        byte[] header = ("VOICE_NOTE_FROM " + from + " " + audioData.length + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[header.length + audioData.length];
+        System.arraycopy(header, 0, frame, 0, header.length);
+        System.arraycopy(audioData, 0, frame, header.length, audioData.length);
+        return frame;
+    }
+
     // ---- Llamadas ----
     public String callUser(String caller, String target) {
         ClientSession targetSession = users.get(target);
@@ -548,33 +771,47 @@ public class ChatServicesImpl {
         return "websocket";
     }
 
-    // ---- Utilidades ----
-    private void broadcast(String message) {
-        users.values().forEach(session -> {
-            if (session.out != null) {
-                session.out.println(message);
-            }
-        });
+    // ---- Presencia ----
+    public PresenceService.Snapshot getPresence(String username) {
+        return presence.snapshot(username);
     }
 
-    private void persist(String from, String target, boolean isGroup, String line) throws IOException {
-        // Guardar en historial del remitente
-        File senderFile = new File(historyDir, from + ".jsonl");
-        try (FileWriter fw = new FileWriter(senderFile, true)) {
-            fw.write(line + "\n");
-        }
+    // ---- Utilidades ----
 
-        // Guardar en historial del destinatario
-        if (isGroup) {
-            File groupFile = new File(historyDir, "#" + target + ".jsonl");
-            try (FileWriter fw = new FileWriter(groupFile, true)) {
-                fw.write(line + "\n");
-            }
-        } else {
-            File targetFile = new File(historyDir, target + ".jsonl");
-            try (FileWriter fw = new FileWriter(targetFile, true)) {
-                fw.write(line + "\n");
+    /**
+     * Asigna al mensaje la siguiente secuencia de su conversación y lo guarda en el
+     * historial; devuelve el mensaje con la secuencia
+     */
+    private Envelope persist(Envelope env) throws IOException {
+        ConversationSeqs.Counter counter = seqs.counter(ConversationSeqs.key(env.from, env.target, env.isGroup));
+        synchronized (counter) {
+            Envelope stored = env.withSeq(counter.next());
+            history.append(stored); // Una sola escritura, en el archivo de la conversación
+
+            // Dentro del lock: el índice recibe los mensajes en orden de secuencia
+            conversations.record(stored.from, stored);
+            if (stored.isGroup) {
+                for (String member : groups.getOrDefault(stored.target, Set.of())) {
+                    if (!member.equals(stored.from)) {
+                        conversations.record(member, stored);
+                    }
+                }
+            } else if (!stored.target.equals(stored.from)) {
+                conversations.record(stored.target, stored);
             }
+            return stored;
+        }
+    }
+
+    /**
+     * Última secuencia guardada de una conversación; se lee una vez por conversación tras arrancar
+     */
+    private long lastSeqOnDisk(String key) {
+        try {
+            return history.lastSeq(key);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not recover sequence of " + key + ": " + e.getMessage());
+            return 0;
         }
     }
 
@@ -0,0 +1,343 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Lista de conversaciones de cada usuario (la barra lateral del cliente), mantenida en
+ * memoria: último mensaje, instante, marca de lectura y no leídos por conversación.
+ *
+ * Se actualiza en cada mensaje guardado, así GET_CONVERSATIONS cuesta O(conversaciones)
+ * y no un recorrido del historial. El índice de un usuario se arma desde su historial la
+ * primera vez que se consulta; hasta entonces los mensajes nuevos no le cuestan nada.
+ * Las marcas de lectura se guardan en read/usuario.txt (una línea "conversación seq").
+ *
+ * Los no leídos no se guardan uno por uno: se cuentan como rangos de secuencias seguidas
+ * de otros participantes. Un chat activo que nunca se marca leído ocupa un rango, y sólo
+ * los mensajes propios (o los huecos) en el medio abren rangos nuevos.
+ */
+public class ConversationIndex {
+
+    static final int PREVIEW_CHARS = 80;
+
+    /**
+     * Resumen de una conversación tal como se envía al cliente
+     */
+    public static final class Summary {
+        public final String conversation; // Usuario del chat privado o #grupo
+        public final boolean isGroup;
+        public final long lastSeq;
+        public final long lastId; // Id del último mensaje: ordena las conversaciones
+        public final String lastFrom;
+        public final String preview;
+        public final long ts; // Epoch ms del último mensaje
+        public final long readSeq;
+        public final int unread;
+
+        Summary(Entry e) {
+            this.conversation = e.conversation;
+            this.isGroup = e.conversation.startsWith("#");
+            this.lastSeq = e.lastSeq;
+            this.lastId = e.lastId;
+            this.lastFrom = e.lastFrom;
+            this.preview = e.preview;
+            this.ts = e.ts;
+            this.readSeq = e.readSeq;
+            this.unread = e.unread;
+        }
+    }
+
+    private static final class Entry {
+        final String conversation;
+        long lastSeq = -1;
+        long lastId;
+        String lastFrom;
+        String preview;
+        long ts;
+        long readSeq;
+        int unread;
+        final ArrayDeque<long[]> unreadRuns = new ArrayDeque<>(); // {desde, hasta} ajenos después de readSeq
+
+        Entry(String conversation) {
+            this.conversation = conversation;
+        }
+
+        /** Cuenta un mensaje ajeno no leído; llegan en orden de secuencia */
+        void addUnread(long seq) {
+            long[] last = unreadRuns.peekLast();
+            if (last != null && seq <= last[1]) {
+                return; // Ya contado
+            }
+            if (last != null && seq == last[1] + 1) {
+                last[1] = seq;
+            } else {
+                unreadRuns.add(new long[] {seq, seq});
+            }
+            unread++;
+        }
+
+        /** Descuenta lo no leído hasta seq inclusive */
+        void readThrough(long seq) {
+            long[] first;
+            while ((first = unreadRuns.peekFirst()) != null && first[0] <= seq) {
+                if (first[1] <= seq) {
+                    unread -= (int) (first[1] - first[0] + 1);
+                    unreadRuns.poll();
+                } else {
+                    unread -= (int) (seq - first[0] + 1);
+                    first[0] = seq + 1;
+                }
+            }
+        }
+    }
+
+    /** Conversaciones de un usuario; su lock protege el mapa */
+    private static final class UserIndex {
+        final Map<String, Entry> entries = new HashMap<>();
+        boolean loaded;
+    }
+
+    private final Map<String, UserIndex> users = new ConcurrentHashMap<>();
+    private final File readDir;
+    private final Function<String, List<String>> history; // Usuario -> registros de su historial
+
+    public ConversationIndex(File readDir, Function<String, List<String>> history) {
+        this.readDir = readDir;
+        this.history = history;
+        readDir.mkdirs();
+    }
+
+    /**
+     * Conversación de un mensaje vista por un participante
+     */
+    public static String conversationFor(String user, String from, String target, boolean isGroup) {
+        if (isGroup) {
+            return "#" + target;
+        }
+        return user.equals(from) ? target : from;
+    }
+
+    /**
+     * Registra un mensaje guardado para uno de sus participantes. Se llama en orden de
+     * secuencia por conversación; lo que ya se leyó del historial al armar el índice se ignora
+     */
+    public void record(String user, Envelope env) {
+        UserIndex index = users.get(user);
+        if (index == null) {
+            return; // Índice todavía no armado: se leerá del historial, que ya tiene el mensaje
+        }
+        synchronized (index) {
+            if (!index.loaded) {
+                return;
+            }
+            String conversation = conversationFor(user, env.from, env.target, env.isGroup);
+            Entry e = index.entries.computeIfAbsent(conversation, Entry::new);
+            if (env.seq > e.lastSeq) {
+                apply(user, e, env.seq, env.id, env.from, preview(env.kind == Envelope.Kind.TEXT, env.body), env.ts.toEpochMilli());
+            }
+        }
+    }
+
+    /**
+     * Conversaciones del usuario, la más reciente primero
+     */
+    public List<Summary> conversations(String user) {
+        UserIndex index = loaded(user);
+        List<Summary> result = new ArrayList<>();
+        synchronized (index) {
+            for (Entry e : index.entries.values()) {
+                if (e.lastSeq >= 0) { // Sólo marca de lectura, sin mensajes
+                    result.add(new Summary(e));
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong((Summary s) -> s.lastId).reversed());
+        return result;
+    }
+
+    /**
+     * Marca como leído hasta una secuencia; devuelve cuántos quedan sin leer
+     */
+    public int markRead(String user, String conversation, long upToSeq) {
+        UserIndex index = loaded(user);
+        synchronized (index) {
+            Entry e = index.entries.computeIfAbsent(conversation, Entry::new);
+            if (upToSeq > e.readSeq) {
+                e.readSeq = upToSeq;
+                e.readThrough(upToSeq);
+                saveReadMarks(user, index);
+            }
+            return e.unread;
+        }
+    }
+
+    /**
+     * Quita una conversación del índice de un usuario (historial borrado)
+     */
+    public void remove(String user, String conversation) {
+        UserIndex index = users.get(user);
+        if (index != null) {
+            synchronized (index) {
+                index.entries.remove(conversation);
+            }
+        }
+    }
+
+    /**
+     * Olvida a un usuario eliminado y sus marcas de lectura
+     */
+    public void forget(String user) {
+        users.remove(user);
+        readMarksFile(user).delete();
+        File legacy = legacyReadMarksFile(user);
+        if (legacy != null) {
+            legacy.delete();
+        }
+    }
+
+    private UserIndex loaded(String user) {
+        UserIndex index = users.computeIfAbsent(user, u -> new UserIndex());
+        synchronized (index) {
+            if (!index.loaded) {
+                load(user, index);
+                index.loaded = true;
+            }
+        }
+        return index;
+    }
+
+    private void load(String user, UserIndex index) {
+        for (Map.Entry<String, Long> mark : loadReadMarks(user).entrySet()) {
+            index.entries.computeIfAbsent(mark.getKey(), Entry::new).readSeq = mark.getValue();
+        }
+        for (String line : history.apply(user)) {
+            String from = ConversationSeqs.field(line, "from");
+            String target = ConversationSeqs.field(line, "target");
+            if (from == null || target == null) {
+                continue;
+            }
+            boolean isGroup = "true".equals(ConversationSeqs.field(line, "isGroup"));
+            Entry e = index.entries.computeIfAbsent(conversationFor(user, from, target, isGroup), Entry::new);
+            long seq = ConversationSeqs.seqOf(line);
+            if (seq >= e.lastSeq) { // >= para que entre registros sin secuencia gane el último
+                long ts = ConversationSeqs.timestampOf(line);
+                apply(user, e, seq, idOf(line, ts), from, previewOf(line), ts);
+            }
+        }
+        index.entries.values().removeIf(e -> e.lastSeq < 0); // Marcas de conversaciones sin mensajes
+    }
+
+    private static void apply(String user, Entry e, long seq, long id, String from, String preview, long ts) {
+        e.lastSeq = seq;
+        e.lastId = id;
+        e.lastFrom = from;
+        e.preview = preview;
+        e.ts = ts;
+        if (!from.equals(user) && seq > e.readSeq) {
+            e.addUnread(seq);
+        }
+    }
+
+    private static String preview(boolean isText, String body) {
+        if (!isText) {
+            return "[voice note]";
+        }
+        return body.length() > PREVIEW_CHARS ? body.substring(0, PREVIEW_CHARS) : body;
+    }
+
+    private static String previewOf(String line) {
+        int msg = line.indexOf(",msg:");
+        if (msg < 0) {
+            return preview(false, null);
+        }
+        int end = line.lastIndexOf(",ts:");
+        return preview(true, line.substring(msg + ",msg:".length(), end > msg ? end : line.length()));
+    }
+
+    private static long idOf(String line, long ts) {
+        try {
+            return Long.parseLong(ConversationSeqs.field(line, "id"));
+        } catch (NumberFormatException e) {
+            return IdGenerator.legacyId(ts, line.hashCode()); // Registro anterior a los ids
+        }
+    }
+
+    /**
+     * Archivo de marcas de lectura, con el nombre codificado como en HistoryStore para que
+     * un usuario como "../registry" no pueda salir del directorio
+     */
+    private File readMarksFile(String user) {
+        return new File(readDir, HistoryStore.encode(user) + ".txt");
+    }
+
+    /**
+     * Archivo con el nombre sin codificar de versiones anteriores, sólo si cae dentro de
+     * readDir y es distinto del actual; null en otro caso
+     */
+    private File legacyReadMarksFile(String user) {
+        File legacy = new File(readDir, user + ".txt");
+        boolean inside = readDir.equals(legacy.getParentFile()) && !user.contains("..");
+        return inside && !legacy.equals(readMarksFile(user)) ? legacy : null;
+    }
+
+    private Map<String, Long> loadReadMarks(String user) {
+        Map<String, Long> marks = new HashMap<>();
+        File file = readMarksFile(user);
+        if (!file.exists()) {
+            File legacy = legacyReadMarksFile(user);
+            if (legacy == null || !legacy.exists()) {
+                return marks;
+            }
+            file = legacy; // Se reescribe con el nombre codificado en el próximo guardado
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.lastIndexOf(' ');
+                if (space > 0) {
+                    try {
+                        marks.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+                    } catch (NumberFormatException e) {
+                        // Línea corrupta: se ignora
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not read read marks of " + user + ": " + e.getMessage());
+        }
+        return marks;
+    }
+
+    /**
+     * Reescribe las marcas en un temporal y lo renombra: una caída deja las anteriores o
+     * las nuevas, nunca un archivo vacío
+     */
+    private void saveReadMarks(String user, UserIndex index) {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : index.entries.values()) {
+            if (e.readSeq > 0) {
+                sb.append(e.conversation).append(' ').append(e.readSeq).append('\n');
+            }
+        }
+        try {
+            AtomicFiles.write(readMarksFile(user), sb.toString());
+            File legacy = legacyReadMarksFile(user);
+            if (legacy != null) {
+                legacy.delete();
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not save read marks of " + user + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package services;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Número de secuencia por conversación (par de usuarios o grupo).
+ *
+ * Cada mensaje guardado recibe el siguiente número de su conversación, así un cliente que
+ * perdió un push detecta el hueco comparando con el último seq que vio y pide sólo lo que
+ * falta (GET_MESSAGES_SINCE) en vez de todo el historial. El contador de una conversación
+ * se recupera del historial en disco la primera vez que se usa tras arrancar.
+ */
+public class ConversationSeqs {
+
+    /**
+     * Contador de una conversación. Quien escribe en el historial toma su lock, así el
+     * orden de los registros en disco coincide con el de las secuencias
+     */
+    public static final class Counter {
+        private long last;
+
+        Counter(long last) {
+            this.last = last;
+        }
+
+        /** Siguiente secuencia; llamar con el lock del contador tomado */
+        public long next() {
+            return ++last;
+        }
+
+        public synchronized long last() {
+            return last;
+        }
+    }
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ToLongFunction<String> recover; // Clave -> última secuencia guardada en disco
+
+    public ConversationSeqs(ToLongFunction<String> recover) {
+        this.recover = recover;
+    }
+
+    /**
+     * Clave canónica de una conversación: #grupo, o el par de usuarios ordenado (ana|luis)
+     */
+    public static String key(String from, String target, boolean isGroup) {
+        if (isGroup) {
+            return "#" + target;
+        }
+        return from.compareTo(target) <= 0 ? from + "|" + target : target + "|" + from;
+    }
+
+    public Counter counter(String key) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            // La recuperación lee disco: se hace fuera del mapa y gana el primero en publicar
+            Counter recovered = new Counter(recover.applyAsLong(key));
+            counter = counters.putIfAbsent(key, recovered);
+            if (counter == null) {
+                counter = recovered;
+            }
+        }
+        return counter;
+    }
+
+    // ---- Lectura de registros del historial ----
+
+    /**
+     * Valor de un campo de la cabecera de un registro
+     * ({type:..,id:..,seq:..,from:..,target:..,isGroup:..,msg:..}); null si no está.
+     * Sólo se busca antes del cuerpo, que puede contener comas y dos puntos
+     */
+    public static String field(String line, String name) {
+        int end = line.indexOf(",msg:");
+        if (end < 0) {
+            end = line.indexOf(",file:");
+        }
+        if (end < 0) {
+            end = line.length();
+        }
+        String header = line.substring(0, end);
+        int start = header.startsWith("{" + name + ":") ? 0 : header.indexOf("," + name + ":");
+        if (start < 0) {
+            return null;
+        }
+        start += name.length() + 2;
+        int comma = header.indexOf(',', start);
+        return header.substring(start, comma < 0 ? header.length() : comma);
+    }
+
+    /**
+     * Secuencia de un registro; 0 si es anterior a las secuencias
+     */
+    public static long seqOf(String line) {
+        String seq = field(line, "seq");
+        try {
+            return seq != null ? Long.parseLong(seq) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Conversación a la que pertenece un registro; null si no se puede leer
+     */
+    public static String keyOf(String line) {
+        String from = field(line, "from");
+        String target = field(line, "target");
+        if (from == null || target == null) {
+            return null;
+        }
+        return key(from, target, "true".equals(field(line, "isGroup")));
+    }
+
+    /**
+     * Instante (epoch ms) de un registro; 0 si no se puede leer
+     */
+    public static long timestampOf(String line) {
+        int ts = line.lastIndexOf(",ts:");
+        if (ts < 0) {
+            return 0;
+        }
+        try {
+            return Instant.parse(line.substring(ts + ",ts:".length(), line.length() - 1).replace(" ", "T")).toEpochMilli();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
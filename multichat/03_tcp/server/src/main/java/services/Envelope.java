@@ -0,0 +1,116 @@
+package services;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Mensaje canónico e inmutable del servidor.
+ *
+ * Cada transporte tiene su propio formato (historial, pendientes para polling, protocolo
+ * nativo del puerto 6000, señal de AudioServer). Cada formato se genera la primera vez que
+ * se pide y queda en caché, así un envío a un grupo serializa una sola vez por formato y
+ * todos los destinatarios comparten los mismos bytes.
+ */
+public final class Envelope {
+
+    public enum Kind { TEXT, VOICE_NOTE }
+
+    public final Kind kind;
+    public final long id; // Asignado una vez al recibir el mensaje (IdGenerator)
+    public final long seq; // Posición en su conversación, asignada al guardarlo (0: sin guardar)
+    public final String from;
+    public final String target;
+    public final boolean isGroup;
+    public final String body; // Texto del mensaje o ruta del archivo de audio
+    public final Instant ts;
+
+    // Codificaciones en caché (carrera benigna: si dos hilos la calculan, el resultado es el mismo)
+    private volatile byte[] history;
+    private volatile String pending;
+    private volatile byte[] nativeLine;
+    private volatile String signal;
+
+    private Envelope(Kind kind, long id, long seq, String from, String target, boolean isGroup, String body, Instant ts) {
+        this.kind = kind;
+        this.id = id;
+        this.seq = seq;
+        this.from = from;
+        this.target = target;
+        this.isGroup = isGroup;
+        this.body = body;
+        this.ts = ts;
+    }
+
+    public static Envelope text(String from, String target, boolean isGroup, String message) {
+        return new Envelope(Kind.TEXT, IdGenerator.next(), 0, from, target, isGroup, message, Instant.now());
+    }
+
+    public static Envelope voiceNote(String from, String target, boolean isGroup, String file) {
+        return new Envelope(Kind.VOICE_NOTE, IdGenerator.next(), 0, from, target, isGroup, file, Instant.now());
+    }
+
+    /**
+     * Copia del mensaje con su secuencia en la conversación; conserva id e instante
+     */
+    public Envelope withSeq(long seq) {
+        return new Envelope(kind, id, seq, from, target, isGroup, body, ts);
+    }
+
+    /**
+     * Línea del historial .jsonl, con salto de línea: {type:text,id:..,seq:..,from:..,target:..,isGroup:..,msg:..,ts:..}
+     */
+    public byte[] historyBytes() {
+        byte[] b = history;
+        if (b == null) {
+            String type = kind == Kind.TEXT ? "text" : "voice_note";
+            String field = kind == Kind.TEXT ? "msg" : "file";
+            b = ("{type:" + type + ",id:" + id + ",seq:" + seq + ",from:" + from + ",target:" + target + ",isGroup:" + isGroup
+                    + "," + field + ":" + body + ",ts:" + ts + "}\n").getBytes(StandardCharsets.UTF_8);
+            history = b;
+        }
+        return b;
+    }
+
+    /**
+     * Formato de la cola de pendientes (polling): MSG|from|msg o GROUP|grupo|from|msg
+     */
+    public String pendingLine() {
+        String p = pending;
+        if (p == null) {
+            p = isGroup ? "GROUP|" + target + "|" + from + "|" + body : "MSG|" + from + "|" + body;
+            pending = p;
+        }
+        return p;
+    }
+
+    /**
+     * Línea del protocolo nativo (puerto 6000), con salto de línea: MSG from: msg o MSG from -> #grupo: msg
+     */
+    public byte[] nativeBytes() {
+        byte[] b = nativeLine;
+        if (b == null) {
+            String line = isGroup ? "MSG " + from + " -> #" + target + ": " + body : "MSG " + from + ": " + body;
+            b = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            nativeLine = b;
+        }
+        return b;
+    }
+
+    /**
+     * Señal de respaldo por AudioServer: MSG|from|MSG|msg codificado como URL
+     */
+    public String signalLine() {
+        String s = signal;
+        if (s == null) {
+            s = "MSG|" + from + "|MSG|" + URLEncoder.encode(body != null ? body : "", StandardCharsets.UTF_8);
+            signal = s;
+        }
+        return s;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + id + (seq > 0 ? "#" + seq : "") + " " + from + " -> " + (isGroup ? "#" : "") + target;
+    }
+}
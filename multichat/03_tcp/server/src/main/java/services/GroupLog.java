@@ -0,0 +1,441 @@
+package services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Log de los mensajes pendientes de un grupo.
+ *
+ * Cada mensaje se guarda una sola vez en un anillo de tamaño fijo y cada miembro
+ * tiene un cursor con el siguiente número de secuencia que le falta leer. Enviar
+ * al grupo cuesta O(1) sin importar cuántos miembros tenga; cada miembro copia
+ * sus mensajes al hacer polling.
+ *
+ * Si un miembro se queda más de {@code capacity} mensajes atrás, los más viejos se
+ * sobrescriben y se cuentan como perdidos (siguen estando en el historial).
+ *
+ * Con entrega confirmada ({@link #deliver}/{@link #ack}) el cursor sólo avanza cuando
+ * el miembro confirma; lo enviado y no confirmado se reenvía pasado un tiempo.
+ *
+ * Abierto con {@link #open} sobrevive a un reinicio: cada mensaje se agrega a
+ * grouplog/grupo.log (mismo formato de registro que el buzón privado) antes de quedar
+ * en el anillo. Cada cambio de un cursor agrega una línea "miembro<TAB>cursor" a
+ * grupo.cursors (O(1) por lectura, sin importar cuántos miembros haya); el archivo se
+ * reescribe con sólo el estado actual cuando las líneas superan varias veces la cantidad
+ * de miembros. Cuando todos los miembros están al día el log se vacía; si no, se
+ * reescribe sin lo que ya nadie puede leer al pasar de 2 * capacity registros.
+ */
+public class GroupLog {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** Un mensaje del grupo */
+    public static final class Entry {
+        public final long seq;
+        public final long order; // Orden global (id del mensaje), para mezclar con otros logs y el buzón privado
+        public final String from;
+        public final String text;
+
+        Entry(long seq, long order, String from, String text) {
+            this.seq = seq;
+            this.order = order;
+            this.from = from;
+            this.text = text;
+        }
+
+        /** Registro en disco: seq, orden, from y texto como longitud (int) + bytes UTF-8 */
+        byte[] toRecord() throws IOException {
+            byte[] fromBytes = from.getBytes(StandardCharsets.UTF_8);
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(24 + fromBytes.length + textBytes.length);
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeLong(seq);
+            out.writeLong(order);
+            out.writeInt(fromBytes.length);
+            out.write(fromBytes);
+            out.writeInt(textBytes.length);
+            out.write(textBytes);
+            return buf.toByteArray();
+        }
+
+        /** Lee un registro; EOFException si está cortado (caída a mitad de una escritura) */
+        static Entry fromRecord(DataInputStream in) throws IOException {
+            long seq = in.readLong();
+            long order = in.readLong();
+            byte[] from = readBytes(in);
+            byte[] text = readBytes(in);
+            return new Entry(seq, order, new String(from, StandardCharsets.UTF_8), new String(text, StandardCharsets.UTF_8));
+        }
+
+        /** Bytes que ocupa el registro en disco */
+        int recordSize() {
+            return 16 + 4 + from.getBytes(StandardCharsets.UTF_8).length + 4 + text.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            int len = in.readInt();
+            if (len < 0) {
+                throw new EOFException("negative length");
+            }
+            byte[] b = in.readNBytes(len);
+            if (b.length < len) {
+                throw new EOFException();
+            }
+            return b;
+        }
+    }
+
+    private static final int INITIAL_SIZE = 16;
+    private static final int MIN_CURSOR_LINES = 256; // Compactar grupo.cursors a partir de aquí
+
+    private final int capacity;
+    private Entry[] ring; // Crece por duplicación hasta capacity; los grupos poco activos ocupan poco
+    private final Map<String, Long> cursors = new ConcurrentHashMap<>();
+    private final Map<String, long[]> inFlight = new HashMap<>(); // miembro -> {enviado hasta, enviado en}
+    private long head = 0; // Siguiente secuencia a escribir
+    private long overwritten = 0;
+    private final String name;
+    private final File logFile;    // null: sólo en memoria
+    private final File cursorFile;
+    private long fileFirstSeq = 0; // Primera secuencia que sigue en el log en disco
+    private int atHead = 0;        // Miembros con el cursor en head (al día)
+    private long cursorLines = 0;  // Líneas en grupo.cursors desde la última compactación
+
+    public GroupLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public GroupLog(int capacity) {
+        this(capacity, null, null, null);
+    }
+
+    private GroupLog(int capacity, String name, File logFile, File cursorFile) {
+        this.capacity = capacity;
+        this.ring = new Entry[Math.min(INITIAL_SIZE, capacity)];
+        this.name = name;
+        this.logFile = logFile;
+        this.cursorFile = cursorFile;
+    }
+
+    /**
+     * Abre (o crea) el log en disco de un grupo, recuperando mensajes y cursores
+     */
+    public static GroupLog open(File dir, String group) throws IOException {
+        return open(dir, group, DEFAULT_CAPACITY);
+    }
+
+    static GroupLog open(File dir, String group, int capacity) throws IOException {
+        dir.mkdirs();
+        String file = HistoryStore.encode(group);
+        GroupLog log = new GroupLog(capacity, group, new File(dir, file + ".log"), new File(dir, file + ".cursors"));
+        log.recover();
+        return log;
+    }
+
+    /**
+     * Agrega un mensaje al log y devuelve su secuencia. Abierto en disco, el mensaje se
+     * escribe antes de devolver
+     */
+    public synchronized long append(long order, String from, String text) throws IOException {
+        if (head >= ring.length && ring.length < capacity) {
+            grow();
+        }
+        Entry entry = new Entry(head, order, from, text);
+        if (logFile != null) {
+            try (FileOutputStream fos = new FileOutputStream(logFile, true)) {
+                fos.write(entry.toRecord()); // Un solo write por registro
+            }
+        }
+        head++;
+        atHead = 0;
+        ring[(int) (entry.seq % ring.length)] = entry;
+        if (logFile != null && head - fileFirstSeq > 2L * capacity) {
+            rewriteLog();
+        }
+        return entry.seq;
+    }
+
+    private void grow() {
+        Entry[] bigger = new Entry[Math.min(ring.length * 2, capacity)];
+        for (long seq = Math.max(0, head - ring.length); seq < head; seq++) {
+            bigger[(int) (seq % bigger.length)] = ring[(int) (seq % ring.length)];
+        }
+        ring = bigger;
+    }
+
+    /**
+     * Registra un miembro; sólo verá los mensajes enviados desde ahora
+     */
+    public synchronized void join(String member) {
+        if (!cursors.containsKey(member)) {
+            setCursor(member, head);
+            cursorMoved(member);
+        }
+    }
+
+    public synchronized void leave(String member) {
+        Long old = cursors.remove(member);
+        if (old != null) {
+            if (old == head) {
+                atHead--;
+            }
+            cursorMoved(member);
+        }
+        inFlight.remove(member);
+    }
+
+    /**
+     * Devuelve los mensajes que el miembro no ha leído (sin los propios) y avanza su cursor
+     */
+    public synchronized List<Entry> read(String member) {
+        Long cursor = cursors.get(member);
+        if (cursor == null || cursor == head) {
+            return List.of();
+        }
+        List<Entry> out = collect(member, skipOverwritten(member, cursor));
+        setCursor(member, head);
+        inFlight.remove(member);
+        cursorMoved(member);
+        return out;
+    }
+
+    /**
+     * Como {@link #read} pero sin avanzar el cursor: devuelve lo no enviado todavía y, si lo
+     * enviado lleva más de resendMs sin confirmar, lo vuelve a enviar desde el cursor
+     */
+    public synchronized List<Entry> deliver(String member, long now, long resendMs) {
+        Long cursor = cursors.get(member);
+        if (cursor == null) {
+            return List.of();
+        }
+        cursor = skipOverwritten(member, cursor);
+        long[] flight = inFlight.get(member);
+        long start = cursor;
+        long sentAt = now;
+        if (flight != null && flight[0] > cursor && now - flight[1] < resendMs) {
+            start = flight[0]; // Lo ya enviado sigue dentro de la ventana
+            sentAt = flight[1];
+        }
+        if (start >= head) {
+            return List.of();
+        }
+        List<Entry> out = collect(member, start);
+        inFlight.put(member, new long[] {head, sentAt});
+        return out;
+    }
+
+    /**
+     * Confirma lo enviado con orden global menor o igual a upToOrder; devuelve cuántas
+     * posiciones avanzó el cursor
+     */
+    public synchronized long ack(String member, long upToOrder) {
+        Long cursor = cursors.get(member);
+        long[] flight = inFlight.get(member);
+        if (cursor == null || flight == null) {
+            return 0;
+        }
+        long c = skipOverwritten(member, cursor);
+        // Sólo se confirma lo que ya se envió; los mensajes propios nunca se envían y se saltan
+        while (c < flight[0]) {
+            Entry e = ring[(int) (c % ring.length)];
+            if (e.order > upToOrder && !e.from.equals(member)) {
+                break;
+            }
+            c++;
+        }
+        setCursor(member, c);
+        if (c >= flight[0]) {
+            inFlight.remove(member);
+        }
+        if (c > cursor) {
+            cursorMoved(member);
+        }
+        return c - cursor;
+    }
+
+    /** Mueve el cursor al mensaje más viejo que sigue en el anillo, contando los perdidos */
+    private long skipOverwritten(String member, long cursor) {
+        long oldest = Math.max(0, head - ring.length);
+        if (cursor < oldest) {
+            overwritten += oldest - cursor;
+            setCursor(member, oldest);
+            return oldest;
+        }
+        return cursor;
+    }
+
+    /** Cambia un cursor llevando la cuenta de los miembros al día */
+    private void setCursor(String member, long cursor) {
+        Long old = cursors.put(member, cursor);
+        if (old != null && old == head) {
+            atHead--;
+        }
+        if (cursor == head) {
+            atHead++;
+        }
+    }
+
+    private List<Entry> collect(String member, long from) {
+        List<Entry> out = new ArrayList<>((int) (head - from));
+        for (long seq = from; seq < head; seq++) {
+            Entry e = ring[(int) (seq % ring.length)];
+            if (!e.from.equals(member)) {
+                out.add(e);
+            }
+        }
+        return out;
+    }
+
+    // ---- Persistencia ----
+
+    private void recover() throws IOException {
+        long savedHead = 0;
+        Map<String, Long> saved = new HashMap<>();
+        if (cursorFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(cursorFile, StandardCharsets.UTF_8))) {
+                // Líneas "head", "miembro<TAB>cursor" o "miembro<TAB>-" (salió); gana la última
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    cursorLines++;
+                    int tab = line.lastIndexOf('\t');
+                    try {
+                        if (tab < 0) {
+                            savedHead = Math.max(savedHead, Long.parseLong(line));
+                        } else if ("-".equals(line.substring(tab + 1))) {
+                            saved.remove(line.substring(0, tab));
+                        } else if (tab > 0) {
+                            saved.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+                        }
+                    } catch (NumberFormatException e) {
+                        // Línea corrupta o cortada por una caída: se ignora
+                    }
+                }
+            }
+        }
+        List<Entry> entries = new ArrayList<>();
+        if (logFile.exists()) {
+            long length = logFile.length();
+            long offset = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+                while (offset < length) {
+                    try {
+                        Entry e = Entry.fromRecord(in);
+                        entries.add(e);
+                        offset += e.recordSize();
+                    } catch (EOFException e) {
+                        break; // Registro incompleto al final
+                    }
+                }
+            }
+            if (offset < length) {
+                System.err.println("[GROUPLOG] Truncating torn record in " + logFile.getName() + " at byte " + offset);
+                try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                    raf.setLength(offset);
+                }
+            }
+        }
+        head = Math.max(savedHead, entries.isEmpty() ? 0 : entries.get(entries.size() - 1).seq + 1);
+        fileFirstSeq = entries.isEmpty() ? head : entries.get(0).seq;
+        int size = ring.length;
+        while (size < entries.size() && size < capacity) {
+            size = Math.min(size * 2, capacity);
+        }
+        ring = new Entry[size];
+        for (Entry e : entries) {
+            ring[(int) (e.seq % size)] = e; // Si hay más que capacity quedan los últimos
+        }
+        long oldest = Math.max(fileFirstSeq, head - size);
+        for (Map.Entry<String, Long> c : saved.entrySet()) {
+            setCursor(c.getKey(), Math.min(head, Math.max(oldest, c.getValue())));
+        }
+    }
+
+    /**
+     * Agrega a grupo.cursors el cursor actual del miembro (o que salió) y vacía el log si
+     * todos los miembros están al día. Si no se puede guardar, tras un reinicio se repite
+     * lo ya leído
+     */
+    private void cursorMoved(String member) {
+        if (logFile == null) {
+            return;
+        }
+        try {
+            Long cursor = cursors.get(member);
+            StringBuilder line = new StringBuilder(member).append('\t').append(cursor != null ? cursor.toString() : "-").append('\n');
+            boolean caughtUp = fileFirstSeq < head && atHead == cursors.size();
+            if (caughtUp) {
+                line.append(head).append('\n'); // Antes de vaciar el log: head ya no sale de él
+            }
+            try (FileOutputStream fos = new FileOutputStream(cursorFile, true)) {
+                fos.write(line.toString().getBytes(StandardCharsets.UTF_8)); // Un solo write por cambio
+            }
+            cursorLines++;
+            if (cursorLines > Math.max(MIN_CURSOR_LINES, 4L * cursors.size())) {
+                compactCursors();
+            }
+            if (caughtUp) {
+                try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                    raf.setLength(0);
+                }
+                fileFirstSeq = head;
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not save group cursors of " + name + ": " + e.getMessage());
+        }
+    }
+
+    /** Reescribe grupo.cursors con sólo head y el cursor actual de cada miembro */
+    private void compactCursors() throws IOException {
+        StringBuilder sb = new StringBuilder().append(head).append('\n');
+        for (Map.Entry<String, Long> c : cursors.entrySet()) {
+            sb.append(c.getKey()).append('\t').append(c.getValue()).append('\n');
+        }
+        AtomicFiles.write(cursorFile, sb.toString());
+        cursorLines = cursors.size() + 1;
+    }
+
+    /** Reescribe el log en disco sin lo que ya ningún miembro puede leer */
+    private void rewriteLog() throws IOException {
+        long keepFrom = Math.max(minCursor(), Math.max(fileFirstSeq, head - ring.length));
+        File tmp = new File(logFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             BufferedOutputStream out = new BufferedOutputStream(fos)) {
+            for (long seq = keepFrom; seq < head; seq++) {
+                out.write(ring[(int) (seq % ring.length)].toRecord());
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        AtomicFiles.move(tmp, logFile);
+        fileFirstSeq = keepFrom;
+    }
+
+    private long minCursor() {
+        long min = head;
+        for (long c : cursors.values()) {
+            min = Math.min(min, c);
+        }
+        return min;
+    }
+
+    public synchronized long getHead() { return head; }
+    public synchronized long getOverwritten() { return overwritten; }
+    public int getMemberCount() { return cursors.size(); }
+}
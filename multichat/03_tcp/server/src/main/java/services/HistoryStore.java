@@ -0,0 +1,508 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Historial guardado por conversación: cada mensaje se escribe una sola vez.
+ *
+ *     history/#grupo/              mensajes del grupo
+ *     history/dm/ana~luis/         chat privado (par ordenado, nombres codificados como URL)
+ *     history/peers/ana.txt        con quién tiene chats privados cada usuario
+ *
+ * Cada conversación es un SegmentedLog: segmentos 000000.jsonl, 000001.jsonl, ... que se
+ * cierran por tamaño o por día, con un manifest que permite saltar segmentos por rango de
+ * secuencia o de tiempo y borrar segmentos enteros por retención. Los segmentos cerrados
+ * se comprimen por bloques en segundo plano (stats() informa la relación y el costo de
+ * leerlos). Los registros están en
+ * orden de secuencia (quien escribe tiene el lock del contador de la conversación). Los
+ * historiales por usuario del formato anterior se reparten por conversación y los archivos
+ * únicos (#grupo.jsonl, dm/ana~luis.jsonl) pasan a ser el primer segmento al abrirse.
+ *
+ * Borrar un chat no reescribe nada en el momento: se guarda una lápida (la última
+ * secuencia borrada) en tombstones.log y los lectores ignoran lo que quede debajo. El
+ * compactor borra o reescribe los segmentos en segundo plano; la lápida se conserva para
+ * que las secuencias sigan creciendo tras un reinicio.
+ */
+public class HistoryStore {
+
+    private static final long MB = 1024L * 1024;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private final File historyDir;
+    private final File dmDir;
+    private final File peersDir;
+    private final File tombstoneFile;
+    private final SegmentedLog.Policy policy;
+    private final SegmentCodec.Stats stats = new SegmentCodec.Stats();
+    private final Map<String, SegmentedLog> logs = new ConcurrentHashMap<>(); // Abiertos bajo demanda
+    private final Map<String, Set<String>> peers = new ConcurrentHashMap<>(); // Cargados bajo demanda
+    private final Map<String, Long> tombstones = new ConcurrentHashMap<>(); // Clave -> última secuencia borrada
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Segmentos y retención según las propiedades del sistema:
+     * chat.history.segmentMB (1), chat.history.segmentHours (24),
+     * chat.history.retentionDays y chat.history.retentionMB (0: sin límite)
+     */
+    public HistoryStore(File historyDir) {
+        this(historyDir,
+                Long.getLong("chat.history.segmentMB", 1) * MB,
+                Long.getLong("chat.history.segmentHours", 24) * 60 * 60 * 1000,
+                Long.getLong("chat.history.retentionDays", 0) * DAY_MS,
+                Long.getLong("chat.history.retentionMB", 0) * MB);
+    }
+
+    /**
+     * @param segmentBytes   tamaño a partir del cual se cierra un segmento
+     * @param segmentMs      edad a partir de la cual se cierra un segmento
+     * @param retentionMs    edad de los segmentos que se borran (0: sin límite)
+     * @param retentionBytes tamaño máximo por conversación (0: sin límite)
+     */
+    public HistoryStore(File historyDir, long segmentBytes, long segmentMs, long retentionMs, long retentionBytes) {
+        this.historyDir = historyDir;
+        this.dmDir = new File(historyDir, "dm");
+        this.peersDir = new File(historyDir, "peers");
+        this.tombstoneFile = new File(historyDir, "tombstones.log");
+        this.policy = new SegmentedLog.Policy(segmentBytes, segmentMs, retentionMs, retentionBytes);
+        dmDir.mkdirs();
+        peersDir.mkdirs();
+        migrateLegacy();
+        loadTombstones();
+    }
+
+    /**
+     * Directorio de segmentos de una conversación a partir de su clave (ConversationSeqs.key)
+     */
+    public File dirFor(String key) {
+        if (key.startsWith("#")) {
+            return new File(historyDir, key);
+        }
+        int bar = key.indexOf('|');
+        return new File(dmDir, encode(key.substring(0, bar)) + "~" + encode(key.substring(bar + 1)));
+    }
+
+    /** Archivo único de una conversación en el formato anterior a los segmentos */
+    private File flatFileFor(String key) {
+        return new File(dirFor(key).getPath() + ".jsonl");
+    }
+
+    private SegmentedLog log(String key) throws IOException {
+        SegmentedLog log = logs.get(key);
+        if (log == null) {
+            synchronized (logs) {
+                log = logs.get(key);
+                if (log == null) {
+                    log = SegmentedLog.open(dirFor(key), flatFileFor(key), policy, stats);
+                    logs.put(key, log);
+                    if (log.hasUncompressed()) {
+                        scheduleCompression(key, log); // Cerrados antes de la compresión o de una caída
+                    }
+                }
+            }
+        }
+        return log;
+    }
+
+    /** Conversación sin nada en disco: no se crea su directorio sólo por leerla */
+    private boolean exists(String key) {
+        return logs.containsKey(key) || dirFor(key).exists() || flatFileFor(key).exists();
+    }
+
+    /**
+     * Agrega un mensaje (ya con secuencia) al segmento abierto de su conversación. Llamar
+     * con el lock del contador de la conversación tomado
+     */
+    public void append(Envelope stored) throws IOException {
+        if (!stored.isGroup) {
+            addPeer(stored.from, stored.target);
+            addPeer(stored.target, stored.from);
+        }
+        String key = ConversationSeqs.key(stored.from, stored.target, stored.isGroup);
+        SegmentedLog log = log(key);
+        if (log.append(stored.historyBytes(), stored.seq, stored.ts.toEpochMilli())) {
+            scheduleCompression(key, log);
+        }
+    }
+
+    /**
+     * Registros de una conversación con secuencia mayor a sinceSeq (0: todos), sin lo
+     * que quedó debajo de una lápida
+     */
+    public List<String> read(String key, long sinceSeq) throws IOException {
+        return read(key, sinceSeq, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Registros de una conversación con instante (epoch ms) entre fromMs y toMs; sólo se
+     * abren los segmentos que se cruzan con el rango
+     */
+    public List<String> readRange(String key, long fromMs, long toMs) throws IOException {
+        return read(key, 0, fromMs, toMs);
+    }
+
+    private List<String> read(String key, long sinceSeq, long fromMs, long toMs) throws IOException {
+        if (!exists(key)) {
+            return new ArrayList<>();
+        }
+        long cutoff = tombstones.getOrDefault(key, -1L);
+        boolean all = sinceSeq <= 0 && cutoff < 0; // Incluye registros sin secuencia
+        return log(key).read(all, Math.max(sinceSeq, cutoff), fromMs, toMs);
+    }
+
+    /**
+     * Última secuencia guardada de una conversación, del manifest y el segmento abierto
+     */
+    public long lastSeq(String key) throws IOException {
+        long cutoff = Math.max(0, tombstones.getOrDefault(key, 0L)); // Lo borrado también cuenta
+        if (!exists(key)) {
+            return cutoff;
+        }
+        return Math.max(cutoff, log(key).lastSeq());
+    }
+
+    /**
+     * Usuarios con los que un usuario tiene chat privado
+     */
+    public List<String> peersOf(String user) {
+        Set<String> set = peerSet(user);
+        synchronized (set) {
+            return new ArrayList<>(set);
+        }
+    }
+
+    private Set<String> peerSet(String user) {
+        return peers.computeIfAbsent(user, this::loadPeers);
+    }
+
+    /**
+     * Borra una conversación hasta una secuencia: O(1) para quien llama, los lectores dejan
+     * de verla de inmediato y los segmentos se reescriben en segundo plano. Llamar con el
+     * lock de la conversación tomado, con la última secuencia asignada
+     */
+    public void clear(String key, long upToSeq) throws IOException {
+        tombstones.merge(key, upToSeq, Math::max);
+        try (FileOutputStream fos = new FileOutputStream(tombstoneFile, true)) {
+            fos.write((key + "\t" + upToSeq + "\n").getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync(); // En disco antes de que la compactación borre nada
+        }
+        scheduleCompaction(key);
+    }
+
+    // ---- Retención ----
+
+    /**
+     * Borra en todas las conversaciones los segmentos cerrados fuera de la retención;
+     * devuelve cuántos se borraron. Al escribir sólo se revisa la conversación que rota
+     */
+    public int enforceRetention() {
+        if (!policy.hasRetention()) {
+            return 0;
+        }
+        List<String> keys = new ArrayList<>();
+        File[] groups = historyDir.listFiles((d, name) -> name.startsWith("#") && new File(d, name).isDirectory());
+        File[] pairs = dmDir.listFiles(File::isDirectory);
+        for (File group : groups != null ? groups : new File[0]) {
+            keys.add(group.getName());
+        }
+        for (File pair : pairs != null ? pairs : new File[0]) {
+            int tilde = pair.getName().indexOf('~');
+            if (tilde > 0) {
+                keys.add(decode(pair.getName().substring(0, tilde)) + "|" + decode(pair.getName().substring(tilde + 1)));
+            }
+        }
+        int dropped = 0;
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            try {
+                dropped += log(key).retain(now);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Retention of " + key + " failed: " + e.getMessage());
+            }
+        }
+        if (dropped > 0) {
+            System.out.println("[HISTORY] Retention dropped " + dropped + " segments");
+        }
+        return dropped;
+    }
+
+    // ---- Compresión ----
+
+    private void scheduleCompression(String key, SegmentedLog log) {
+        compactor.execute(() -> {
+            try {
+                int compressed = log.compressClosed();
+                if (compressed > 0) {
+                    System.out.println("[HISTORY] Compressed " + compressed + " segments of " + key
+                            + String.format(" (overall ratio %.2f)", stats.ratio()));
+                }
+            } catch (IOException e) {
+                System.err.println("[ERROR] History compression of " + key + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Relación de compresión de los segmentos cerrados y costo de descomprimir al leer
+     */
+    public Map<String, Object> stats() {
+        return stats.snapshot();
+    }
+
+    // ---- Lápidas y compactación ----
+
+    private void loadTombstones() {
+        if (!tombstoneFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(tombstoneFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    try {
+                        tombstones.merge(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)), Math::max);
+                    } catch (NumberFormatException e) {
+                        // Línea cortada al final: se ignora
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not read history tombstones: " + e.getMessage());
+        }
+        // Una compactación interrumpida se retoma; las lápidas se reescriben sin repetidos,
+        // en un temporal que reemplaza al log sólo cuando está completo en disco
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> t : tombstones.entrySet()) {
+            sb.append(t.getKey()).append('\t').append(t.getValue()).append('\n');
+        }
+        try {
+            AtomicFiles.write(tombstoneFile, sb.toString());
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not rewrite history tombstones: " + e.getMessage());
+        }
+        for (String key : tombstones.keySet()) {
+            if (needsCompaction(key)) {
+                scheduleCompaction(key);
+            }
+        }
+    }
+
+    private boolean needsCompaction(String key) {
+        if (!exists(key)) {
+            return false;
+        }
+        try {
+            long first = log(key).firstSeq(); // En orden de secuencia: basta mirar el primero
+            return first >= 0 && first <= tombstones.getOrDefault(key, -1L);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void scheduleCompaction(String key) {
+        compactor.execute(() -> {
+            try {
+                compact(key);
+            } catch (IOException e) {
+                System.err.println("[ERROR] History compaction of " + key + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Quita de los segmentos de una conversación lo que quedó bajo su lápida. Los segmentos
+     * enteros se borran y el que la cruza se reescribe sin bloquear a quien envía
+     */
+    synchronized void compact(String key) throws IOException {
+        long cutoff = tombstones.getOrDefault(key, -1L);
+        if (cutoff < 0 || !exists(key)) {
+            return;
+        }
+        SegmentedLog log = log(key);
+        long kept = log.dropThrough(cutoff);
+        System.out.println("[HISTORY] Compacted " + key + ": kept " + kept + " records after seq " + cutoff);
+        if (log.hasUncompressed()) {
+            scheduleCompression(key, log); // El segmento reescrito quedó en texto
+        }
+    }
+
+    /**
+     * Olvida los chats de un usuario eliminado; los demás conservan sus conversaciones con él
+     */
+    public void forget(String user) {
+        peers.remove(user);
+        new File(peersDir, encode(user) + ".txt").delete();
+    }
+
+    private void addPeer(String user, String peer) throws IOException {
+        Set<String> set = peerSet(user);
+        synchronized (set) {
+            if (set.add(peer)) {
+                try (FileWriter writer = new FileWriter(new File(peersDir, encode(user) + ".txt"), StandardCharsets.UTF_8, true)) {
+                    writer.write(peer + "\n");
+                }
+            }
+        }
+    }
+
+    private Set<String> loadPeers(String user) {
+        Set<String> set = new LinkedHashSet<>();
+        File file = new File(peersDir, encode(user) + ".txt");
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        set.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[ERROR] Could not read peers of " + user + ": " + e.getMessage());
+            }
+        }
+        return set;
+    }
+
+    /** Nombre de usuario o grupo como parte segura de un nombre de archivo */
+    static String encode(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8); // Nunca deja '~', el separador del par
+    }
+
+    static String decode(String name) {
+        return URLDecoder.decode(name, StandardCharsets.UTF_8);
+    }
+
+    // ---- Migración del formato anterior (un archivo por usuario con copia de cada mensaje) ----
+
+    /**
+     * Reparte los historiales por usuario en archivos por par. Los archivos se arman
+     * completos en migration.tmp; renombrar ese directorio a migration.ready es el punto
+     * de confirmación, y desde ahí se mueven a su lugar (reemplazando, nunca agregando),
+     * así una caída en cualquier punto se retoma sin duplicar líneas
+     */
+    private void migrateLegacy() {
+        File staging = new File(historyDir, "migration.tmp");
+        File ready = new File(historyDir, "migration.ready");
+        try {
+            if (ready.isDirectory()) {
+                finishMigration(ready); // Se cayó después de confirmar: se completa
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not finish history migration: " + e.getMessage());
+            return;
+        }
+        deleteTree(staging); // Preparación a medias: se rehace
+        File[] legacy = legacyFiles();
+        if (legacy.length == 0) {
+            return;
+        }
+        // Cada mensaje privado está en los archivos de los dos usuarios: se junta por par sin repetir
+        Map<String, Set<String>> byPair = new HashMap<>();
+        for (File file : legacy) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String key = ConversationSeqs.keyOf(line);
+                    if (key != null && !key.startsWith("#")) { // Los de grupo ya están en #grupo.jsonl
+                        byPair.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(line);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[ERROR] Could not migrate " + file.getName() + ": " + e.getMessage());
+                return; // Se reintenta en el próximo arranque
+            }
+        }
+        try {
+            staging.mkdirs();
+            for (Map.Entry<String, Set<String>> pair : byPair.entrySet()) {
+                File target = flatFileFor(pair.getKey());
+                List<String> lines = new ArrayList<>();
+                if (target.exists()) {
+                    lines.addAll(Files.readAllLines(target.toPath(), StandardCharsets.UTF_8)); // Ya en el formato nuevo
+                }
+                lines.addAll(pair.getValue());
+                lines = new ArrayList<>(new LinkedHashSet<>(lines)); // Sin repetidos
+                lines.sort(Comparator.comparingLong(ConversationSeqs::timestampOf)); // Estable: respeta el orden de escritura
+                StringBuilder sb = new StringBuilder();
+                for (String line : lines) {
+                    sb.append(line).append('\n');
+                }
+                File staged = new File(staging, target.getName());
+                try (FileOutputStream fos = new FileOutputStream(staged)) {
+                    fos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                    fos.getFD().sync();
+                }
+            }
+            AtomicFiles.move(staging, ready);
+            finishMigration(ready);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not write migrated history: " + e.getMessage());
+            return; // Se reintenta en el próximo arranque
+        }
+        System.out.println("[SERVER] Migrated " + legacy.length + " user history files into " + byPair.size() + " conversations");
+    }
+
+    /** Historiales por usuario del formato anterior que siguen sin migrar */
+    private File[] legacyFiles() {
+        File[] legacy = historyDir.listFiles((d, name) -> name.endsWith(".jsonl") && !name.startsWith("#"));
+        return legacy != null ? legacy : new File[0];
+    }
+
+    /**
+     * Segunda fase de la migración, que se puede repetir: mueve los archivos confirmados a
+     * dm/, registra los pares y guarda los archivos por usuario en legacy/
+     */
+    private void finishMigration(File ready) throws IOException {
+        File[] staged = ready.listFiles();
+        for (File file : staged != null ? staged : new File[0]) {
+            String name = file.getName();
+            int tilde = name.indexOf('~');
+            AtomicFiles.move(file, new File(dmDir, name));
+            if (tilde > 0 && name.endsWith(".jsonl")) {
+                String a = decode(name.substring(0, tilde));
+                String b = decode(name.substring(tilde + 1, name.length() - ".jsonl".length()));
+                addPeer(a, b);
+                addPeer(b, a);
+            }
+        }
+        File backup = new File(historyDir, "legacy");
+        backup.mkdirs();
+        for (File file : legacyFiles()) {
+            file.renameTo(new File(backup, file.getName())); // Se conserva una copia del formato anterior
+        }
+        ready.delete();
+    }
+
+    private static void deleteTree(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
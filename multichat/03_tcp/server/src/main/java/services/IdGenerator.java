@@ -0,0 +1,76 @@
+package services;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Ids de mensaje estilo Snowflake: únicos, crecientes y ordenables por tiempo.
+ *
+ * Distribución de bits (53 en total, para que JavaScript -- rest-api y cliente web --
+ * los lea como número sin perder precisión):
+ *
+ *     [ 41 bits: ms desde 2024-01-01 (hasta 2093) ][ 4 bits: nodo ][ 8 bits: secuencia ]
+ *
+ * Se asigna una vez al recibir el mensaje, se guarda en el historial y sirve como cursor
+ * para deduplicar y paginar. Si se agotan las 256 secuencias de un milisegundo, o el reloj
+ * retrocede, se sigue desde el último milisegundo usado en vez de esperar o repetir.
+ */
+public final class IdGenerator {
+
+    public static final long EPOCH_MS = 1704067200000L; // 2024-01-01T00:00:00Z
+    static final int NODE_BITS = 4;
+    static final int SEQUENCE_BITS = 8;
+    static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private static final IdGenerator DEFAULT = new IdGenerator(Integer.getInteger("chat.node.id", 0), System::currentTimeMillis);
+
+    private final long node;
+    private final LongSupplier clock;
+    private long lastMs = -1; // Protegido por this
+    private long sequence = 0;
+
+    IdGenerator(long node, LongSupplier clock) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("node must be between 0 and " + MAX_NODE);
+        }
+        this.node = node;
+        this.clock = clock;
+    }
+
+    /**
+     * Siguiente id del generador del proceso (nodo de -Dchat.node.id, 0 por defecto)
+     */
+    public static long next() {
+        return DEFAULT.nextId();
+    }
+
+    public synchronized long nextId() {
+        long ms = Math.max(clock.getAsLong() - EPOCH_MS, lastMs);
+        if (ms == lastMs) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                ms = lastMs + 1; // Secuencia agotada: se toma el milisegundo siguiente
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMs = ms;
+        return (ms << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+    }
+
+    /**
+     * Instante (epoch ms) en que se generó un id
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MS;
+    }
+
+    /**
+     * Id estable para registros del historial anteriores a los ids: mismo instante y una
+     * huella del registro en los bits de nodo y secuencia
+     */
+    public static long legacyId(long epochMs, int fingerprint) {
+        long ms = Math.max(0, epochMs - EPOCH_MS);
+        return (ms << (NODE_BITS + SEQUENCE_BITS)) | (fingerprint & ((1L << (NODE_BITS + SEQUENCE_BITS)) - 1));
+    }
+}
@@ -0,0 +1,234 @@
+package services;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buzón privado de un usuario guardado en disco: sobrevive a un reinicio del servidor.
+ *
+ * Los mensajes se agregan a un log append-only (mailbox/usuario.log, con el nombre
+ * codificado como en HistoryStore para que no pueda salir del directorio) y un archivo
+ * aparte (mailbox/usuario.ack) guarda hasta qué byte del log ya se entregó. Al arrancar
+ * sólo se lee el log desde ese offset, así que recuperar cuesta O(no entregados) y no
+ * una recarga del historial. Cuando todo el log quedó entregado se trunca a cero.
+ *
+ * Entrega confirmada: {@link #deliver} envía sin borrar; el cliente confirma hasta un
+ * orden con {@link #ack} y sólo entonces avanza el offset. Lo enviado y no confirmado
+ * se reenvía pasado un tiempo. {@link #drain} es el modo anterior (confirmar al leer).
+ *
+ * Formato de cada registro: seq (long), orden global (long), from y texto como
+ * longitud (int) + bytes UTF-8. Un registro cortado al final (caída a mitad de una
+ * escritura) se descarta al recuperar.
+ */
+public class Mailbox {
+
+    private final String user;
+    private final File logFile;
+    private final File ackFile;
+    private final List<GroupLog.Entry> pending = new ArrayList<>(); // No confirmados, en orden
+    private final List<Integer> recordSizes = new ArrayList<>(); // Bytes de cada registro de pending
+    private int sent = 0;        // Cuántos del inicio de pending ya se enviaron
+    private long sentAt = 0;     // Cuándo se envió el más viejo sin confirmar
+    private long ackOffset = 0;   // Bytes del log ya confirmados
+    private long writeOffset = 0; // Fin del log
+    private long nextSeq = 0;
+
+    private Mailbox(File dir, String user) {
+        this.user = user;
+        this.logFile = new File(dir, HistoryStore.encode(user) + ".log");
+        this.ackFile = new File(dir, HistoryStore.encode(user) + ".ack");
+    }
+
+    /**
+     * Abre (o crea) el buzón de un usuario, recuperando lo que quedó sin entregar
+     */
+    public static Mailbox open(File dir, String user) throws IOException {
+        Mailbox box = new Mailbox(dir, user);
+        box.recover();
+        return box;
+    }
+
+    /**
+     * Usuarios con un buzón en el directorio
+     */
+    public static List<String> listUsers(File dir) {
+        List<String> result = new ArrayList<>();
+        String[] names = dir.list((d, name) -> name.endsWith(".log"));
+        if (names != null) {
+            for (String name : names) {
+                result.add(HistoryStore.decode(name.substring(0, name.length() - ".log".length())));
+            }
+        }
+        return result;
+    }
+
+    private void recover() throws IOException {
+        if (ackFile.exists()) {
+            try (RandomAccessFile ack = new RandomAccessFile(ackFile, "r")) {
+                ackOffset = ack.length() >= 16 ? ack.readLong() : 0;
+                nextSeq = ack.length() >= 16 ? ack.readLong() : 0;
+            }
+        }
+        if (!logFile.exists()) {
+            ackOffset = 0;
+            return;
+        }
+        long length = logFile.length();
+        if (ackOffset > length) {
+            ackOffset = 0; // Ack de un log que ya no existe: releer todo
+        }
+        long offset = ackOffset;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            in.skipNBytes(ackOffset);
+            while (offset < length) {
+                try {
+                    GroupLog.Entry entry = GroupLog.Entry.fromRecord(in);
+                    pending.add(entry);
+                    int size = entry.recordSize();
+                    recordSizes.add(size);
+                    nextSeq = Math.max(nextSeq, entry.seq + 1);
+                    offset += size;
+                } catch (EOFException e) {
+                    break; // Registro incompleto al final
+                }
+            }
+        }
+        if (offset < length) {
+            System.err.println("[MAILBOX] Truncating torn record in " + logFile.getName() + " at byte " + offset);
+            try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                raf.setLength(offset);
+            }
+        }
+        writeOffset = offset;
+    }
+
+    /**
+     * Agrega un mensaje al buzón y lo escribe en disco antes de devolver
+     */
+    public synchronized GroupLog.Entry append(long order, String from, String text) throws IOException {
+        GroupLog.Entry entry = new GroupLog.Entry(nextSeq++, order, from, text);
+        byte[] record = entry.toRecord();
+        try (FileOutputStream fos = new FileOutputStream(logFile, true)) {
+            fos.write(record); // Un solo write por registro
+        }
+        writeOffset += record.length;
+        pending.add(entry);
+        recordSizes.add(record.length);
+        return entry;
+    }
+
+    /**
+     * Devuelve los mensajes no entregados y los marca como entregados en disco. Si no se
+     * puede guardar el ack, los mensajes se entregan igual y tras un reinicio se repiten
+     */
+    public synchronized List<GroupLog.Entry> drain() {
+        List<GroupLog.Entry> result = new ArrayList<>(pending);
+        sent = pending.size();
+        ack(Long.MAX_VALUE);
+        return result;
+    }
+
+    /**
+     * Devuelve lo que todavía no se envió, sin borrarlo. Si lo enviado lleva más de
+     * resendMs sin confirmarse, se reenvía todo lo no confirmado
+     */
+    public synchronized List<GroupLog.Entry> deliver(long now, long resendMs) {
+        if (sent > 0 && now - sentAt >= resendMs) {
+            sent = 0;
+        }
+        if (sent == pending.size()) {
+            return List.of();
+        }
+        if (sent == 0) {
+            sentAt = now;
+        }
+        List<GroupLog.Entry> result = new ArrayList<>(pending.subList(sent, pending.size()));
+        sent = pending.size();
+        return result;
+    }
+
+    /**
+     * Confirma los mensajes enviados con orden global menor o igual a upToOrder y avanza
+     * el offset en disco. Devuelve cuántos se confirmaron
+     */
+    public synchronized int ack(long upToOrder) {
+        int n = 0;
+        long bytes = 0;
+        while (n < sent && pending.get(n).order <= upToOrder) {
+            bytes += recordSizes.get(n);
+            n++;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        pending.subList(0, n).clear();
+        recordSizes.subList(0, n).clear();
+        sent -= n;
+        ackOffset += bytes;
+        try {
+            if (ackOffset == writeOffset) {
+                truncateDelivered();
+            } else {
+                writeAck();
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not record delivery for " + user + ": " + e.getMessage());
+        }
+        return n;
+    }
+
+    /**
+     * Todo el log quedó entregado: se vacía en vez de crecer sin límite. Primero se guarda
+     * el offset en cero y después se trunca; si no, una falla entre los dos dejaría un
+     * offset viejo apuntando al medio de los registros que se agreguen después
+     */
+    private void truncateDelivered() throws IOException {
+        long delivered = ackOffset;
+        ackOffset = 0;
+        try {
+            writeAck();
+            try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                raf.setLength(0);
+            }
+        } catch (IOException e) {
+            ackOffset = delivered; // El log sigue entero: el offset vuelve a apuntar a su fin
+            writeAck();
+            throw e;
+        }
+        writeOffset = 0;
+    }
+
+    private void writeAck() throws IOException {
+        try (RandomAccessFile ack = new RandomAccessFile(ackFile, "rw")) {
+            ack.writeLong(ackOffset);
+            ack.writeLong(nextSeq); // Las secuencias siguen creciendo aunque el log se trunque
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Borra el buzón del disco (usuario eliminado)
+     */
+    public synchronized void delete() {
+        pending.clear();
+        recordSizes.clear();
+        sent = 0;
+        logFile.delete();
+        ackFile.delete();
+    }
+}
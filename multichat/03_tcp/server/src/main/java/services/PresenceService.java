@@ -0,0 +1,192 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Presencia (online/offline) limitada a los contactos de cada usuario.
+ *
+ * Un usuario le interesa a quienes comparten algún grupo con él y a sus interlocutores
+ * recientes de mensajes privados. Los cambios se acumulan y cada {@code flushMs} se envía
+ * a cada interesado una sola línea con todos los cambios del lote:
+ *
+ *     PRESENCE <version> +ana -luis
+ *
+ * Un login y logout dentro del mismo lote se cancelan. Así el costo de un login depende
+ * de cuántos contactos tiene el usuario, no de cuántos usuarios hay conectados.
+ */
+public class PresenceService {
+
+    public static final long DEFAULT_FLUSH_MS = 500;
+    private static final int MAX_RECENT_PEERS = 50;
+
+    /** Presencia de los contactos de un usuario en una versión dada */
+    public static class Snapshot {
+        public final long version;
+        public final Map<String, Boolean> contacts;
+
+        Snapshot(long version, Map<String, Boolean> contacts) {
+            this.version = version;
+            this.contacts = contacts;
+        }
+    }
+
+    private final Map<String, Set<String>> groups;
+    private final Map<String, Set<String>> userGroups;
+    private final BiConsumer<String, byte[]> deliver;
+    private final Set<String> online = ConcurrentHashMap.newKeySet();
+    private final Map<String, Boolean> pending = new LinkedHashMap<>(); // Cambios del lote actual
+    private final Map<String, Set<String>> recentPeers = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param groups     grupo -> miembros
+     * @param userGroups usuario -> grupos (índice inverso)
+     * @param deliver    envía una línea ya codificada a un usuario, si tiene a dónde enviarla
+     * @param flushMs    periodo de los lotes; 0 para llamar a {@link #flush()} a mano
+     */
+    public PresenceService(Map<String, Set<String>> groups, Map<String, Set<String>> userGroups,
+                           BiConsumer<String, byte[]> deliver, long flushMs) {
+        this.groups = groups;
+        this.userGroups = userGroups;
+        this.deliver = deliver;
+        if (flushMs > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "presence");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::flush, flushMs, flushMs, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public void online(String user) {
+        change(user, true);
+    }
+
+    public void offline(String user) {
+        change(user, false);
+    }
+
+    private synchronized void change(String user, boolean isOnline) {
+        boolean wasOnline = isOnline ? !online.add(user) : online.remove(user);
+        if (wasOnline == isOnline) {
+            return; // Sin cambio real
+        }
+        // Si ya había un cambio en este lote, el nuevo lo cancela
+        if (pending.remove(user) == null) {
+            pending.put(user, isOnline);
+        }
+    }
+
+    /**
+     * Registra que dos usuarios hablaron en privado; cada uno pasa a ver la presencia del otro
+     */
+    public void recordPeers(String a, String b) {
+        addPeer(a, b);
+        addPeer(b, a);
+    }
+
+    private void addPeer(String user, String peer) {
+        Set<String> peers = recentPeers.computeIfAbsent(user, u -> Collections.newSetFromMap(
+                new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return size() > MAX_RECENT_PEERS;
+                    }
+                }));
+        synchronized (peers) {
+            peers.add(peer);
+        }
+    }
+
+    /**
+     * Olvida a un usuario eliminado
+     */
+    public void forget(String user) {
+        offline(user);
+        recentPeers.remove(user);
+    }
+
+    /**
+     * Usuarios interesados en la presencia de {@code user}
+     */
+    Set<String> watchers(String user) {
+        Set<String> result = new HashSet<>();
+        for (String group : userGroups.getOrDefault(user, Set.of())) {
+            result.addAll(groups.getOrDefault(group, Set.of()));
+        }
+        Set<String> peers = recentPeers.get(user);
+        if (peers != null) {
+            synchronized (peers) {
+                result.addAll(peers);
+            }
+        }
+        result.remove(user);
+        return result;
+    }
+
+    /**
+     * Envía el lote acumulado: una línea por interesado que esté conectado
+     */
+    public void flush() {
+        Map<String, Boolean> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+        long v = version.incrementAndGet();
+
+        Map<String, StringBuilder> lines = new HashMap<>();
+        for (Map.Entry<String, Boolean> change : batch.entrySet()) {
+            String diff = (change.getValue() ? " +" : " -") + change.getKey();
+            for (String watcher : watchers(change.getKey())) {
+                if (online.contains(watcher)) {
+                    lines.computeIfAbsent(watcher, w -> new StringBuilder("PRESENCE " + v)).append(diff);
+                }
+            }
+        }
+        for (Map.Entry<String, StringBuilder> line : lines.entrySet()) {
+            deliver.accept(line.getKey(), line.getValue().append('\n').toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Presencia actual de los contactos de un usuario, con la versión del último lote enviado
+     */
+    public Snapshot snapshot(String user) {
+        Map<String, Boolean> contacts = new TreeMap<>();
+        for (String contact : watchers(user)) {
+            contacts.put(contact, online.contains(contact));
+        }
+        return new Snapshot(version.get(), contacts);
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Persistencia del registro de usuarios y grupos.
+ *
+ * El estado vive en un snapshot (users.txt y groups.txt) más un log de cambios
+ * append-only (registry.log). Cada alta/baja escribe una sola línea en el log, y
+ * cuando el log crece se compacta en segundo plano reescribiendo el snapshot.
+ *
+ * Formato del log, una operación por línea separada por tabuladores:
+ * ADD_USER u · REMOVE_USER u · CREATE_GROUP g · ADD_MEMBER g u · REMOVE_MEMBER g u
+ * seguida de un campo #crc32 de la operación. Al reaplicar sólo cuentan las líneas
+ * terminadas en salto de línea y con el checksum correcto: un registro cortado por una
+ * caída (por ejemplo ADD_MEMBER g us) se descarta y se recorta del log. Las líneas sin
+ * checksum son del formato anterior y se aceptan si están completas.
+ *
+ * Una baja de usuario se registra como un REMOVE_MEMBER por cada grupo suyo (los da
+ * quien llama, que tiene el índice inverso) y un REMOVE_USER, así no se recorren todos
+ * los grupos. DELETE_USER u es el registro anterior, que sí los recorre, y sólo aparece
+ * al reaplicar logs viejos.
+ *
+ * Los cambios se aplican a los mapas compartidos y se escriben en el log bajo el mismo
+ * lock, así el orden del log es el orden en que cambió la memoria.
+ *
+ * Los snapshots se escriben en un archivo temporal y se renombran de forma atómica,
+ * con una cabecera y un pie con CRC32 y número de líneas. La versión anterior queda
+ * como .bak junto con el log que llevaba de ella a la actual (registry.log.bak), así
+ * que si el snapshot está dañado se carga el anterior y se reaplica ese log.
+ */
+public class RegistryStore {
+
+    public static final int DEFAULT_COMPACT_THRESHOLD = 10_000;
+
+    private final File usersFile;
+    private final File groupsFile;
+    private final File logFile;
+    private final File rotatedLogFile;
+    private final File previousLogFile;
+    private final Set<String> users;
+    private final Map<String, Set<String>> groups;
+    private final int compactThreshold;
+
+    private BufferedWriter log;
+    private int logEntries = 0;
+    private boolean compacting = false;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "registry-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RegistryStore(File dataDir, Set<String> users, Map<String, Set<String>> groups) {
+        this(dataDir, users, groups, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    public RegistryStore(File dataDir, Set<String> users, Map<String, Set<String>> groups, int compactThreshold) {
+        this.usersFile = new File(dataDir, "users.txt");
+        this.groupsFile = new File(dataDir, "groups.txt");
+        this.logFile = new File(dataDir, "registry.log");
+        this.rotatedLogFile = new File(dataDir, "registry.log.1");
+        this.previousLogFile = new File(dataDir, "registry.log.bak");
+        this.users = users;
+        this.groups = groups;
+        this.compactThreshold = compactThreshold;
+    }
+
+    // ---- Carga ----
+
+    private static final String SNAPSHOT_HEADER = "#snapshot v1";
+    private static final String SNAPSHOT_FOOTER = "#end crc32=";
+
+    /**
+     * Carga el snapshot y reaplica el log de cambios encima
+     */
+    public synchronized void load() {
+        boolean usersFallback = loadUsers();
+        boolean groupsFallback = loadGroups();
+        int replayed = 0;
+        if (usersFallback || groupsFallback) {
+            // El snapshot anterior necesita también los cambios que llevaron al actual
+            replayed += replay(previousLogFile);
+        }
+        // Un log rotado que quedó de una compactación interrumpida va antes que el actual
+        replayed += replay(rotatedLogFile) + replay(logFile);
+        truncateTornTail();
+        logEntries = replayed;
+        System.out.println("[DEBUG] Loaded " + users.size() + " known users");
+        System.out.println("[DEBUG] Loaded " + groups.size() + " groups (" + replayed + " registry changes replayed)");
+    }
+
+    /** @return true si hubo que usar el snapshot anterior */
+    private boolean loadUsers() {
+        Snapshot snapshot = readValidSnapshot(usersFile);
+        for (String line : snapshot.lines) {
+            users.add(line.trim());
+        }
+        return snapshot.fallback;
+    }
+
+    /** @return true si hubo que usar el snapshot anterior */
+    private boolean loadGroups() {
+        Snapshot snapshot = readValidSnapshot(groupsFile);
+        for (String line : snapshot.lines) {
+            // Formato: groupName:member1,member2,member3
+            String[] parts = line.split(":", 2);
+            if (parts.length == 2) {
+                String groupName = parts[0].trim();
+                Set<String> memberSet = ConcurrentHashMap.newKeySet();
+                for (String member : parts[1].split(",")) {
+                    String trimmedMember = member.trim();
+                    if (!trimmedMember.isEmpty()) {
+                        memberSet.add(trimmedMember);
+                    }
+                }
+                if (!memberSet.isEmpty()) {
+                    groups.put(groupName, memberSet);
+                }
+            }
+        }
+        return snapshot.fallback;
+    }
+
+    private static class Snapshot {
+        final List<String> lines;
+        final boolean fallback;
+        Snapshot(List<String> lines, boolean fallback) { this.lines = lines; this.fallback = fallback; }
+    }
+
+    private Snapshot readValidSnapshot(File file) {
+        File backup = backupOf(file);
+        List<String> lines = readSnapshot(file);
+        // Un archivo vacío con backup disponible también se trata como dañado
+        if (lines != null && !(lines.isEmpty() && file.length() == 0 && backup.exists())) {
+            return new Snapshot(lines, false);
+        }
+        System.err.println("[ERROR] Snapshot " + file.getName() + " is corrupt or truncated, loading previous snapshot");
+        List<String> previous = readSnapshot(backup);
+        if (previous == null) {
+            System.err.println("[ERROR] Previous snapshot " + backup.getName() + " is not usable either");
+            previous = new ArrayList<>();
+        }
+        return new Snapshot(previous, true);
+    }
+
+    /**
+     * Lee un snapshot validando el pie con el checksum.
+     * Los archivos sin cabecera son del formato anterior y se aceptan tal cual.
+     * @return las líneas, o null si el archivo está dañado
+     */
+    static List<String> readSnapshot(File file) {
+        List<String> lines = new ArrayList<>();
+        if (!file.exists()) {
+            return lines;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            String first = reader.readLine();
+            if (first == null) {
+                return lines;
+            }
+            if (!SNAPSHOT_HEADER.equals(first)) {
+                // Formato anterior, sin checksum
+                lines.add(first);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+                return lines;
+            }
+            CRC32 crc = new CRC32();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SNAPSHOT_FOOTER)) {
+                    String[] footer = line.substring(SNAPSHOT_FOOTER.length()).split(" lines=");
+                    boolean valid = footer.length == 2
+                            && Long.parseLong(footer[0], 16) == crc.getValue()
+                            && Integer.parseInt(footer[1]) == lines.size()
+                            && reader.readLine() == null;
+                    return valid ? lines : null;
+                }
+                crc.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+                lines.add(line);
+            }
+            return null; // sin pie: archivo truncado
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[ERROR] Failed to read snapshot " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static File backupOf(File file) {
+        return new File(file.getParentFile(), file.getName() + ".bak");
+    }
+
+    private long completeBytes = 0; // Bytes de registros completos en el último log reaplicado
+
+    private int replay(File file) {
+        completeBytes = 0;
+        if (!file.exists()) return 0;
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) >= 0) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                // Sólo se aplica lo que llegó completo hasta el salto de línea
+                String text = line.toString();
+                completeBytes += text.getBytes(StandardCharsets.UTF_8).length + 1;
+                line.setLength(0);
+                if (text.endsWith("\r")) {
+                    text = text.substring(0, text.length() - 1); // Logs escritos con newLine() en Windows
+                }
+                String[] op = parseRecord(text);
+                if (op == null) {
+                    System.err.println("[ERROR] Skipping corrupt record in " + file.getName() + ": " + text);
+                } else if (apply(op)) {
+                    count++;
+                }
+            }
+            if (line.length() > 0) {
+                System.err.println("[ERROR] Skipping torn record at end of " + file.getName() + ": " + line);
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to replay registry log " + file.getName() + ": " + e.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * Recorta del log activo un registro cortado al final, para que el próximo cambio no
+     * quede pegado a él en la misma línea
+     */
+    private void truncateTornTail() {
+        if (logFile.exists() && logFile.length() > completeBytes) {
+            try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                raf.setLength(completeBytes);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to truncate registry log: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Línea del log con su checksum */
+    static String formatRecord(String... op) {
+        String body = String.join("\t", op);
+        return body + "\t#" + Long.toHexString(crc(body));
+    }
+
+    /**
+     * Campos de una línea del log, o null si el checksum no coincide
+     */
+    static String[] parseRecord(String line) {
+        int mark = line.lastIndexOf("\t#");
+        if (mark < 0) {
+            return line.split("\t"); // Formato anterior, sin checksum
+        }
+        String body = line.substring(0, mark);
+        try {
+            if (Long.parseLong(line.substring(mark + 2), 16) != crc(body)) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return body.split("\t");
+    }
+
+    private static long crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private boolean apply(String[] op) {
+        switch (op[0]) {
+            case "ADD_USER":
+                if (op.length < 2) return false;
+                users.add(op[1]);
+                return true;
+            case "REMOVE_USER":
+                if (op.length < 2) return false;
+                users.remove(op[1]);
+                return true;
+            case "DELETE_USER": // Formato anterior: sin los REMOVE_MEMBER delante
+                if (op.length < 2) return false;
+                users.remove(op[1]);
+                for (Set<String> members : groups.values()) {
+                    members.remove(op[1]);
+                }
+                return true;
+            case "CREATE_GROUP":
+                if (op.length < 2) return false;
+                groups.putIfAbsent(op[1], ConcurrentHashMap.newKeySet());
+                return true;
+            case "ADD_MEMBER":
+                if (op.length < 3) return false;
+                groups.computeIfAbsent(op[1], g -> ConcurrentHashMap.newKeySet()).add(op[2]);
+                return true;
+            case "REMOVE_MEMBER":
+                if (op.length < 3) return false;
+                Set<String> members = groups.get(op[1]);
+                if (members != null) members.remove(op[2]);
+                return true;
+            default:
+                return false; // línea truncada o desconocida
+        }
+    }
+
+    // ---- Registro de cambios ----
+
+    // Cada cambio se aplica a los mapas y se registra bajo el lock del store
+
+    /** @return true si el usuario era nuevo */
+    public synchronized boolean addUser(String username) {
+        boolean added = !users.contains(username);
+        change("ADD_USER", username);
+        return added;
+    }
+
+    /**
+     * Da de baja al usuario y lo saca de los grupos indicados (los suyos, según el índice
+     * inverso de quien llama)
+     */
+    public synchronized void deleteUser(String username, Collection<String> memberships) {
+        for (String groupName : memberships) {
+            change("REMOVE_MEMBER", groupName, username);
+        }
+        change("REMOVE_USER", username);
+    }
+
+    /** @return true si el grupo era nuevo */
+    public synchronized boolean createGroup(String groupName) {
+        boolean created = !groups.containsKey(groupName);
+        change("CREATE_GROUP", groupName);
+        return created;
+    }
+
+    public synchronized void addMember(String groupName, String username) { change("ADD_MEMBER", groupName, username); }
+    public synchronized void removeMember(String groupName, String username) { change("REMOVE_MEMBER", groupName, username); }
+
+    private void change(String... op) {
+        apply(op);
+        append(op);
+    }
+
+    private synchronized void append(String... op) {
+        try {
+            if (log == null) {
+                log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+            }
+            log.write(formatRecord(op) + "\n"); // Un solo write por registro
+            log.flush();
+            logEntries++;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to append to registry log: " + e.getMessage());
+            return;
+        }
+        if (logEntries >= compactThreshold && !compacting) {
+            scheduleCompaction();
+        }
+    }
+
+    // ---- Compactación ----
+
+    private void scheduleCompaction() {
+        compacting = true;
+        compactor.execute(() -> {
+            try {
+                compact();
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Rota el log y vuelca el estado actual a un snapshot nuevo. Las operaciones que
+     * llegan durante la escritura quedan en el log nuevo; como todas son idempotentes,
+     * reaplicarlas sobre el snapshot da el mismo estado.
+     */
+    public void compact() {
+        synchronized (this) {
+            try {
+                if (log != null) {
+                    log.close();
+                    log = null;
+                }
+                if (logFile.exists() && !rotatedLogFile.exists()) {
+                    logFile.renameTo(rotatedLogFile);
+                }
+                logEntries = 0;
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to rotate registry log: " + e.getMessage());
+                return;
+            }
+        }
+
+        if (writeSnapshot()) {
+            // El log rotado pasa a ser el camino desde el snapshot .bak hasta el actual
+            try {
+                Files.move(rotatedLogFile.toPath(), previousLogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to keep previous registry log: " + e.getMessage());
+            }
+            System.out.println("[DEBUG] Registry compacted: " + users.size() + " users, " + groups.size() + " groups");
+        }
+    }
+
+    private boolean writeSnapshot() {
+        List<String> userLines = new ArrayList<>(users);
+        List<String> groupLines = new ArrayList<>(groups.size());
+        for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
+            groupLines.add(entry.getKey() + ":" + String.join(",", entry.getValue()));
+        }
+        try {
+            writeSnapshotFile(usersFile, userLines);
+            writeSnapshotFile(groupsFile, groupLines);
+            return true;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to save registry snapshot: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Escribe el snapshot en un temporal, lo sincroniza a disco y lo renombra
+     * atómicamente sobre el archivo final. El snapshot anterior queda como .bak.
+     */
+    static void writeSnapshotFile(File file, List<String> lines) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write(SNAPSHOT_HEADER);
+            writer.newLine();
+            for (String line : lines) {
+                crc.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.write(SNAPSHOT_FOOTER + Long.toHexString(crc.getValue()) + " lines=" + lines.size());
+            writer.newLine();
+            writer.flush();
+            fos.getFD().sync();
+        }
+
+        if (file.exists()) {
+            File backup = backupOf(file);
+            Files.deleteIfExists(backup.toPath());
+            try {
+                Files.createLink(backup.toPath(), file.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (java.nio.file.AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public synchronized int getLogEntries() {
+        return logEntries;
+    }
+
+    public synchronized void close() {
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,252 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresión por bloques de los segmentos cerrados del historial.
+ *
+ * El segmento se parte en bloques de unos BLOCK_BYTES con líneas completas y cada uno se
+ * comprime por separado con Deflater, uno detrás del otro en NNNNNN.z. El índice
+ * (NNNNNN.idx) guarda por bloque su posición, tamaños y rangos de secuencia e instante,
+ * así para leer una parte se descomprimen sólo los bloques que la contienen.
+ *
+ * Formato del índice, una línea por bloque:
+ *     offset length rawLength firstSeq lastSeq minTs maxTs
+ */
+final class SegmentCodec {
+
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    private SegmentCodec() {
+    }
+
+    /** Un bloque comprimido y lo que contiene */
+    static final class Block {
+        final long offset;
+        final int length;
+        final int rawLength;
+        final long firstSeq;
+        final long lastSeq;
+        final long minTs;
+        final long maxTs;
+
+        Block(long offset, int length, int rawLength, long firstSeq, long lastSeq, long minTs, long maxTs) {
+            this.offset = offset;
+            this.length = length;
+            this.rawLength = rawLength;
+            this.firstSeq = firstSeq;
+            this.lastSeq = lastSeq;
+            this.minTs = minTs;
+            this.maxTs = maxTs;
+        }
+
+        boolean overlaps(long fromMs, long toMs) {
+            return maxTs >= fromMs && minTs <= toMs;
+        }
+
+        String toLine() {
+            return offset + " " + length + " " + rawLength + " " + firstSeq + " " + lastSeq + " " + minTs + " " + maxTs;
+        }
+
+        static Block parse(String line) {
+            String[] p = line.split(" ");
+            return new Block(Long.parseLong(p[0]), Integer.parseInt(p[1]), Integer.parseInt(p[2]),
+                    Long.parseLong(p[3]), Long.parseLong(p[4]), Long.parseLong(p[5]), Long.parseLong(p[6]));
+        }
+    }
+
+    /**
+     * Contadores de compresión y lectura, compartidos por todos los historiales
+     */
+    static final class Stats {
+        private final AtomicLong segmentsCompressed = new AtomicLong();
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong compressedBytes = new AtomicLong();
+        private final AtomicLong blocksDecoded = new AtomicLong();
+        private final AtomicLong blocksSkipped = new AtomicLong();
+        private final AtomicLong decodedBytes = new AtomicLong();
+        private final AtomicLong decodeNanos = new AtomicLong();
+
+        /** Un segmento comprimido (al comprimirlo o al encontrarlo al arrancar) */
+        void segment(long raw, long compressed) {
+            segmentsCompressed.incrementAndGet();
+            rawBytes.addAndGet(raw);
+            compressedBytes.addAndGet(compressed);
+        }
+
+        /**
+         * Un segmento comprimido deja de estarlo (lo borró la retención o se reescribió en
+         * texto al compactar): los totales reflejan lo comprimido que hay en disco
+         */
+        void segmentRemoved(long raw, long compressed) {
+            segmentsCompressed.decrementAndGet();
+            rawBytes.addAndGet(-raw);
+            compressedBytes.addAndGet(-compressed);
+        }
+
+        void decoded(int raw, long nanos) {
+            blocksDecoded.incrementAndGet();
+            decodedBytes.addAndGet(raw);
+            decodeNanos.addAndGet(nanos);
+        }
+
+        void skipped(int blocks) {
+            blocksSkipped.addAndGet(blocks);
+        }
+
+        /** Tamaño original / comprimido; 0 si todavía no se comprimió nada */
+        double ratio() {
+            long compressed = compressedBytes.get();
+            return compressed > 0 ? (double) rawBytes.get() / compressed : 0;
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long decoded = blocksDecoded.get();
+            map.put("segmentsCompressed", segmentsCompressed.get());
+            map.put("rawBytes", rawBytes.get());
+            map.put("compressedBytes", compressedBytes.get());
+            map.put("ratio", Math.round(ratio() * 100) / 100.0);
+            map.put("blocksDecoded", decoded);
+            map.put("blocksSkipped", blocksSkipped.get());
+            map.put("decodedBytes", decodedBytes.get());
+            map.put("decodeMs", decodeNanos.get() / 1_000_000);
+            map.put("avgDecodeMicros", decoded > 0 ? decodeNanos.get() / decoded / 1000 : 0);
+            return map;
+        }
+    }
+
+    /**
+     * Comprime source en target por bloques y escribe su índice; devuelve los bloques.
+     * Los dos archivos quedan forzados a disco, así quien llama puede borrar source
+     */
+    static List<Block> compress(File source, File target, File index) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (BufferedReader reader = new BufferedReader(new FileReader(source, StandardCharsets.UTF_8));
+             FileOutputStream out = new FileOutputStream(target)) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(BLOCK_BYTES + 1024);
+            long[] range = emptyRange();
+            long offset = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                raw.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                long seq = ConversationSeqs.seqOf(line);
+                long ts = ConversationSeqs.timestampOf(line);
+                if (range[0] < 0) {
+                    range[0] = seq;
+                }
+                range[1] = Math.max(range[1], seq);
+                range[2] = Math.min(range[2], ts);
+                range[3] = Math.max(range[3], ts);
+                if (raw.size() >= BLOCK_BYTES) {
+                    Block block = writeBlock(deflater, raw, range, offset, out);
+                    blocks.add(block);
+                    offset += block.length;
+                    raw.reset();
+                    range = emptyRange();
+                }
+            }
+            if (raw.size() > 0) {
+                blocks.add(writeBlock(deflater, raw, range, offset, out));
+            }
+            out.getFD().sync();
+        } finally {
+            deflater.end();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Block block : blocks) {
+            sb.append(block.toLine()).append('\n');
+        }
+        try (FileOutputStream out = new FileOutputStream(index)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        return blocks;
+    }
+
+    private static long[] emptyRange() {
+        return new long[] {-1, -1, Long.MAX_VALUE, Long.MIN_VALUE}; // firstSeq, lastSeq, minTs, maxTs
+    }
+
+    private static Block writeBlock(Deflater deflater, ByteArrayOutputStream raw, long[] range, long offset, OutputStream out) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw.toByteArray());
+        deflater.finish();
+        byte[] buf = new byte[8192];
+        int length = 0;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+            length += n;
+        }
+        return new Block(offset, length, raw.size(), range[0], range[1], range[2], range[3]);
+    }
+
+    static List<Block> loadIndex(File index) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(index, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    blocks.add(Block.parse(line));
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Descomprime un bloque y devuelve sus líneas
+     */
+    static List<String> readBlock(RandomAccessFile file, Block block, Inflater inflater, Stats stats) throws IOException {
+        long start = System.nanoTime();
+        byte[] compressed = new byte[block.length];
+        file.seek(block.offset);
+        file.readFully(compressed);
+        byte[] raw = new byte[block.rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                int got = inflater.inflate(raw, n, raw.length - n);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += got;
+            }
+            if (n != raw.length) {
+                throw new IOException("Truncated history block at " + block.offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt history block at " + block.offset + ": " + e.getMessage());
+        }
+        List<String> lines = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == '\n') {
+                lines.add(new String(raw, from, i - from, StandardCharsets.UTF_8));
+                from = i + 1;
+            }
+        }
+        stats.decoded(block.rawLength, System.nanoTime() - start);
+        return lines;
+    }
+}
@@ -0,0 +1,619 @@
+package services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+
+/**
+ * Historial de una conversación partido en segmentos: 000000.jsonl, 000001.jsonl, ...
+ *
+ * Sólo se escribe en el último (el abierto); cuando pasa de un tamaño o de una edad se
+ * cierra y se abre el siguiente. El manifest guarda, por segmento cerrado, el rango de
+ * secuencias e instantes, los bytes y los registros, así los lectores saltan segmentos
+ * enteros sin abrirlos y la retención borra segmentos completos. Los archivos nunca se
+ * renombran: un lector que tomó la lista de segmentos puede leerlos mientras se escribe.
+ *
+ * Los segmentos cerrados se comprimen en segundo plano por bloques (SegmentCodec):
+ * NNNNNN.jsonl pasa a NNNNNN.z con su índice NNNNNN.idx, y una lectura descomprime sólo
+ * los bloques que se cruzan con lo pedido.
+ *
+ * Formato del manifest, una línea por dato:
+ *     floor N        secuencia más alta ya descartada por retención
+ *     open N         número del segmento abierto
+ *     seg id firstSeq lastSeq minTs maxTs bytes records [z storedBytes]
+ */
+class SegmentedLog {
+
+    /**
+     * Tamaño y edad de los segmentos y retención; 0 en la retención es sin límite
+     */
+    static final class Policy {
+        final long segmentBytes;
+        final long segmentMs;
+        final long retentionMs;
+        final long retentionBytes;
+
+        Policy(long segmentBytes, long segmentMs, long retentionMs, long retentionBytes) {
+            this.segmentBytes = segmentBytes;
+            this.segmentMs = segmentMs;
+            this.retentionMs = retentionMs;
+            this.retentionBytes = retentionBytes;
+        }
+
+        boolean hasRetention() {
+            return retentionMs > 0 || retentionBytes > 0;
+        }
+    }
+
+    /** Metadatos de un segmento */
+    static final class Segment {
+        final int id;
+        long firstSeq = -1;
+        long lastSeq = -1;
+        long minTs = Long.MAX_VALUE;
+        long maxTs = Long.MIN_VALUE;
+        long bytes;
+        long records;
+        volatile boolean compressed; // Se publica después de blocks y storedBytes
+        long storedBytes; // Tamaño comprimido en disco
+        List<SegmentCodec.Block> blocks;
+
+        Segment(int id) {
+            this.id = id;
+        }
+
+        void add(long seq, long ts, long size) {
+            if (firstSeq < 0) {
+                firstSeq = seq;
+            }
+            lastSeq = Math.max(lastSeq, seq);
+            minTs = Math.min(minTs, ts);
+            maxTs = Math.max(maxTs, ts);
+            bytes += size;
+            records++;
+        }
+
+        boolean overlaps(long fromMs, long toMs) {
+            return records > 0 && maxTs >= fromMs && minTs <= toMs;
+        }
+
+        long diskBytes() {
+            return compressed ? storedBytes : bytes;
+        }
+
+        String toLine() {
+            return "seg " + id + " " + firstSeq + " " + lastSeq + " " + minTs + " " + maxTs + " " + bytes + " " + records
+                    + (compressed ? " z " + storedBytes : "");
+        }
+
+        static Segment parse(String[] p) {
+            Segment s = new Segment(Integer.parseInt(p[1]));
+            s.firstSeq = Long.parseLong(p[2]);
+            s.lastSeq = Long.parseLong(p[3]);
+            s.minTs = Long.parseLong(p[4]);
+            s.maxTs = Long.parseLong(p[5]);
+            s.bytes = Long.parseLong(p[6]);
+            s.records = Long.parseLong(p[7]);
+            if (p.length >= 10 && "z".equals(p[8])) {
+                s.storedBytes = Long.parseLong(p[9]);
+                s.compressed = true;
+            }
+            return s;
+        }
+    }
+
+    private final File dir;
+    private final File manifestFile;
+    private final Policy policy;
+    private final SegmentCodec.Stats stats;
+    private final Object maintenance = new Object(); // Compresión y compactación, una a la vez
+    private final List<Segment> closed = new ArrayList<>(); // Protegido por this, del más viejo al más nuevo
+    private Segment open;
+    private long floorSeq = 0;
+
+    private SegmentedLog(File dir, Policy policy, SegmentCodec.Stats stats) {
+        this.dir = dir;
+        this.manifestFile = new File(dir, "manifest");
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    /**
+     * Abre (o crea) el historial segmentado de una conversación. Si existe legacyFile (el
+     * archivo único de antes) pasa a ser el primer segmento
+     */
+    static SegmentedLog open(File dir, File legacyFile, Policy policy) throws IOException {
+        return open(dir, legacyFile, policy, new SegmentCodec.Stats());
+    }
+
+    static SegmentedLog open(File dir, File legacyFile, Policy policy, SegmentCodec.Stats stats) throws IOException {
+        SegmentedLog log = new SegmentedLog(dir, policy, stats);
+        dir.mkdirs();
+        if (legacyFile != null && legacyFile.exists() && !log.manifestFile.exists()) {
+            Files.move(legacyFile.toPath(), log.segmentFile(0).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        log.load();
+        return log;
+    }
+
+    private void load() throws IOException {
+        int openId = 0;
+        if (manifestFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] p = line.split(" ");
+                    switch (p[0]) {
+                        case "floor": floorSeq = Long.parseLong(p[1]); break;
+                        case "open": openId = Integer.parseInt(p[1]); break;
+                        case "seg": closed.add(Segment.parse(p)); break;
+                        default: break;
+                    }
+                }
+            }
+        }
+        for (Segment s : closed) {
+            if (s.compressed) {
+                s.blocks = SegmentCodec.loadIndex(indexFile(s.id));
+                stats.segment(s.bytes, s.storedBytes);
+            }
+        }
+        open = scan(openId); // El abierto no está en el manifest: se lee (está acotado por su tamaño)
+    }
+
+    File segmentFile(int id) {
+        return new File(dir, String.format("%06d.jsonl", id));
+    }
+
+    File compressedFile(int id) {
+        return new File(dir, String.format("%06d.z", id));
+    }
+
+    private File indexFile(int id) {
+        return new File(dir, String.format("%06d.idx", id));
+    }
+
+    private void deleteFiles(int id) {
+        segmentFile(id).delete();
+        compressedFile(id).delete();
+        indexFile(id).delete();
+    }
+
+    private Segment scan(int id) throws IOException {
+        Segment s = new Segment(id);
+        File file = segmentFile(id);
+        if (!file.exists()) {
+            return s;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                s.add(ConversationSeqs.seqOf(line), ConversationSeqs.timestampOf(line),
+                        line.getBytes(StandardCharsets.UTF_8).length + 1);
+            }
+        }
+        return s;
+    }
+
+    // ---- Escritura ----
+
+    /**
+     * Agrega un registro (línea con salto final) al segmento abierto, cerrándolo antes si
+     * ya llegó a su tamaño o edad. Devuelve true si cerró un segmento (hay qué comprimir)
+     */
+    synchronized boolean append(byte[] line, long seq, long ts) throws IOException {
+        boolean rolled = false;
+        if (open.records > 0 && (open.bytes >= policy.segmentBytes || ts - open.minTs >= policy.segmentMs)) {
+            roll(ts);
+            rolled = true;
+        }
+        try (FileOutputStream fos = new FileOutputStream(segmentFile(open.id), true)) {
+            fos.write(line);
+        }
+        open.add(seq, ts, line.length);
+        return rolled;
+    }
+
+    private void roll(long now) throws IOException {
+        closed.add(open);
+        open = new Segment(open.id + 1);
+        writeManifest();
+        retain(now);
+    }
+
+    /**
+     * Borra los segmentos cerrados más viejos que la retención por edad o que exceden la
+     * retención por tamaño. El segmento abierto nunca se borra
+     */
+    synchronized int retain(long now) throws IOException {
+        if (!policy.hasRetention()) {
+            return 0;
+        }
+        long total = open.bytes;
+        for (Segment s : closed) {
+            total += s.diskBytes();
+        }
+        List<Segment> dropped = new ArrayList<>();
+        while (!closed.isEmpty()) {
+            Segment oldest = closed.get(0);
+            boolean tooOld = policy.retentionMs > 0 && oldest.maxTs < now - policy.retentionMs;
+            boolean tooBig = policy.retentionBytes > 0 && total > policy.retentionBytes;
+            if (!tooOld && !tooBig) {
+                break;
+            }
+            closed.remove(0);
+            total -= oldest.diskBytes();
+            floorSeq = Math.max(floorSeq, oldest.lastSeq);
+            dropped.add(oldest);
+        }
+        if (!dropped.isEmpty()) {
+            writeManifest(); // Primero el manifest: una caída deja archivos sueltos, no entradas sin archivo
+            for (Segment s : dropped) {
+                deleteFiles(s.id);
+                if (s.compressed) {
+                    stats.segmentRemoved(s.bytes, s.storedBytes);
+                }
+            }
+        }
+        return dropped.size();
+    }
+
+    /**
+     * Reemplaza el manifest ya forzado a disco: después de esto se pueden borrar los
+     * archivos que dejó de nombrar
+     */
+    private void writeManifest() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("floor ").append(floorSeq).append('\n');
+        sb.append("open ").append(open.id).append('\n');
+        for (Segment s : closed) {
+            sb.append(s.toLine()).append('\n');
+        }
+        AtomicFiles.write(manifestFile, sb.toString());
+    }
+
+    // ---- Lectura ----
+
+    /**
+     * Registros con secuencia mayor a afterSeq (o todos si all) y con instante entre fromMs
+     * y toMs. Se saltan los segmentos, y en los comprimidos los bloques, que no pueden tener
+     * nada del rango
+     */
+    List<String> read(boolean all, long afterSeq, long fromMs, long toMs) throws IOException {
+        List<Segment> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(closed);
+            segments.add(open);
+        }
+        boolean byTime = fromMs != Long.MIN_VALUE || toMs != Long.MAX_VALUE;
+        List<String> result = new ArrayList<>();
+        Inflater inflater = new Inflater();
+        try {
+            for (Segment s : segments) {
+                if ((!all && s.lastSeq <= afterSeq) || (byTime && !s.overlaps(fromMs, toMs))) {
+                    continue;
+                }
+                try {
+                    readSegment(s, all, afterSeq, byTime, fromMs, toMs, inflater, result);
+                } catch (FileNotFoundException e) {
+                    // Se comprimió o se reescribió mientras tanto: se lee su versión actual
+                    Segment now = segmentById(s.id);
+                    if (now != null) {
+                        try {
+                            readSegment(now, all, afterSeq, byTime, fromMs, toMs, inflater, result);
+                        } catch (FileNotFoundException again) {
+                            // Borrado por la retención mientras se leía: ya no forma parte del historial
+                        }
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    private void readSegment(Segment s, boolean all, long afterSeq, boolean byTime, long fromMs, long toMs,
+                             Inflater inflater, List<String> result) throws IOException {
+        if (!s.compressed) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(segmentFile(s.id), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (accept(line, all, afterSeq, byTime, fromMs, toMs)) {
+                        result.add(line);
+                    }
+                }
+            }
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(compressedFile(s.id), "r")) {
+            int skipped = 0;
+            for (SegmentCodec.Block block : s.blocks) {
+                if ((!all && block.lastSeq <= afterSeq) || (byTime && !block.overlaps(fromMs, toMs))) {
+                    skipped++;
+                    continue;
+                }
+                for (String line : SegmentCodec.readBlock(file, block, inflater, stats)) {
+                    if (accept(line, all, afterSeq, byTime, fromMs, toMs)) {
+                        result.add(line);
+                    }
+                }
+            }
+            stats.skipped(skipped);
+        }
+    }
+
+    private static boolean accept(String line, boolean all, long afterSeq, boolean byTime, long fromMs, long toMs) {
+        if (!all && ConversationSeqs.seqOf(line) <= afterSeq) {
+            return false;
+        }
+        if (byTime) {
+            long ts = ConversationSeqs.timestampOf(line);
+            return ts >= fromMs && ts <= toMs;
+        }
+        return true;
+    }
+
+    private synchronized Segment segmentById(int id) {
+        for (Segment s : closed) {
+            if (s.id == id) {
+                return s;
+            }
+        }
+        return open.id == id ? open : null;
+    }
+
+    synchronized long lastSeq() {
+        long last = Math.max(floorSeq, open.lastSeq);
+        for (Segment s : closed) {
+            last = Math.max(last, s.lastSeq);
+        }
+        return Math.max(0, last);
+    }
+
+    synchronized long firstSeq() {
+        for (Segment s : closed) {
+            if (s.records > 0) {
+                return s.firstSeq;
+            }
+        }
+        return open.records > 0 ? open.firstSeq : -1;
+    }
+
+    synchronized int segmentCount() {
+        return closed.size() + 1;
+    }
+
+    // ---- Compresión de los segmentos cerrados ----
+
+    /**
+     * Comprime los segmentos cerrados que siguen en texto; devuelve cuántos. Se comprime
+     * sin bloquear a quien escribe (un segmento cerrado no cambia) y sólo el cambio de
+     * archivo se hace con el lock
+     */
+    int compressClosed() throws IOException {
+        synchronized (maintenance) {
+            List<Segment> pending = new ArrayList<>();
+            synchronized (this) {
+                for (Segment s : closed) {
+                    if (!s.compressed && s.records > 0) {
+                        pending.add(s);
+                    }
+                }
+            }
+            int done = 0;
+            for (Segment s : pending) {
+                File compressedTmp = new File(dir, String.format("%06d.z.tmp", s.id));
+                File indexTmp = new File(dir, String.format("%06d.idx.tmp", s.id));
+                List<SegmentCodec.Block> blocks;
+                try {
+                    blocks = SegmentCodec.compress(segmentFile(s.id), compressedTmp, indexTmp);
+                } catch (FileNotFoundException e) {
+                    continue; // Borrado por la retención
+                }
+                synchronized (this) {
+                    if (!closed.contains(s)) {
+                        compressedTmp.delete();
+                        indexTmp.delete();
+                        continue;
+                    }
+                    // Primero los archivos nuevos (compress ya los forzó a disco), luego el
+                    // manifest, al final se borra el texto
+                    AtomicFiles.move(indexTmp, indexFile(s.id));
+                    AtomicFiles.move(compressedTmp, compressedFile(s.id));
+                    s.blocks = blocks;
+                    s.storedBytes = compressedFile(s.id).length();
+                    s.compressed = true;
+                    writeManifest();
+                    segmentFile(s.id).delete();
+                    stats.segment(s.bytes, s.storedBytes);
+                }
+                done++;
+            }
+            return done;
+        }
+    }
+
+    synchronized boolean hasUncompressed() {
+        for (Segment s : closed) {
+            if (!s.compressed && s.records > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- Compactación bajo una lápida ----
+
+    /**
+     * Quita los registros con secuencia menor o igual a cutoff: los segmentos cerrados que
+     * quedan enteros debajo se borran, el que la cruza se reescribe, y el abierto se copia
+     * sin bloquear a quien escribe salvo para lo agregado mientras tanto
+     */
+    long dropThrough(long cutoff) throws IOException {
+        synchronized (maintenance) {
+            return drop(cutoff);
+        }
+    }
+
+    private long drop(long cutoff) throws IOException {
+        long kept = 0;
+        List<Segment> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(closed);
+        }
+        for (Segment s : snapshot) {
+            if (s.records == 0 || s.firstSeq > cutoff) {
+                kept += s.records;
+                continue;
+            }
+            Segment rewritten;
+            try {
+                rewritten = s.lastSeq <= cutoff ? null
+                        : s.compressed ? rewriteCompressed(s, cutoff) : rewrite(s.id, cutoff, Long.MAX_VALUE);
+            } catch (FileNotFoundException e) {
+                continue; // Ya lo borró la retención
+            }
+            synchronized (this) {
+                int i = closed.indexOf(s);
+                if (i < 0) {
+                    new File(dir, tmpName(s.id)).delete(); // Ya lo borró la retención
+                    continue;
+                }
+                if (rewritten == null) {
+                    closed.remove(i);
+                    writeManifest();
+                    deleteFiles(s.id);
+                } else {
+                    // El texto nuevo en su lugar y en disco antes de que el manifest lo nombre;
+                    // recién entonces se borran .z/.idx. Una caída en el medio deja el
+                    // segmento viejo entero o el nuevo, nunca un manifest sin su archivo
+                    replace(s.id); // Queda en texto hasta la próxima compresión
+                    closed.set(i, rewritten);
+                    kept += rewritten.records;
+                    writeManifest();
+                    if (s.compressed) {
+                        compressedFile(s.id).delete();
+                        indexFile(s.id).delete();
+                    }
+                }
+                if (s.compressed) {
+                    // Al recomprimirlo se vuelve a contar: se descuenta lo que aportaba
+                    stats.segmentRemoved(s.bytes, s.storedBytes);
+                }
+            }
+        }
+
+        Segment current;
+        long copied;
+        synchronized (this) {
+            current = open;
+            copied = segmentFile(current.id).length();
+            if (current.records == 0 || current.firstSeq > cutoff) {
+                return kept + current.records;
+            }
+        }
+        rewrite(current.id, cutoff, copied);
+        synchronized (this) {
+            if (open != current) {
+                // Se cerró mientras se copiaba: queda para la próxima compactación
+                new File(dir, tmpName(current.id)).delete();
+                return kept;
+            }
+            appendTail(current.id, copied);
+            replace(current.id);
+            open = scan(current.id);
+            return kept + open.records;
+        }
+    }
+
+    /** Copia los primeros length bytes de un segmento sin lo que está bajo cutoff */
+    private Segment rewrite(int id, long cutoff, long length) throws IOException {
+        Segment s = new Segment(id);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(segmentFile(id)));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, tmpName(id))))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            for (long pos = 0; pos < length; pos++) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                line.write(b);
+                if (b == '\n') {
+                    String text = line.toString(StandardCharsets.UTF_8);
+                    long seq = ConversationSeqs.seqOf(text);
+                    if (seq > cutoff) {
+                        line.writeTo(out);
+                        s.add(seq, ConversationSeqs.timestampOf(text), line.size());
+                    }
+                    line.reset();
+                }
+            }
+        }
+        return s;
+    }
+
+    /** Como rewrite, pero descomprimiendo sólo los bloques con algo sobre cutoff */
+    private Segment rewriteCompressed(Segment source, long cutoff) throws IOException {
+        Segment s = new Segment(source.id);
+        Inflater inflater = new Inflater();
+        try (RandomAccessFile in = new RandomAccessFile(compressedFile(source.id), "r");
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, tmpName(source.id))))) {
+            for (SegmentCodec.Block block : source.blocks) {
+                if (block.lastSeq <= cutoff) {
+                    continue;
+                }
+                for (String line : SegmentCodec.readBlock(in, block, inflater, stats)) {
+                    long seq = ConversationSeqs.seqOf(line);
+                    if (seq > cutoff) {
+                        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                        out.write(bytes);
+                        s.add(seq, ConversationSeqs.timestampOf(line), bytes.length);
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return s;
+    }
+
+    private void appendTail(int id, long from) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(id), "r");
+             FileOutputStream out = new FileOutputStream(new File(dir, tmpName(id)), true)) {
+            raf.seek(from);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = raf.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+    }
+
+    /** Pone la copia recortada en lugar del segmento, forzada a disco antes del rename */
+    private void replace(int id) throws IOException {
+        File tmp = new File(dir, tmpName(id));
+        AtomicFiles.sync(tmp);
+        AtomicFiles.move(tmp, segmentFile(id));
+    }
+
+    private static String tmpName(int id) {
+        return String.format("%06d.jsonl.tmp", id);
+    }
+}
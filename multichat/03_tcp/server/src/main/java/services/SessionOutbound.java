@@ -0,0 +1,160 @@
+package services;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de salida de una sesión con socket (clientes nativos del puerto 6000).
+ *
+ * Los hilos que envían sólo encolan frames completos (una línea, o cabecera + datos de
+ * una nota de voz) y un hilo escritor propio de la sesión los escribe en el socket. Así un
+ * receptor lento nunca bloquea al remitente y dos escritores no pueden intercalar bytes.
+ * Si el receptor acumula más de {@link #MAX_PENDING_BYTES} sin leer, se le desconecta.
+ *
+ * El escritor junta en un buffer todos los frames que encuentra en la cola y hace flush
+ * sólo cuando la cola queda vacía: una ráfaga de líneas (por ejemplo varios SYS) sale en
+ * pocos segmentos TCP, y un mensaje suelto sale de inmediato porque Nagle está desactivado.
+ */
+public class SessionOutbound {
+
+    public static final long MAX_PENDING_BYTES = 8L * 1024 * 1024;
+
+    private static final byte[] CLOSE = new byte[0]; // Marca de fin para el escritor
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Closeable connection;
+    private final Callable<OutputStream> sink;
+    private final String name;
+    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final PrintWriter writer;
+    private volatile boolean closed;
+
+    public SessionOutbound(Socket socket, String name) {
+        this(name, socket, socket::getOutputStream);
+        try {
+            socket.setTcpNoDelay(true);
+        } catch (SocketException e) {
+            System.err.println("[SERVER] Could not disable Nagle for " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Constructor con un destino arbitrario (usado por los benchmarks)
+     */
+    SessionOutbound(String name, Closeable connection, Callable<OutputStream> sink) {
+        this.connection = connection;
+        this.sink = sink;
+        this.name = name;
+        this.writer = new PrintWriter(new OutputStreamWriter(new FrameStream(), StandardCharsets.UTF_8), true);
+        // Hilo virtual: con miles de sesiones los escritores dormidos no cuestan un hilo del sistema cada uno
+        Thread.ofVirtual().name("out-" + name).start(this::drain);
+    }
+
+    /**
+     * PrintWriter cuyo flush (println con autoflush) encola el texto como un frame
+     */
+    public PrintWriter writer() {
+        return writer;
+    }
+
+    /**
+     * Encola un frame sin bloquear. Devuelve false si la sesión está cerrada o se desbordó
+     */
+    public boolean send(byte[] frame) {
+        if (closed) {
+            return false;
+        }
+        if (pendingBytes.addAndGet(frame.length) > MAX_PENDING_BYTES) {
+            System.err.println("[SERVER] Disconnecting " + name + ": more than " + MAX_PENDING_BYTES + " bytes pending");
+            close();
+            return false;
+        }
+        queue.offer(frame);
+        return true;
+    }
+
+    private void drain() {
+        try {
+            OutputStream os = new BufferedOutputStream(sink.call(), BUFFER_SIZE);
+            while (true) {
+                byte[] frame = queue.take();
+                // Escribir todo lo que ya está en cola y hacer un solo flush al vaciarla
+                while (frame != null) {
+                    if (frame == CLOSE) {
+                        return;
+                    }
+                    os.write(frame);
+                    pendingBytes.addAndGet(-frame.length);
+                    frame = queue.poll();
+                }
+                os.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (!closed) {
+                System.err.println("[SERVER] Write to " + name + " failed: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Cierra el socket; el hilo lector de la conexión verá el cierre y hará logout
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.clear();
+        queue.offer(CLOSE);
+        try {
+            connection.close();
+        } catch (IOException ignored) {}
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /** Acumula lo que escribe el PrintWriter y lo encola entero en cada flush */
+    private class FrameStream extends OutputStream {
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+
+        @Override
+        public synchronized void write(int b) {
+            buf.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            buf.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (buf.size() > 0) {
+                send(buf.toByteArray());
+                buf.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Versiones y snapshots en caché para las listas que el cliente web consulta por polling
+ * (usuarios, grupos, usuarios en línea).
+ *
+ * Cada cambio incrementa un número de versión global y queda en el diario de su vista.
+ * El snapshot completo de una vista se reconstruye sólo cuando la vista cambió; un cliente
+ * que envía la última versión que vio recibe "sin cambios" o sólo el delta desde entonces.
+ */
+public class VersionedDirectory {
+
+    public static final int JOURNAL_SIZE = 4096;
+
+    private long version = 0; // Protegido por this
+
+    /** Snapshot inmutable de una vista */
+    public static final class Snapshot<T> {
+        public final long version;
+        public final T data;
+
+        Snapshot(long version, T data) {
+            this.version = version;
+            this.data = data;
+        }
+    }
+
+    /** Cambios de una vista desde una versión: valor nuevo por clave, o la clave en removed */
+    public static final class Delta {
+        public final long version;
+        public final Map<String, Object> changed;
+        public final List<String> removed;
+
+        Delta(long version, Map<String, Object> changed, List<String> removed) {
+            this.version = version;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        public boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private static final class Change {
+        final long version;
+        final String key;
+        final Object value; // null = eliminado
+
+        Change(long version, String key, Object value) {
+            this.version = version;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public <T> View<T> view(Supplier<T> builder) {
+        return new View<>(builder);
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /** Una lista versionada; builder arma el snapshot completo desde el estado en memoria */
+    public class View<T> {
+        private final Supplier<T> builder;
+        private final ArrayDeque<Change> journal = new ArrayDeque<>();
+        private long lastChanged = 0;
+        private long trimmedUpTo = 0; // Versión más alta que ya salió del diario
+        private Snapshot<T> cached;
+
+        View(Supplier<T> builder) {
+            this.builder = builder;
+        }
+
+        public void put(String key, Object value) {
+            record(key, value);
+        }
+
+        public void remove(String key) {
+            record(key, null);
+        }
+
+        private void record(String key, Object value) {
+            synchronized (VersionedDirectory.this) {
+                long v = ++version;
+                journal.addLast(new Change(v, key, value));
+                if (journal.size() > JOURNAL_SIZE) {
+                    trimmedUpTo = journal.removeFirst().version;
+                }
+                lastChanged = v;
+            }
+        }
+
+        /**
+         * Snapshot completo; se reconstruye sólo si la vista cambió desde el último
+         */
+        public Snapshot<T> snapshot() {
+            synchronized (VersionedDirectory.this) {
+                if (cached == null || cached.version < lastChanged) {
+                    cached = new Snapshot<>(version, builder.get());
+                }
+                return cached;
+            }
+        }
+
+        /**
+         * Cambios posteriores a sinceVersion, o null si el diario ya no los tiene (pedir snapshot)
+         */
+        public Delta since(long sinceVersion) {
+            synchronized (VersionedDirectory.this) {
+                if (sinceVersion < trimmedUpTo || sinceVersion > version) {
+                    return null;
+                }
+                Map<String, Object> changed = new LinkedHashMap<>();
+                List<String> removed = new ArrayList<>();
+                if (sinceVersion < lastChanged) {
+                    Map<String, Object> latest = new LinkedHashMap<>();
+                    for (Change c : journal) {
+                        if (c.version > sinceVersion) {
+                            latest.remove(c.key); // Conservar el orden del último cambio
+                            latest.put(c.key, c.value);
+                        }
+                    }
+                    for (Map.Entry<String, Object> e : latest.entrySet()) {
+                        if (e.getValue() == null) {
+                            removed.add(e.getKey());
+                        } else {
+                            changed.put(e.getKey(), e.getValue());
+                        }
+                    }
+                }
+                return new Delta(version, Collections.unmodifiableMap(changed), Collections.unmodifiableList(removed));
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@ public class Main implements TCPConnection.Listener {
         System.out.println("Servidor TCP original (puerto 6000)");
         System.out.println("Servidor TCP-JSON para proxy HTTP (puerto 12345)");
         System.out.println("Servidor ICE RPC (puerto 10000)");
+        System.out.println("Relay UDP de llamadas (puerto 6001)");
         System.out.println("====================================\n");
 
         ChatServicesImpl chatServices = new ChatServicesImpl();
@@ -24,13 +25,23 @@ public class Main implements TCPConnection.Listener {
         TCPConnection srv = TCPConnection.getInstance();
         srv.initAsServer(6000);
         srv.setListener(m);
+        srv.setChatServices(chatServices); // mismo núcleo para TCP nativo, TCP-JSON e ICE
         new Thread(() -> srv.start()).start();
 
+        // Relay UDP opcional para llamadas de clientes nativos (puerto 6001)
+        try {
+            util.UdpRelay relay = new util.UdpRelay(6001);
+            relay.start();
+            srv.setUdpRelay(relay);
+        } catch (Exception e) {
+            System.err.println("Could not start UDP relay (port 6001 may be in use). Calls will use peer-to-peer only: " + e.getMessage());
+        }
+
         TCPJSONController tcpJsonController = new TCPJSONController(chatServices, 12345);
         tcpJsonController.start();
 
         // Iniciar servidor ICE
-        startIceServer(chatServices);
+        startIceServer(chatServices, args);
 
         // Iniciar servidor de Audio (WebSocket) — manejamos errores si el puerto ya está en uso
         try {
@@ -53,26 +64,42 @@ public class Main implements TCPConnection.Listener {
         }
     }
 
-    private static void startIceServer(ChatServicesImpl chatServices) {
+    private static void startIceServer(ChatServicesImpl chatServices, String[] args) {
         try {
             com.zeroc.Ice.InitializationData initData = new com.zeroc.Ice.InitializationData();
-            initData.properties = com.zeroc.Ice.Util.createProperties();
+            // Acepta --Ice.ThreadPool.Server.Size=N, --Ice.ThreadPool.Server.SizeMax=N, etc. desde la línea de comandos
+            initData.properties = com.zeroc.Ice.Util.createProperties(args);
             initData.properties.setProperty("Ice.MessageSizeMax", "10240"); // 10MB
+            // getHistory/sendMessage/sendAudio son AMD y no retienen estos hilos mientras tocan disco
+            setDefault(initData.properties, "Ice.ThreadPool.Server.Size", "4");
+            setDefault(initData.properties, "Ice.ThreadPool.Server.SizeMax", "16");
+            // Despacho en orden por conexión: sendMessage seguidos llegan al carril de envíos en el
+            // orden del cliente. Con AMD el despacho sólo encola, así que no frena a las demás conexiones
+            setDefault(initData.properties, "Ice.ThreadPool.Server.Serialize", "1");
 
             Communicator communicator = Util.initialize(initData);
             ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints("ChatAdapter", "ws -p 10000");
 
-            ChatServiceImpl chatService = new ChatServiceImpl(chatServices);
+            int ioThreads = initData.properties.getPropertyAsIntWithDefault("Chat.IO.Threads", ChatServiceImpl.DEFAULT_IO_THREADS);
+            ChatServiceImpl chatService = new ChatServiceImpl(chatServices, ChatServiceImpl.newIoExecutor(ioThreads));
             adapter.add(chatService, Util.stringToIdentity("ChatService"));
 
             adapter.activate();
-            System.out.println("ICE server started on port 10000");
+            System.out.println("ICE server started on port 10000 (server pool "
+                    + initData.properties.getProperty("Ice.ThreadPool.Server.Size") + "-"
+                    + initData.properties.getProperty("Ice.ThreadPool.Server.SizeMax") + ", " + ioThreads + " I/O threads)");
         } catch (Exception e) {
             System.err.println("Error starting ICE server: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    private static void setDefault(com.zeroc.Ice.Properties props, String key, String value) {
+        if (props.getProperty(key).isEmpty()) {
+            props.setProperty(key, value);
+        }
+    }
+
     @Override
     public void onLog(String line) {
         System.out.println(line);
@@ -1,12 +1,7 @@
 package util;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
@@ -14,12 +9,16 @@ import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
+import services.ChatServicesImpl;
+import services.ChatServicesImpl.ClientSession;
+
+/**
+ * Adaptador del protocolo de texto nativo (puerto 6000).
+ * Sesiones, grupos e historial viven en ChatServicesImpl, compartidos con TCP-JSON e ICE,
+ * así que un cliente nativo puede hablar con clientes web y viceversa.
+ */
 
 public class TCPConnection extends Thread {
 
@@ -33,22 +32,22 @@ public class TCPConnection extends Thread {
     private ServerSocket serverSocket;
     private volatile boolean running;
     private Listener listener;
+    private volatile UdpRelay udpRelay; // opcional: relay de audio para clientes detrás de NAT
     public void setListener(Listener l){ this.listener = l; }
+    public void setUdpRelay(UdpRelay relay){ this.udpRelay = relay; }
+    public void setChatServices(ChatServicesImpl services){ this.chatServices = services; }
     public void initAsServer(int port){
         try { serverSocket = new ServerSocket(port); }
         catch(IOException e){ throw new RuntimeException(e); }
     }
+    public int getPort(){ return serverSocket.getLocalPort(); }
 
-    private final Map<String, ClientSession> users = new ConcurrentHashMap<>();
-    private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
-    private final File dataDir = new File("data");
-    private final File historyDir = new File(dataDir, "history");
-    private final File mediaDir = new File(dataDir, "media");
+    private volatile ChatServicesImpl chatServices; // núcleo compartido de sesiones, grupos y persistencia
     private void log(String s){ if(listener!=null) listener.onLog(s); }
 
     @Override public void run(){
         if(serverSocket==null) throw new IllegalStateException("initAsServer primero");
-        historyDir.mkdirs(); mediaDir.mkdirs();
+        if(chatServices==null) chatServices = new ChatServicesImpl();
         running = true;
         log("[SERVER] Escuchando TCP en "+serverSocket.getLocalPort());
         while(running){
@@ -61,17 +60,6 @@ public class TCPConnection extends Thread {
         }
     }
 
-    static class ClientSession {
-        final String user;
-        final Socket socket;
-        final PrintWriter out;
-        volatile int udpPort; // para llamadas
-        ClientSession(String user, Socket socket) throws IOException {
-            this.user=user; this.socket=socket;
-            this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-        }
-    }
-
     class Handler implements Runnable{
         private final Socket socket;
         Handler(Socket s){ this.socket=s; }
@@ -80,6 +68,7 @@ public class TCPConnection extends Thread {
             String user = null;
             try {
                 InputStream in = socket.getInputStream();   // ÚNICO stream para líneas y binario
+                // Antes del login nadie más conoce el socket; después se usa la cola de salida de la sesión
                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
 
                 out.println("HELLO use: LOGIN <user>");
@@ -97,25 +86,26 @@ public class TCPConnection extends Thread {
                                 if(user!=null){ out.println("ERR already logged"); break; }
                                 if(args.isBlank()){ out.println("ERR username required"); break; }
                                 String u = args.trim();
-                                if(users.containsKey(u)){ out.println("ERR in use"); break; }
+                                ClientSession existing = chatServices.getSession(u);
+                                if(existing!=null && existing.isSocketConnected()){ out.println("ERR in use"); break; }
+                                if(!chatServices.login(u, 0, socket)){ out.println("ERR invalid username"); break; }
                                 user = u;
-                                users.put(u, new ClientSession(u, socket));
-                                broadcast("SYS "+u+" joined");
+                                ClientSession session = chatServices.getSession(u);
+                                if(session!=null && session.out!=null) out = session.out;
                                 out.println("OK LOGIN");
                             }
                             case "CREATE_GROUP" -> {
                                 if(!ensureLogged(user, out)) break;
                                 String g = args.trim();
                                 if(g.isEmpty()){ out.println("ERR group required"); break; }
-                                groups.putIfAbsent(g, ConcurrentHashMap.newKeySet());
+                                chatServices.createGroup(g, user);
                                 out.println("OK GROUP "+g);
                             }
                             case "ADD_TO_GROUP" -> {
                                 if(!ensureLogged(user, out)) break;
                                 String[] a = args.split(" ");
                                 if(a.length<2){ out.println("ERR usage: ADD_TO_GROUP <group> <user>"); break; }
-                                groups.putIfAbsent(a[0], ConcurrentHashMap.newKeySet());
-                                groups.get(a[0]).add(a[1]);
+                                chatServices.addToGroup(a[0], a[1]);
                                 out.println("OK ADDED "+a[1]+" TO #"+a[0]);
                             }
                             case "MSG_USER" -> {
@@ -124,8 +114,7 @@ public class TCPConnection extends Thread {
                                 if(sp<=0){ out.println("ERR usage: MSG_USER <user> <text>"); break; }
                                 String to = args.substring(0,sp);
                                 String msg = args.substring(sp+1);
-                                sendText(user,to,false,msg);
-                                out.println("OK");
+                                out.println("OK "+chatServices.sendToUser(user, to, msg).id);
                             }
                             case "MSG_GROUP" -> {
                                 if(!ensureLogged(user, out)) break;
@@ -133,8 +122,7 @@ public class TCPConnection extends Thread {
                                 if(sp<=0){ out.println("ERR usage: MSG_GROUP <group> <text>"); break; }
                                 String g = args.substring(0,sp);
                                 String msg = args.substring(sp+1);
-                                sendText(user,g,true,msg);
-                                out.println("OK");
+                                out.println("OK "+chatServices.sendToGroup(user, g, msg).id);
                             }
 
               
@@ -146,15 +134,7 @@ public class TCPConnection extends Thread {
                                 int size = Integer.parseInt(args.substring(sp+1).trim());
 
                                 byte[] data = readNBytes(in, size);
-                                persistVoice(user,to,false, data);
-
-                                ClientSession s = users.get(to);
-                                if (s != null) {
-                                    s.out.println("VOICE_NOTE_FROM " + user + " " + data.length);
-                                    s.out.flush();
-                                    s.socket.getOutputStream().write(data);
-                                    s.socket.getOutputStream().flush();
-                                }
+                                chatServices.sendVoiceNoteToUser(user, to, data);
                                 out.println("OK VOICE_NOTE");
                             }
                             case "VOICE_NOTE_GROUP" -> {
@@ -165,29 +145,33 @@ public class TCPConnection extends Thread {
                                 int size = Integer.parseInt(args.substring(sp+1).trim());
 
                                 byte[] data = readNBytes(in, size);
-                                persistVoice(user,g,true, data);
-
-                                for (String u : groups.getOrDefault(g, Set.of())) {
-                                    if (u.equals(user)) continue;
-                                    ClientSession s = users.get(u);
-                                    if (s != null) {
-                                        s.out.println("VOICE_NOTE_FROM " + user + " " + data.length);
-                                        s.out.flush();
-                                        s.socket.getOutputStream().write(data);
-                                        s.socket.getOutputStream().flush();
-                                    }
-                                }
+                                chatServices.sendVoiceNoteToGroup(user, g, data);
                                 out.println("OK VOICE_NOTE");
                             }
 
                             case "SET_UDP" -> {
                                 if(!ensureLogged(user, out)) break;
-                                users.get(user).udpPort = Integer.parseInt(args.trim());
-                                out.println("OK UDP "+users.get(user).udpPort);
+                                int port = Integer.parseInt(args.trim());
+                                chatServices.setUserUdpPort(user, port);
+                                out.println("OK UDP "+port);
                             }
                             case "CALL_USER" -> {
                                 if(!ensureLogged(user, out)) break;
-                                callUser(user, args.trim(), out);
+                                // CALL_USER <user> [relay]
+                                String[] a = args.trim().split(" ");
+                                boolean forceRelay = a.length>1 && a[1].equalsIgnoreCase("relay");
+                                callUser(user, a[0], forceRelay, out);
+                            }
+                            case "END_CALL" -> {
+                                if(!ensureLogged(user, out)) break;
+                                // END_CALL <user>: cuelga y libera el relay de esa llamada
+                                String peer = args.trim();
+                                if(peer.isEmpty()){ out.println("ERR usage: END_CALL <user>"); break; }
+                                UdpRelay relay = udpRelay;
+                                if(relay != null) relay.releaseUser(user, peer);
+                                var t = chatServices.getSession(peer);
+                                if(t!=null && t.out!=null) t.out.println("CALL_ENDED "+user);
+                                out.println("OK CALL_ENDED "+peer);
                             }
                             case "CALL_GROUP" -> {
                                 if(!ensureLogged(user, out)) break;
@@ -206,15 +190,11 @@ public class TCPConnection extends Thread {
                 }
             }catch(IOException e){ e.printStackTrace(); }
             finally{
-                String leftUser = null;
-                for (Map.Entry<String, ClientSession> e : users.entrySet()) {
-                    if(e.getValue().socket == socket){
-                        leftUser = e.getKey();
-                        users.remove(e.getKey());
-                        break;
-                    }
+                // logout avisa la desconexión a sus contactos (PresenceService)
+                UdpRelay relay = udpRelay;
+                if(user != null && chatServices.logout(user, socket) && relay != null){
+                    relay.releaseUser(user, null); // Sus llamadas terminan con la sesión (no si volvió a entrar por otro socket)
                 }
-                if(leftUser != null) broadcast("SYS "+leftUser+" left");
                 try { socket.close(); } catch (IOException ignored) {}
             }
         }
@@ -223,21 +203,6 @@ public class TCPConnection extends Thread {
             if(u==null){ out.println("ERR login required"); return false; }
             return true;
         }
-        private void broadcast(String l){ users.values().forEach(s-> s.out.println(l)); }
-
-        private void sendText(String from, String target, boolean isGroup, String msg) throws IOException{
-            String rec = "{type:text,from:"+from+",target:"+target+",isGroup:"+isGroup+",msg:"+msg+",ts:"+Instant.now()+"}";
-            persist(from,target,isGroup,rec);
-            if(isGroup){
-                for(String u: groups.getOrDefault(target, Set.of())){
-                    var s = users.get(u);
-                    if(s!=null) s.out.println("MSG "+from+" -> #"+target+": "+msg);
-                }
-            }else{
-                var s = users.get(target);
-                if(s!=null) s.out.println("MSG "+from+": "+msg);
-            }
-        }
 
         private String readAsciiLine(InputStream is) throws IOException {
             ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
@@ -260,38 +225,26 @@ public class TCPConnection extends Thread {
             return buf;
         }
 
-        private void persistVoice(String from, String target, boolean isGroup, byte[] data) throws IOException{
-            File f = new File(mediaDir, "vn_"+System.currentTimeMillis()+".raw");
-            try(FileOutputStream fos = new FileOutputStream(f)){ fos.write(data); }
-            String rec = "{type:voice_note,from:"+from+",target:"+target+",isGroup:"+isGroup+",file:"+f.getPath()+",ts:"+Instant.now()+"}";
-            persist(from,target,isGroup,rec);
-        }
         private void sendHistory(String user, PrintWriter out) throws IOException{
-            File f = new File(historyDir, user+".jsonl");
             out.println("HISTORY_BEGIN");
-            if(f.exists()){
-                try(BufferedReader r = new BufferedReader(new FileReader(f))){
-                    String l; while((l=r.readLine())!=null) out.println(l);
-                }
-            }
+            for(String l : chatServices.getHistory(user)) out.println(l);
             out.println("HISTORY_END");
         }
-        private void persist(String from, String target, boolean isGroup, String line) throws IOException{
-            File fs = new File(historyDir, from+".jsonl");
-            try(FileWriter fw = new FileWriter(fs,true)){ fw.write(line+"\n"); }
-            if(isGroup){
-                File fg = new File(historyDir, "#"+target+".jsonl");
-                try(FileWriter fw = new FileWriter(fg,true)){ fw.write(line+"\n"); }
-            }else{
-                File ft = new File(historyDir, target+".jsonl");
-                try(FileWriter fw = new FileWriter(ft,true)){ fw.write(line+"\n"); }
-            }
-        }
 
-        private void callUser(String caller, String target, PrintWriter out){
-            var t = users.get(target);
-            var c = users.get(caller);
-            if(t==null || t.udpPort==0 || c==null || c.udpPort==0){
+        private void callUser(String caller, String target, boolean forceRelay, PrintWriter out){
+            var t = chatServices.getSession(target);
+            var c = chatServices.getSession(caller);
+            UdpRelay relay = udpRelay;
+            boolean p2pReady = t!=null && t.isSocketConnected() && t.udpPort!=0 && c!=null && c.udpPort!=0;
+            if(relay != null && t!=null && t.out!=null && c!=null && (forceRelay || !p2pReady)){
+                // Ambos hablan con el relay; cada uno antepone su token a cada datagrama
+                UdpRelay.RelaySession rs = relay.allocate(caller, target);
+                String host = socket.getLocalAddress().getHostAddress();
+                out.println("CALL_RELAY "+host+" "+relay.getPort()+" "+String.format("%016x", rs.callerToken));
+                t.out.println("INCOMING_CALL_RELAY "+caller+" "+host+" "+relay.getPort()+" "+String.format("%016x", rs.calleeToken));
+                return;
+            }
+            if(!p2pReady){
                 out.println("ERR target not ready for UDP"); return;
             }
             out.println("CALL_PEER "+t.socket.getInetAddress().getHostAddress()+" "+t.udpPort);
@@ -299,8 +252,8 @@ public class TCPConnection extends Thread {
                     c.socket.getInetAddress().getHostAddress()+" "+c.udpPort);
         }
         private void callGroup(String caller, String group, PrintWriter out){
-            for(String u: groups.getOrDefault(group, Set.of())){
-                if(!u.equals(caller)) callUser(caller, u, out);
+            for(String u: chatServices.getGroupMembers(group)){
+                if(!u.equals(caller)) callUser(caller, u, false, out);
             }
         }
     }
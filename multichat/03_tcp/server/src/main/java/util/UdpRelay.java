@@ -0,0 +1,218 @@
+package util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relay UDP para llamadas de clientes nativos cuando no pueden hablar peer-to-peer
+ * (por ejemplo detrás de NAT).
+ *
+ * Cada llamada recibe dos tokens de 8 bytes (uno por extremo) que se entregan con
+ * CALL_USER. Cada datagrama que envía un cliente empieza con su token; el primer
+ * datagrama registra la dirección de ese extremo y los siguientes se reenvían al
+ * otro extremo sin el token. Un único hilo con un Selector atiende todo el tráfico
+ * y reutiliza el mismo buffer directo, sin copiar el payload.
+ */
+public class UdpRelay extends Thread {
+
+    public static final int TOKEN_BYTES = 8;
+    private static final int MAX_DATAGRAM = 65507;
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+    private static final long SWEEP_INTERVAL_MS = 5_000;
+
+    /** Un extremo de la llamada */
+    static class Leg {
+        final long token;
+        final String user;
+        volatile SocketAddress endpoint;
+        volatile long lastSeen = System.currentTimeMillis();
+        Leg peer;
+        Leg(long token, String user) { this.token = token; this.user = user; }
+    }
+
+    /** Tokens asignados a una llamada */
+    public static class RelaySession {
+        public final long callerToken;
+        public final long calleeToken;
+        RelaySession(long callerToken, long calleeToken) {
+            this.callerToken = callerToken;
+            this.calleeToken = calleeToken;
+        }
+    }
+
+    private final Map<Long, Leg> legs = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private volatile boolean running;
+
+    // Instrumentación
+    private final AtomicLong forwardedPackets = new AtomicLong();
+    private final AtomicLong forwardedBytes = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+
+    public UdpRelay(int port) throws IOException {
+        super("udp-relay");
+        setDaemon(true);
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(port));
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Crea una sesión de relay entre dos usuarios
+     */
+    public RelaySession allocate(String caller, String callee) {
+        Leg a = new Leg(newToken(), caller);
+        Leg b = new Leg(newToken(), callee);
+        a.peer = b;
+        b.peer = a;
+        legs.put(a.token, a);
+        legs.put(b.token, b);
+        return new RelaySession(a.token, b.token);
+    }
+
+    /**
+     * Libera los dos extremos de una sesión a partir de cualquiera de sus tokens
+     */
+    public boolean release(long token) {
+        Leg leg = legs.remove(token);
+        if (leg != null && leg.peer != null) {
+            legs.remove(leg.peer.token);
+        }
+        return leg != null;
+    }
+
+    /**
+     * Libera las sesiones de un usuario al colgar (sólo la llamada con peer) o al cerrar
+     * sesión (peer null, todas), sin esperar al barrido por inactividad. Devuelve cuántas
+     */
+    public int releaseUser(String user, String peer) {
+        int released = 0;
+        for (Leg leg : legs.values()) {
+            Leg other = leg.peer;
+            if (leg.user.equals(user) && (peer == null || (other != null && other.user.equals(peer)))) {
+                if (release(leg.token)) {
+                    released++;
+                }
+            }
+        }
+        return released;
+    }
+
+    private long newToken() {
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0 || legs.containsKey(token));
+        return token;
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        ByteBuffer buf = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        long lastSweep = System.currentTimeMillis();
+        System.out.println("[RELAY] UDP relay escuchando en " + getPort());
+        while (running) {
+            try {
+                selector.select(SWEEP_INTERVAL_MS);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    drain(buf);
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SWEEP_INTERVAL_MS) {
+                    expireIdle(now);
+                    lastSweep = now;
+                }
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Lee todos los datagramas disponibles y los reenvía
+     */
+    private void drain(ByteBuffer buf) throws IOException {
+        while (true) {
+            buf.clear();
+            SocketAddress from = channel.receive(buf);
+            if (from == null) {
+                return;
+            }
+            buf.flip();
+            if (buf.remaining() < TOKEN_BYTES) {
+                droppedPackets.incrementAndGet();
+                continue;
+            }
+            Leg leg = legs.get(buf.getLong());
+            if (leg == null) {
+                droppedPackets.incrementAndGet();
+                continue;
+            }
+            // El primer paquete registra el extremo; si la dirección cambia (rebinding de NAT) se actualiza
+            if (!from.equals(leg.endpoint)) {
+                leg.endpoint = from;
+            }
+            leg.lastSeen = System.currentTimeMillis();
+
+            Leg peer = leg.peer;
+            SocketAddress target = peer != null ? peer.endpoint : null;
+            if (target == null || !buf.hasRemaining()) {
+                // Paquete de registro o el otro extremo todavía no se registró
+                continue;
+            }
+            int size = buf.remaining();
+            if (channel.send(buf, target) == 0) {
+                droppedPackets.incrementAndGet();
+            } else {
+                forwardedPackets.incrementAndGet();
+                forwardedBytes.addAndGet(size);
+            }
+        }
+    }
+
+    private void expireIdle(long now) {
+        for (Leg leg : legs.values()) {
+            Leg peer = leg.peer;
+            long lastActivity = Math.max(leg.lastSeen, peer != null ? peer.lastSeen : 0);
+            if (now - lastActivity > IDLE_TIMEOUT_MS) {
+                release(leg.token);
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public int getActiveLegs() { return legs.size(); }
+    public long getForwardedPackets() { return forwardedPackets.get(); }
+    public long getForwardedBytes() { return forwardedBytes.get(); }
+    public long getDroppedPackets() { return droppedPackets.get(); }
+}
@@ -0,0 +1,105 @@
+package chat;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para JitterBuffer
+ */
+class JitterBufferTest {
+
+    private static ByteBuffer frame(int value) {
+        return ByteBuffer.wrap(new byte[] { (byte) value });
+    }
+
+    @Test
+    @DisplayName("Reordena frames que llegan desordenados")
+    void testReordersFrames() {
+        JitterBuffer jb = new JitterBuffer();
+        jb.offer(1, frame(1), 0);
+        jb.offer(0, frame(0), 20);
+        jb.offer(2, frame(2), 40);
+
+        assertEquals(0, jb.poll(40).get(0));
+        assertEquals(1, jb.poll(60).get(0));
+        assertEquals(2, jb.poll(80).get(0));
+    }
+
+    @Test
+    @DisplayName("Descarta frames que llegan después de su turno")
+    void testLateFramesAreDropped() {
+        JitterBuffer jb = new JitterBuffer();
+        for (int i = 0; i < 3; i++) {
+            jb.offer(i, frame(i), i * 20L);
+        }
+        assertNotNull(jb.poll(60));
+        assertNotNull(jb.poll(80));
+
+        jb.offer(0, frame(0), 90);
+
+        assertEquals(1, jb.getLateFrames(), "El frame 0 ya había salido");
+    }
+
+    @Test
+    @DisplayName("Emite a ritmo constante según el intervalo medido")
+    void testPacedEmission() {
+        JitterBuffer jb = new JitterBuffer();
+        // Ráfaga: 5 frames llegan juntos después de un periodo regular de 20ms
+        for (int i = 0; i < 5; i++) {
+            jb.offer(i, frame(i), i * 20L);
+        }
+        assertNotNull(jb.poll(100));
+        assertNull(jb.poll(101), "No debería emitir dos frames en el mismo instante");
+        assertTrue(jb.millisUntilNext(101) > 0);
+    }
+
+    @Test
+    @DisplayName("La profundidad objetivo crece con el jitter")
+    void testAdaptiveDepth() {
+        JitterBuffer steady = new JitterBuffer();
+        JitterBuffer bursty = new JitterBuffer();
+        long t = 0;
+        for (int i = 0; i < 200; i++) {
+            steady.offer(i, frame(i), i * 20L);
+            // Llegadas en ráfagas de 4 frames cada 80ms
+            t = (i / 4) * 80L;
+            bursty.offer(i, frame(i), t);
+        }
+
+        assertTrue(bursty.getJitterMs() > steady.getJitterMs());
+        assertTrue(bursty.getTargetDepth() > steady.getTargetDepth(),
+                "Un stream con ráfagas necesita un buffer más profundo");
+    }
+
+    @Test
+    @DisplayName("Salta huecos de secuencia cuando el buffer está lleno")
+    void testSkipsLostFrames() {
+        JitterBuffer jb = new JitterBuffer();
+        jb.offer(0, frame(0), 0);
+        jb.offer(2, frame(2), 20);
+        jb.offer(3, frame(3), 40);
+
+        assertEquals(0, jb.poll(40).get(0));
+        assertEquals(2, jb.poll(100).get(0));
+        assertEquals(1, jb.getLostFrames());
+    }
+
+    @Test
+    @DisplayName("Recorta los frames más viejos cuando el receptor está congestionado")
+    void testTrimDropsOldestFrames() {
+        JitterBuffer jb = new JitterBuffer();
+        for (int i = 0; i < 6; i++) {
+            jb.offer(i, frame(i), i * 20L);
+        }
+
+        assertEquals(4, jb.trimTo(2));
+        assertEquals(2, jb.size());
+        assertEquals(4, jb.poll(200).get(0), "Sólo deberían quedar los frames más recientes");
+    }
+}
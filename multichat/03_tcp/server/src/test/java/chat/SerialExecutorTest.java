@@ -0,0 +1,85 @@
+package chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para SerialExecutor
+ */
+class SerialExecutorTest {
+
+    @Test
+    @DisplayName("Las tareas de un carril corren de a una y en orden aunque el pool tenga varios hilos")
+    void testRunsInOrderOneAtATime() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SerialExecutor lane = new SerialExecutor(pool);
+            List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            CountDownLatch finished = new CountDownLatch(50);
+            for (int i = 0; i < 50; i++) {
+                final int n = i;
+                lane.execute(() -> {
+                    if (running.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    Thread.yield();
+                    done.add(n);
+                    running.decrementAndGet();
+                    finished.countDown();
+                });
+            }
+
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                expected.add(i);
+            }
+            assertEquals(expected, done);
+            assertEquals(0, overlaps.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Carriles distintos no se esperan entre sí y una tarea que falla no traba el carril")
+    void testLanesAreIndependent() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            SerialExecutor slow = new SerialExecutor(pool);
+            SerialExecutor fast = new SerialExecutor(pool);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch fastDone = new CountDownLatch(2);
+            slow.execute(() -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            fast.execute(() -> {
+                throw new IllegalStateException("falla");
+            });
+            fast.execute(fastDone::countDown);
+            fast.execute(fastDone::countDown);
+
+            assertTrue(fastDone.await(5, TimeUnit.SECONDS), "El otro carril avanza mientras uno está ocupado");
+            release.countDown();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
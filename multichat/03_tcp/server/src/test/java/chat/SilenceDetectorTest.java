@@ -0,0 +1,46 @@
+package chat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para SilenceDetector
+ */
+class SilenceDetectorTest {
+
+    private static ByteBuffer pcm(short amplitude, int samples) {
+        ByteBuffer buf = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            buf.putShort((short) (i % 2 == 0 ? amplitude : -amplitude));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    @DisplayName("Calcula la energía RMS sin mover el buffer")
+    void testRms() {
+        ByteBuffer frame = pcm((short) 1000, 160);
+
+        assertEquals(1000.0, SilenceDetector.rms(frame), 0.001);
+        assertEquals(0, frame.position(), "La posición del buffer no debería cambiar");
+    }
+
+    @Test
+    @DisplayName("Deja pasar la voz y omite el silencio después del hangover")
+    void testSkipsSilenceAfterHangover() {
+        SilenceDetector detector = new SilenceDetector(300.0, 2);
+
+        assertFalse(detector.shouldSkip(pcm((short) 5000, 160)), "La voz nunca se omite");
+        assertFalse(detector.shouldSkip(pcm((short) 10, 160)), "Primer frame de hangover");
+        assertFalse(detector.shouldSkip(pcm((short) 10, 160)), "Segundo frame de hangover");
+        assertTrue(detector.shouldSkip(pcm((short) 10, 160)), "Silencio después del hangover");
+        assertFalse(detector.shouldSkip(pcm((short) 5000, 160)), "La voz reinicia el detector");
+    }
+}
@@ -0,0 +1,67 @@
+package chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para TimerWheel, avanzando la rueda a mano
+ */
+class TimerWheelTest {
+
+    /** Avanza hasta que corre la tarea y devuelve en qué tick lo hizo */
+    private static int ticksUntilRun(TimerWheel wheel, List<String> log, String name, int max) {
+        for (int i = 1; i <= max; i++) {
+            wheel.tick();
+            if (log.contains(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    @DisplayName("Una tarea vence en su tick, también más allá de una vuelta de la rueda")
+    void testRunsAtDeadline() {
+        TimerWheel wheel = new TimerWheel(10, 4, false);
+        List<String> log = new ArrayList<>();
+        wheel.schedule(30, () -> log.add("corta"));
+        wheel.schedule(100, () -> log.add("larga")); // 10 ticks con 4 ranuras
+
+        assertEquals(3, ticksUntilRun(wheel, log, "corta", 20));
+        assertEquals(7, ticksUntilRun(wheel, log, "larga", 20));
+    }
+
+    @Test
+    @DisplayName("Reprogramar desde una tarea en curso no espera una vuelta entera")
+    void testRescheduleFromRunningTask() {
+        TimerWheel wheel = new TimerWheel(10, 4, false);
+        List<String> log = new ArrayList<>();
+        wheel.schedule(10, () -> {
+            log.add("primera");
+            wheel.schedule(10, () -> log.add("segunda"));
+        });
+
+        assertEquals(1, ticksUntilRun(wheel, log, "primera", 10));
+        assertEquals(1, ticksUntilRun(wheel, log, "segunda", 10));
+    }
+
+    @Test
+    @DisplayName("Las tareas del mismo tick corren en el orden en que se programaron")
+    void testSameTickKeepsOrder() {
+        TimerWheel wheel = new TimerWheel(10, 4, false);
+        List<String> log = new ArrayList<>();
+        wheel.tick();
+        wheel.schedule(20, () -> log.add("a"));
+        wheel.schedule(15, () -> log.add("b")); // Redondea al mismo tick
+        wheel.schedule(60, () -> log.add("c")); // Misma ranura, una vuelta después
+
+        wheel.tick();
+        wheel.tick();
+        assertEquals(List.of("a", "b"), log);
+        assertEquals(4, ticksUntilRun(wheel, log, "c", 10));
+    }
+}
@@ -5,15 +5,20 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 
 /**
  * Tests para ChatServicesImpl
@@ -32,7 +37,7 @@ class ChatServicesImplTest {
         cleanTestData();
         TEST_DATA_DIR.mkdirs();
         
-        chatServices = new ChatServicesImpl();
+        chatServices = new ChatServicesImpl(TEST_DATA_DIR);
     }
 
     @AfterEach
@@ -266,6 +271,159 @@ class ChatServicesImplTest {
         assertTrue(secondCall.isEmpty(), "Los mensajes deberían limpiarse después de obtenerlos");
     }
 
+    @Test
+    @DisplayName("Los pendientes mezclan buzón privado y grupos en orden de envío")
+    void testPendingMessagesMergeGroupsInOrder() throws Exception {
+        chatServices.login(TEST_USER1, 0, null);
+        chatServices.login(TEST_USER2, 0, null);
+        chatServices.createGroup(TEST_GROUP, TEST_USER1);
+        chatServices.addToGroup(TEST_GROUP, TEST_USER2);
+
+        chatServices.sendMessageToGroup(TEST_USER1, TEST_GROUP, "uno");
+        chatServices.sendMessageToUser(TEST_USER1, TEST_USER2, "dos");
+        chatServices.sendMessageToGroup(TEST_USER1, TEST_GROUP, "tres");
+
+        assertEquals(List.of(
+                "GROUP|" + TEST_GROUP + "|" + TEST_USER1 + "|uno",
+                "MSG|" + TEST_USER1 + "|dos",
+                "GROUP|" + TEST_GROUP + "|" + TEST_USER1 + "|tres"),
+                chatServices.getPendingMessages(TEST_USER2));
+        assertTrue(chatServices.getPendingMessages(TEST_USER1).isEmpty(), "El remitente no recibe sus propios mensajes");
+        assertTrue(chatServices.getPendingMessages(TEST_USER2).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Los pendientes privados sobreviven a un reinicio del servidor")
+    void testPendingMessagesSurviveRestart() throws Exception {
+        File dir = new File(TEST_DATA_DIR, "restart");
+        ChatServicesImpl first = new ChatServicesImpl(dir);
+        first.login(TEST_USER1, 0, null);
+        first.login(TEST_USER2, 0, null);
+        first.logout(TEST_USER2); // Registrado pero desconectado
+        first.sendMessageToUser(TEST_USER1, TEST_USER2, "antes");
+        first.sendMessageToUser(TEST_USER1, TEST_USER2, "durante");
+
+        ChatServicesImpl second = new ChatServicesImpl(dir);
+        second.sendMessageToUser(TEST_USER1, TEST_USER2, "después");
+
+        assertEquals(List.of("MSG|" + TEST_USER1 + "|antes", "MSG|" + TEST_USER1 + "|durante",
+                "MSG|" + TEST_USER1 + "|después"), second.getPendingMessages(TEST_USER2));
+        assertTrue(new ChatServicesImpl(dir).getPendingMessages(TEST_USER2).isEmpty(),
+                "Lo entregado no se repite");
+    }
+
+    @Test
+    @DisplayName("Los pendientes de grupo sobreviven a un reinicio del servidor")
+    void testGroupPendingSurviveRestart() throws Exception {
+        File dir = new File(TEST_DATA_DIR, "group-restart");
+        ChatServicesImpl first = new ChatServicesImpl(dir);
+        first.login(TEST_USER1, 0, null);
+        first.createGroup(TEST_GROUP, TEST_USER1);
+        first.addToGroup(TEST_GROUP, TEST_USER2);
+        first.sendMessageToGroup(TEST_USER1, TEST_GROUP, "antes");
+
+        ChatServicesImpl second = new ChatServicesImpl(dir);
+        second.sendMessageToGroup(TEST_USER1, TEST_GROUP, "después");
+
+        assertEquals(List.of("GROUP|" + TEST_GROUP + "|" + TEST_USER1 + "|antes",
+                "GROUP|" + TEST_GROUP + "|" + TEST_USER1 + "|después"), second.getPendingMessages(TEST_USER2));
+        assertTrue(new ChatServicesImpl(dir).getPendingMessages(TEST_USER2).isEmpty(),
+                "Lo entregado no se repite");
+    }
+
+    @Test
+    @DisplayName("Un destinatario desconocido se rechaza sin dejar archivos")
+    void testUnknownRecipientRejected() throws Exception {
+        File dir = new File(TEST_DATA_DIR, "unknown");
+        ChatServicesImpl services = new ChatServicesImpl(dir);
+        services.login(TEST_USER1, 0, null);
+
+        assertThrows(IllegalArgumentException.class, () -> services.sendToUser(TEST_USER1, "../registry", "hola"));
+        assertThrows(IllegalArgumentException.class, () -> services.sendToUser(TEST_USER1, "nadie", "hola"));
+        List<String> boxUsers = Mailbox.listUsers(new File(dir, "mailbox"));
+        assertFalse(boxUsers.contains("../registry"), "Sin buzón para el nombre con ..");
+        assertFalse(boxUsers.contains("nadie"), "Sin buzón para el desconocido");
+        String[] boxes = new File(dir, "mailbox").list();
+        assertTrue(boxes == null || boxes.length == 0, "Ningún buzón para desconocidos");
+    }
+
+    @Test
+    @DisplayName("Entrega confirmada: los pendientes quedan hasta el ack y se reenvían")
+    void testAckedPendingDelivery() throws Exception {
+        chatServices.login(TEST_USER1, 0, null);
+        chatServices.login(TEST_USER2, 0, null);
+        chatServices.createGroup(TEST_GROUP, TEST_USER1);
+        chatServices.addToGroup(TEST_GROUP, TEST_USER2);
+        chatServices.sendMessageToUser(TEST_USER1, TEST_USER2, "privado");
+        chatServices.sendMessageToGroup(TEST_USER1, TEST_GROUP, "grupal");
+
+        ChatServicesImpl.PendingBatch first = chatServices.fetchPending(TEST_USER2, 0);
+        assertEquals(2, first.messages.size());
+        assertTrue(first.seqs.get(0) < first.seqs.get(1));
+        assertEquals((long) first.seqs.get(1), first.lastSeq);
+
+        // Respuesta perdida: sin ack, se reenvía pasado el timeout
+        assertTrue(chatServices.fetchPending(TEST_USER2, 1).messages.isEmpty());
+        ChatServicesImpl.PendingBatch resent = chatServices.fetchPending(TEST_USER2, ChatServicesImpl.PENDING_RESEND_MS);
+        assertEquals(first.messages, resent.messages);
+
+        chatServices.ackPending(TEST_USER2, resent.lastSeq);
+        assertTrue(chatServices.fetchPending(TEST_USER2, 10 * ChatServicesImpl.PENDING_RESEND_MS).messages.isEmpty());
+        assertTrue(chatServices.getPendingMessages(TEST_USER2).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Cada conversación numera sus mensajes y se resincroniza desde una secuencia")
+    void testMessagesSinceSequence() throws Exception {
+        File dir = new File(TEST_DATA_DIR, "seq");
+        ChatServicesImpl first = new ChatServicesImpl(dir);
+        first.login(TEST_USER1, 0, null);
+        first.login(TEST_USER2, 0, null);
+        first.createGroup(TEST_GROUP, TEST_USER1);
+        assertEquals(1, first.sendToUser(TEST_USER1, TEST_USER2, "uno").seq);
+        assertEquals(2, first.sendToUser(TEST_USER2, TEST_USER1, "dos").seq);
+        assertEquals(1, first.sendToGroup(TEST_USER1, TEST_GROUP, "al grupo").seq, "El grupo tiene su propia secuencia");
+
+        ChatServicesImpl second = new ChatServicesImpl(dir); // La secuencia se recupera del historial
+        assertEquals(3, second.sendToUser(TEST_USER1, TEST_USER2, "tres").seq);
+
+        List<String> gap = second.getMessagesSince(TEST_USER2, TEST_USER1, 1);
+        assertEquals(2, gap.size());
+        assertTrue(gap.get(0).contains(",seq:2,") && gap.get(0).contains("msg:dos"));
+        assertTrue(gap.get(1).contains(",seq:3,") && gap.get(1).contains("msg:tres"));
+        assertEquals(1, second.getMessagesSince(TEST_USER1, "#" + TEST_GROUP, 0).size());
+        assertTrue(second.getMessagesSince(TEST_USER2, "#" + TEST_GROUP, 0).isEmpty(), "Sólo los miembros leen el grupo");
+    }
+
+    @Test
+    @DisplayName("La lista de conversaciones lleva último mensaje y no leídos")
+    void testConversationIndex() throws Exception {
+        File dir = new File(TEST_DATA_DIR, "conversations");
+        ChatServicesImpl first = new ChatServicesImpl(dir);
+        first.login(TEST_USER1, 0, null);
+        first.login(TEST_USER2, 0, null);
+        first.createGroup(TEST_GROUP, TEST_USER1);
+        first.addToGroup(TEST_GROUP, TEST_USER2);
+        first.sendToUser(TEST_USER1, TEST_USER2, "uno");
+        first.sendToGroup(TEST_USER1, TEST_GROUP, "al grupo");
+
+        List<ConversationIndex.Summary> list = first.getConversations(TEST_USER2); // Se arma del historial
+        assertEquals(2, list.size());
+        assertEquals("#" + TEST_GROUP, list.get(0).conversation);
+        assertEquals(1, list.get(0).unread);
+
+        long seq = first.sendToUser(TEST_USER1, TEST_USER2, "dos").seq; // Incremental
+        ConversationIndex.Summary chat = first.getConversations(TEST_USER2).get(0);
+        assertEquals(TEST_USER1, chat.conversation);
+        assertEquals("dos", chat.preview);
+        assertEquals(2, chat.unread);
+        assertEquals(0, first.getConversations(TEST_USER1).get(0).unread, "Lo propio no cuenta como no leído");
+
+        assertEquals(0, first.markRead(TEST_USER2, TEST_USER1, seq));
+        ChatServicesImpl second = new ChatServicesImpl(dir); // La marca de lectura sobrevive al reinicio
+        assertEquals(List.of(0, 1), second.getConversations(TEST_USER2).stream().map(s -> s.unread).toList());
+    }
+
     @Test
     @DisplayName("Obtener historial de usuario")
     void testGetHistory() throws Exception {
@@ -396,4 +554,115 @@ class ChatServicesImplTest {
         user2Groups = chatServices.getUserGroups(TEST_USER2);
         assertFalse(user2Groups.contains(TEST_GROUP), "Usuario eliminado no debería estar en ningún grupo");
     }
+
+    // ==================== Tests de Índice de Grupos ====================
+
+    @Test
+    @DisplayName("El índice de grupos se reconstruye al reiniciar")
+    void testUserGroupsIndexSurvivesRestart() throws Exception {
+        File dir = new File(TEST_DATA_DIR, "index");
+        ChatServicesImpl first = new ChatServicesImpl(dir);
+        first.createGroup("amigos", TEST_USER1);
+        first.createGroup("trabajo", TEST_USER2);
+        first.addToGroup("trabajo", TEST_USER1);
+
+        ChatServicesImpl second = new ChatServicesImpl(dir);
+
+        assertEquals(Set.of("amigos", "trabajo"), new HashSet<>(second.getUserGroups(TEST_USER1)));
+        assertEquals(List.of("trabajo"), second.getUserGroups(TEST_USER2));
+    }
+
+    @Test
+    @DisplayName("El índice de grupos por usuario sigue a altas, repetidos, bajas y reinicios")
+    void testUserGroupsIndex() throws Exception {
+        File dir = new File(TEST_DATA_DIR, "index");
+        ChatServicesImpl service = new ChatServicesImpl(dir);
+        service.login(TEST_USER1, 0, null);
+        service.createGroup("g1", TEST_USER1);
+        service.createGroup("g2");
+        service.createGroup("g3", TEST_USER2);
+        service.addToGroup("g2", TEST_USER1);
+        service.addToGroup("g2", TEST_USER1); // Repetido: no duplica
+        service.addToGroup("g3", TEST_USER1);
+        service.addToGroup("g4", TEST_USER2); // Grupo que no existía
+
+        assertEquals(Set.of("g1", "g2", "g3"), new HashSet<>(service.getUserGroups(TEST_USER1)));
+        assertEquals(3, service.getUserGroups(TEST_USER1).size());
+        assertEquals(Set.of("g3", "g4"), new HashSet<>(service.getUserGroups(TEST_USER2)));
+        assertTrue(service.getUserGroups("nadie").isEmpty());
+        assertEquals(scan(service, TEST_USER1), new HashSet<>(service.getUserGroups(TEST_USER1)));
+
+        service.deleteUser(TEST_USER1);
+        assertTrue(service.getUserGroups(TEST_USER1).isEmpty());
+        assertFalse(service.getGroupsMap().get("g2").contains(TEST_USER1));
+        assertTrue(service.getGroupsMap().get("g3").contains(TEST_USER2), "Los demás miembros siguen");
+
+        // Al reiniciar el índice se reconstruye desde el registro
+        ChatServicesImpl restarted = new ChatServicesImpl(dir);
+        assertTrue(restarted.getUserGroups(TEST_USER1).isEmpty());
+        assertEquals(Set.of("g3", "g4"), new HashSet<>(restarted.getUserGroups(TEST_USER2)));
+        assertEquals(scan(restarted, TEST_USER2), new HashSet<>(restarted.getUserGroups(TEST_USER2)));
+    }
+
+    /** Referencia: el recorrido lineal que hacía getUserGroups antes del índice */
+    private static Set<String> scan(ChatServicesImpl service, String username) {
+        Set<String> found = new HashSet<>();
+        for (Map.Entry<String, Set<String>> group : service.getGroupsMap().entrySet()) {
+            if (group.getValue().contains(username)) found.add(group.getKey());
+        }
+        return found;
+    }
+
+    /**
+     * Medición opcional (-Dbench=true): sólo imprime los tiempos, no los compara, para no
+     * depender de la carga de la máquina
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "bench", matches = "true")
+    @DisplayName("Benchmark: consultar membresías con 100k grupos")
+    void benchUserGroups() throws Exception {
+        ChatServicesImpl service = new ChatServicesImpl(new File(TEST_DATA_DIR, "bench"));
+        final int groupCount = 100_000;
+        for (int i = 0; i < groupCount; i++) {
+            service.createGroup("g" + i, "owner" + (i % 1000));
+        }
+        for (int i = 0; i < 10; i++) {
+            service.addToGroup("g" + (i * 10_000), TEST_USER1);
+        }
+
+        final int queries = 10_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            service.getUserGroups(TEST_USER1);
+        }
+        long indexed = System.nanoTime() - start;
+
+        final int scans = 100;
+        start = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            scan(service, TEST_USER1);
+        }
+        long scanned = System.nanoTime() - start;
+
+        System.out.printf("[BENCH] getUserGroups con %d grupos: %.2fus indexado vs %.1fus recorriendo todos los grupos%n",
+                groupCount, indexed / 1e3 / queries, scanned / 1e3 / scans);
+    }
+
+    @Test
+    @DisplayName("GET_ALL_USERS/GET_ONLINE_USERS: deltas por versión tras login y logout")
+    void testVersionedUserLists() throws Exception {
+        ChatServicesImpl service = new ChatServicesImpl(new File(TEST_DATA_DIR, "versions"));
+        service.login(TEST_USER1, 0, null);
+        long seen = service.getUsersView().snapshot().version;
+        assertTrue(service.getUsersView().since(seen).isEmpty());
+
+        service.login(TEST_USER2, 0, null);
+        service.logout(TEST_USER1);
+
+        VersionedDirectory.Delta users = service.getUsersView().since(seen);
+        assertEquals(Map.of(TEST_USER1, false, TEST_USER2, true), users.changed);
+        VersionedDirectory.Delta online = service.getOnlineView().since(seen);
+        assertEquals(List.of(TEST_USER1), online.removed);
+        assertEquals(List.of(TEST_USER2), service.getOnlineUsers());
+    }
 }
@@ -0,0 +1,109 @@
+package services;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para ConversationIndex
+ */
+class ConversationIndexTest {
+
+    private static final File TEST_DATA_DIR = new File("test-data/conversations");
+    private static final File READ_DIR = new File(TEST_DATA_DIR, "read");
+
+    @BeforeEach
+    void setUp() {
+        cleanTestData();
+        READ_DIR.mkdirs();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanTestData();
+    }
+
+    private void cleanTestData() {
+        if (TEST_DATA_DIR.exists()) {
+            try {
+                Files.walk(TEST_DATA_DIR.toPath())
+                     .sorted(Comparator.reverseOrder())
+                     .map(Path::toFile)
+                     .forEach(File::delete);
+            } catch (Exception e) {
+                // Ignorar errores al limpiar
+            }
+        }
+    }
+
+    private static ConversationIndex open(String user) {
+        String line = "{type:text,id:1,seq:1,from:bob,target:" + user + ",isGroup:false,msg:hola,ts:2024-01-01T10:00:00Z}";
+        return new ConversationIndex(READ_DIR, u -> List.of(line));
+    }
+
+    @Test
+    @DisplayName("Las marcas de lectura usan el nombre codificado y no salen del directorio")
+    void testReadMarksFileIsEncoded() throws Exception {
+        String user = "../registry";
+        ConversationIndex index = open(user);
+        assertEquals(1, index.conversations(user).get(0).unread);
+
+        assertEquals(0, index.markRead(user, "bob", 1));
+
+        assertTrue(new File(READ_DIR, HistoryStore.encode(user) + ".txt").exists());
+        assertFalse(new File(TEST_DATA_DIR, "registry.txt").exists(), "No se escribe fuera de read/");
+        assertEquals(List.of(), List.of(READ_DIR.list((d, name) -> name.endsWith(".tmp"))));
+        assertEquals(0, open(user).conversations(user).get(0).unread, "La marca sobrevive al reinicio");
+
+        index.forget(user);
+        assertFalse(new File(READ_DIR, HistoryStore.encode(user) + ".txt").exists());
+    }
+
+    @Test
+    @DisplayName("Las marcas guardadas con el nombre sin codificar se siguen leyendo y se migran")
+    void testLegacyReadMarksAreMigrated() throws Exception {
+        String user = "ana maria"; // El espacio cambia al codificar
+        File legacy = new File(READ_DIR, user + ".txt");
+        Files.writeString(legacy.toPath(), "bob 1\n");
+
+        ConversationIndex index = open(user);
+        assertEquals(0, index.conversations(user).get(0).unread);
+
+        index.markRead(user, "carol", 3);
+        assertFalse(legacy.exists());
+        assertTrue(new File(READ_DIR, HistoryStore.encode(user) + ".txt").exists());
+        assertEquals(0, open(user).conversations(user).get(0).unread);
+    }
+
+    @Test
+    @DisplayName("Los no leídos se cuentan sin los propios y bajan con cada marca de lectura")
+    void testUnreadCountedByRanges() {
+        String user = "ana";
+        List<String> lines = new ArrayList<>();
+        for (int seq = 1; seq <= 1000; seq++) {
+            String from = seq == 500 || seq == 501 ? user : "bob"; // Dos propios en el medio
+            String target = from.equals(user) ? "bob" : user;
+            lines.add("{type:text,id:" + seq + ",seq:" + seq + ",from:" + from + ",target:" + target
+                    + ",isGroup:false,msg:m" + seq + ",ts:2024-01-01T10:00:00Z}");
+        }
+        ConversationIndex index = new ConversationIndex(READ_DIR, u -> lines);
+
+        assertEquals(998, index.conversations(user).get(0).unread);
+        assertEquals(748, index.markRead(user, "bob", 250));
+        assertEquals(400, index.markRead(user, "bob", 600), "Los propios 500 y 501 no se descuentan dos veces");
+        assertEquals(400, index.markRead(user, "bob", 100), "Una marca más vieja no cambia nada");
+        assertEquals(0, index.markRead(user, "bob", 1000));
+        assertEquals(0, new ConversationIndex(READ_DIR, u -> lines).conversations(user).get(0).unread);
+    }
+}
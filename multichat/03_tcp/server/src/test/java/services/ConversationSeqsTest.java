@@ -0,0 +1,43 @@
+package services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para ConversationSeqs
+ */
+class ConversationSeqsTest {
+
+    @Test
+    @DisplayName("La clave de un chat privado no depende de quién envía")
+    void testPairKeyIsCanonical() {
+        assertEquals(ConversationSeqs.key("luis", "ana", false), ConversationSeqs.key("ana", "luis", false));
+        assertEquals("#amigos", ConversationSeqs.key("ana", "amigos", true));
+    }
+
+    @Test
+    @DisplayName("Los campos se leen de la cabecera, no del cuerpo del mensaje")
+    void testFieldsFromHeaderOnly() {
+        String line = "{type:text,id:9,seq:4,from:ana,target:luis,isGroup:false,msg:hola,seq:99,from:eva,ts:2024-01-01T00:00:00Z}";
+
+        assertEquals(4, ConversationSeqs.seqOf(line));
+        assertEquals("ana|luis", ConversationSeqs.keyOf(line));
+        assertEquals(0, ConversationSeqs.seqOf("{type:text,from:ana,target:luis,isGroup:false,msg:seq:7}"));
+        assertNull(ConversationSeqs.field(line, "file"));
+    }
+
+    @Test
+    @DisplayName("El contador arranca desde la última secuencia recuperada")
+    void testCounterRecovers() {
+        ConversationSeqs seqs = new ConversationSeqs(key -> key.equals("#amigos") ? 41 : 0);
+        ConversationSeqs.Counter counter = seqs.counter("#amigos");
+
+        synchronized (counter) {
+            assertEquals(42, counter.next());
+        }
+        assertEquals(42, seqs.counter("#amigos").last());
+        assertEquals(0, seqs.counter("ana|luis").last());
+    }
+}
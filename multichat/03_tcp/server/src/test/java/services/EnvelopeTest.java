@@ -0,0 +1,53 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para Envelope
+ */
+class EnvelopeTest {
+
+    @Test
+    @DisplayName("Cada formato coincide con el que usaba su transporte")
+    void testEncodings() {
+        Envelope priv = Envelope.text("ana", "luis", false, "hola");
+        Envelope group = Envelope.text("ana", "amigos", true, "hola a todos");
+
+        assertEquals("MSG|ana|hola", priv.pendingLine());
+        assertEquals("GROUP|amigos|ana|hola a todos", group.pendingLine());
+        assertEquals("MSG ana: hola\n", new String(priv.nativeBytes(), StandardCharsets.UTF_8));
+        assertEquals("MSG ana -> #amigos: hola a todos\n", new String(group.nativeBytes(), StandardCharsets.UTF_8));
+        assertEquals("MSG|ana|MSG|hola+a+todos", group.signalLine());
+
+        Envelope stored = priv.withSeq(7);
+        assertEquals(priv.id, stored.id);
+        String history = new String(stored.historyBytes(), StandardCharsets.UTF_8);
+        assertTrue(history.startsWith("{type:text,id:" + priv.id + ",seq:7,from:ana,target:luis,isGroup:false,msg:hola,ts:"));
+        assertTrue(history.endsWith("}\n"));
+    }
+
+    @Test
+    @DisplayName("Las notas de voz guardan la ruta del archivo en el historial")
+    void testVoiceNoteHistory() {
+        Envelope vn = Envelope.voiceNote("ana", "amigos", true, "data/media/vn_1.raw");
+        String history = new String(vn.historyBytes(), StandardCharsets.UTF_8);
+
+        assertTrue(history.startsWith("{type:voice_note,id:" + vn.id + ",seq:0,from:ana,target:amigos,isGroup:true,file:data/media/vn_1.raw,ts:"));
+    }
+
+    @Test
+    @DisplayName("Las codificaciones se calculan una vez y se comparten")
+    void testEncodingsAreCached() {
+        Envelope env = Envelope.text("ana", "amigos", true, "hola");
+
+        assertSame(env.nativeBytes(), env.nativeBytes());
+        assertSame(env.historyBytes(), env.historyBytes());
+        assertSame(env.pendingLine(), env.pendingLine());
+    }
+}
@@ -0,0 +1,207 @@
+package services;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para GroupLog
+ */
+class GroupLogTest {
+
+    private static final File TEST_DATA_DIR = new File("test-data/grouplog");
+
+    @AfterEach
+    void tearDown() {
+        if (TEST_DATA_DIR.exists()) {
+            try {
+                Files.walk(TEST_DATA_DIR.toPath())
+                     .sorted(Comparator.reverseOrder())
+                     .map(Path::toFile)
+                     .forEach(File::delete);
+            } catch (Exception e) {
+                // Ignorar errores al limpiar
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Cada miembro lee desde su propio cursor")
+    void testIndependentCursors() throws Exception {
+        GroupLog log = new GroupLog();
+        log.join("ana");
+        log.join("luis");
+        log.append(0, "eva", "m0");
+        log.append(1, "eva", "m1");
+
+        assertEquals(2, log.read("ana").size());
+        log.append(2, "eva", "m2");
+
+        assertEquals("m2", log.read("ana").get(0).text);
+        assertEquals(3, log.read("luis").size(), "Luis todavía no había leído nada");
+        assertTrue(log.read("luis").isEmpty());
+    }
+
+    @Test
+    @DisplayName("No se devuelven los mensajes propios ni los anteriores a unirse")
+    void testSkipsOwnAndEarlierMessages() throws Exception {
+        GroupLog log = new GroupLog();
+        log.join("ana");
+        log.append(0, "ana", "antes");
+        log.join("luis");
+        log.append(1, "ana", "hola");
+        log.append(2, "luis", "propio");
+
+        List<GroupLog.Entry> luis = log.read("luis");
+        assertEquals(1, luis.size());
+        assertEquals("hola", luis.get(0).text);
+        assertEquals("propio", log.read("ana").get(0).text);
+    }
+
+    @Test
+    @DisplayName("Un lector lento salta los mensajes sobrescritos en el anillo")
+    void testSlowReaderSkipsOverwritten() throws Exception {
+        GroupLog log = new GroupLog(4);
+        log.join("ana");
+        for (int i = 0; i < 10; i++) {
+            log.append(i, "eva", "m" + i);
+        }
+
+        List<GroupLog.Entry> entries = log.read("ana");
+        assertEquals(4, entries.size());
+        assertEquals("m6", entries.get(0).text);
+        assertEquals(6, log.getOverwritten());
+    }
+
+    @Test
+    @DisplayName("El anillo crece sin perder mensajes pendientes")
+    void testRingGrowsKeepingEntries() throws Exception {
+        GroupLog log = new GroupLog();
+        log.join("ana");
+        for (int i = 0; i < 100; i++) {
+            log.append(i, "eva", "m" + i);
+        }
+
+        List<GroupLog.Entry> entries = log.read("ana");
+        assertEquals(100, entries.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("m" + i, entries.get(i).text);
+        }
+        assertEquals(0, log.getOverwritten());
+    }
+
+    @Test
+    @DisplayName("Entrega confirmada: el cursor avanza sólo al confirmar y se reenvía tras el timeout")
+    void testDeliverAckAndResend() throws Exception {
+        GroupLog log = new GroupLog();
+        log.join("ana");
+        log.append(10, "eva", "m0");
+        log.append(11, "ana", "propio");
+        log.append(12, "eva", "m1");
+
+        assertEquals(2, log.deliver("ana", 0, 1000).size());
+        assertTrue(log.deliver("ana", 500, 1000).isEmpty(), "Dentro de la ventana no se repite");
+        assertEquals(2, log.deliver("ana", 1000, 1000).size(), "Sin confirmar: se reenvía");
+
+        log.ack("ana", 10);
+        log.append(13, "eva", "m2");
+        List<GroupLog.Entry> next = log.deliver("ana", 1100, 1000);
+        assertEquals(1, next.size(), "Sólo lo nuevo dentro de la ventana");
+        assertEquals("m2", next.get(0).text);
+
+        List<GroupLog.Entry> resent = log.deliver("ana", 2000, 1000);
+        assertEquals(List.of("m1", "m2"), resent.stream().map(e -> e.text).toList());
+
+        log.ack("ana", 13);
+        assertTrue(log.deliver("ana", 5000, 1000).isEmpty());
+    }
+
+    @Test
+    @DisplayName("No se confirma lo que todavía no se envió")
+    void testAckOnlyCoversSent() throws Exception {
+        GroupLog log = new GroupLog();
+        log.join("ana");
+        log.append(1, "eva", "m0");
+        log.deliver("ana", 0, 1000);
+        log.append(2, "eva", "m1");
+
+        log.ack("ana", 2);
+        assertEquals("m1", log.deliver("ana", 10, 1000).get(0).text);
+    }
+
+    @Test
+    @DisplayName("En disco, lo no confirmado sobrevive a un reinicio y lo confirmado no se repite")
+    void testSurvivesRestart() throws Exception {
+        GroupLog log = GroupLog.open(TEST_DATA_DIR, "amigos");
+        log.join("ana");
+        log.join("luis");
+        log.append(1, "eva", "m0");
+        log.append(2, "eva", "m1");
+        log.deliver("ana", 0, 1000);
+        log.ack("ana", 1);
+
+        GroupLog reopened = GroupLog.open(TEST_DATA_DIR, "amigos");
+        reopened.join("ana"); // Como al cargar los grupos: no pisa el cursor guardado
+        assertEquals(List.of("m1"), reopened.read("ana").stream().map(e -> e.text).toList());
+        assertEquals(List.of("m0", "m1"), reopened.read("luis").stream().map(e -> e.text).toList());
+        assertEquals(0, new File(TEST_DATA_DIR, "amigos.log").length(), "Todos al día: el log se vacía");
+
+        reopened.append(3, "eva", "m2");
+        GroupLog again = GroupLog.open(TEST_DATA_DIR, "amigos");
+        assertEquals(3, again.getHead(), "Las secuencias siguen tras vaciar el log");
+        assertEquals(List.of("m2"), again.read("ana").stream().map(e -> e.text).toList());
+    }
+
+    @Test
+    @DisplayName("En disco, el log se reescribe sin lo que ya nadie puede leer")
+    void testRewritesLog() throws Exception {
+        GroupLog log = GroupLog.open(TEST_DATA_DIR, "amigos", 4);
+        log.join("ana");
+        log.join("luis");
+        for (int i = 0; i < 20; i++) {
+            log.append(i, "eva", "m" + i);
+            log.read("ana");
+        }
+
+        GroupLog reopened = GroupLog.open(TEST_DATA_DIR, "amigos", 4);
+        assertEquals(20, reopened.getHead());
+        assertEquals(List.of("m16", "m17", "m18", "m19"), reopened.read("luis").stream().map(e -> e.text).toList());
+        assertTrue(reopened.read("ana").isEmpty());
+    }
+
+    @Test
+    @DisplayName("En disco, cada lectura agrega una línea de cursor y el archivo se compacta")
+    void testCursorLogIsAppendOnly() throws Exception {
+        GroupLog log = GroupLog.open(TEST_DATA_DIR, "amigos");
+        for (int m = 0; m < 100; m++) {
+            log.join("miembro" + m);
+        }
+        File cursors = new File(TEST_DATA_DIR, "amigos.cursors");
+        log.append(1, "eva", "m0");
+        long before = cursors.length();
+        log.read("miembro0");
+        assertTrue(cursors.length() - before < 32, "Una lectura no reescribe los cursores de todos");
+
+        for (int i = 1; i < 20; i++) {
+            log.append(i + 1, "eva", "m" + i);
+            for (int m = 0; m < 100; m++) {
+                log.read("miembro" + m);
+            }
+        }
+        log.leave("miembro99");
+        assertTrue(cursors.length() < 2 * 256 * "miembro99\t20\n".length(), "Se compacta al pasar del umbral");
+
+        GroupLog reopened = GroupLog.open(TEST_DATA_DIR, "amigos");
+        assertEquals(20, reopened.getHead());
+        assertEquals(99, reopened.getMemberCount(), "La salida también se recupera");
+        assertTrue(reopened.read("miembro0").isEmpty());
+    }
+}
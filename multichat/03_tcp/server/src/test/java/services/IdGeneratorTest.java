@@ -0,0 +1,63 @@
+package services;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para IdGenerator
+ */
+class IdGeneratorTest {
+
+    private static final long NOW = IdGenerator.EPOCH_MS + 1_000_000;
+
+    @Test
+    @DisplayName("Ids únicos y crecientes dentro del mismo milisegundo y al agotar la secuencia")
+    void testUniqueAndMonotonic() {
+        IdGenerator gen = new IdGenerator(3, () -> NOW);
+        Set<Long> seen = new HashSet<>();
+        long previous = -1;
+        for (int i = 0; i < 2000; i++) { // Más de 256 por ms: toma prestados los ms siguientes
+            long id = gen.nextId();
+            assertTrue(id > previous, "Los ids deben crecer");
+            assertTrue(seen.add(id), "Id repetido");
+            previous = id;
+        }
+        assertEquals(NOW, IdGenerator.timestampOf(seen.stream().min(Long::compare).get()));
+    }
+
+    @Test
+    @DisplayName("Si el reloj retrocede los ids siguen creciendo")
+    void testClockGoingBackwards() {
+        AtomicLong clock = new AtomicLong(NOW);
+        IdGenerator gen = new IdGenerator(0, clock::get);
+        long before = gen.nextId();
+        clock.set(NOW - 5000);
+
+        assertTrue(gen.nextId() > before);
+    }
+
+    @Test
+    @DisplayName("Los ids caben en un número de JavaScript sin perder precisión")
+    void testFitsInJavaScriptNumber() {
+        long year2090 = 3786912000000L; // 41 bits de ms alcanzan hasta 2093
+        long id = new IdGenerator(IdGenerator.MAX_NODE, () -> year2090).nextId();
+
+        assertTrue(id < (1L << 53));
+        assertEquals(year2090, IdGenerator.timestampOf(id));
+    }
+
+    @Test
+    @DisplayName("El id de un registro antiguo es estable")
+    void testLegacyIdIsStable() {
+        long a = IdGenerator.legacyId(NOW, "{type:text,from:ana}".hashCode());
+
+        assertEquals(a, IdGenerator.legacyId(NOW, "{type:text,from:ana}".hashCode()));
+        assertEquals(NOW, IdGenerator.timestampOf(a));
+    }
+}
@@ -0,0 +1,166 @@
+package services;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para Mailbox
+ */
+class MailboxTest {
+
+    private static final File TEST_DATA_DIR = new File("test-data/mailbox");
+
+    @BeforeEach
+    void setUp() {
+        cleanTestData();
+        TEST_DATA_DIR.mkdirs();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanTestData();
+    }
+
+    private void cleanTestData() {
+        if (TEST_DATA_DIR.exists()) {
+            try {
+                Files.walk(TEST_DATA_DIR.toPath())
+                     .sorted(Comparator.reverseOrder())
+                     .map(Path::toFile)
+                     .forEach(File::delete);
+            } catch (Exception e) {
+                // Ignorar errores al limpiar
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Los mensajes no entregados sobreviven a un reinicio")
+    void testUndeliveredSurviveRestart() throws Exception {
+        Mailbox box = Mailbox.open(TEST_DATA_DIR, "ana");
+        box.append(5, "luis", "MSG|luis|hola");
+        box.append(9, "eva", "MSG|eva|qué tal");
+
+        Mailbox reopened = Mailbox.open(TEST_DATA_DIR, "ana");
+        List<GroupLog.Entry> entries = reopened.drain();
+
+        assertEquals(2, entries.size());
+        assertEquals("MSG|luis|hola", entries.get(0).text);
+        assertEquals("qué tal", entries.get(1).text.substring("MSG|eva|".length()));
+        assertEquals(9, entries.get(1).order);
+    }
+
+    @Test
+    @DisplayName("El nombre del archivo se codifica: un usuario no puede salir del directorio")
+    void testNameIsEncoded() throws Exception {
+        Mailbox box = Mailbox.open(TEST_DATA_DIR, "../fuera");
+        box.append(1, "luis", "hola");
+
+        assertFalse(new File(TEST_DATA_DIR.getParentFile(), "fuera.log").exists());
+        assertEquals(List.of("../fuera"), Mailbox.listUsers(TEST_DATA_DIR));
+        assertEquals(1, Mailbox.open(TEST_DATA_DIR, "../fuera").drain().size());
+    }
+
+    @Test
+    @DisplayName("Lo entregado no se repite tras reiniciar y las secuencias siguen creciendo")
+    void testDeliveredNotRepeated() throws Exception {
+        Mailbox box = Mailbox.open(TEST_DATA_DIR, "ana");
+        box.append(0, "luis", "uno");
+        assertEquals(1, box.drain().size());
+        box.append(1, "luis", "dos");
+
+        Mailbox reopened = Mailbox.open(TEST_DATA_DIR, "ana");
+        List<GroupLog.Entry> entries = reopened.drain();
+
+        assertEquals(1, entries.size());
+        assertEquals("dos", entries.get(0).text);
+        assertEquals(1, entries.get(0).seq);
+        assertEquals(0, Mailbox.open(TEST_DATA_DIR, "ana").size());
+        assertEquals(0, new File(TEST_DATA_DIR, "ana.log").length(), "El log entregado se trunca");
+    }
+
+    @Test
+    @DisplayName("Un registro cortado al final se descarta al recuperar")
+    void testTornRecordDiscarded() throws Exception {
+        Mailbox box = Mailbox.open(TEST_DATA_DIR, "ana");
+        box.append(0, "luis", "completo");
+        try (FileOutputStream fos = new FileOutputStream(new File(TEST_DATA_DIR, "ana.log"), true)) {
+            fos.write(new byte[] {0, 0, 0, 0, 0, 0, 0, 1, 0, 0}); // Caída a mitad de una escritura
+        }
+
+        Mailbox reopened = Mailbox.open(TEST_DATA_DIR, "ana");
+        reopened.append(1, "luis", "después");
+        List<GroupLog.Entry> entries = Mailbox.open(TEST_DATA_DIR, "ana").drain();
+
+        assertEquals(2, entries.size());
+        assertEquals("completo", entries.get(0).text);
+        assertEquals("después", entries.get(1).text);
+    }
+
+    @Test
+    @DisplayName("Borrar el buzón elimina sus archivos")
+    void testDelete() throws Exception {
+        Mailbox box = Mailbox.open(TEST_DATA_DIR, "ana");
+        box.append(0, "luis", "hola");
+        box.delete();
+
+        assertTrue(Mailbox.listUsers(TEST_DATA_DIR).isEmpty());
+        assertEquals(0, Mailbox.open(TEST_DATA_DIR, "ana").size());
+    }
+
+    @Test
+    @DisplayName("Lo enviado sin confirmar se reenvía y sobrevive a un reinicio")
+    void testDeliverAckAndResend() throws Exception {
+        Mailbox box = Mailbox.open(TEST_DATA_DIR, "ana");
+        box.append(1, "luis", "uno");
+        box.append(2, "luis", "dos");
+
+        assertEquals(2, box.deliver(0, 1000).size());
+        assertTrue(box.deliver(500, 1000).isEmpty(), "Dentro de la ventana no se repite");
+        assertEquals(1, box.ack(1));
+        box.append(3, "luis", "tres");
+        assertEquals(1, box.ack(3), "Sólo se confirma lo enviado");
+
+        Mailbox reopened = Mailbox.open(TEST_DATA_DIR, "ana");
+        List<GroupLog.Entry> entries = reopened.deliver(0, 1000);
+        assertEquals(List.of("tres"), entries.stream().map(e -> e.text).toList());
+        assertEquals(1, reopened.deliver(1000, 1000).size(), "Sin confirmar: se reenvía");
+        assertEquals(1, reopened.ack(3));
+        assertEquals(0, Mailbox.open(TEST_DATA_DIR, "ana").size());
+    }
+
+    @Test
+    @DisplayName("Si no se puede guardar el ack, el log entregado no se trunca")
+    void testFailedAckDoesNotTruncate() throws Exception {
+        Mailbox box = Mailbox.open(TEST_DATA_DIR, "ana");
+        box.append(1, "luis", "MSG|luis|uno");
+        box.deliver(0, 1000);
+        File ack = new File(TEST_DATA_DIR, "ana.ack");
+        File log = new File(TEST_DATA_DIR, "ana.log");
+        ack.delete();
+        assertTrue(ack.mkdir(), "Un directorio en lugar del .ack hace fallar la escritura");
+        long length = log.length();
+
+        assertEquals(1, box.ack(1));
+        assertEquals(length, log.length(), "Sin el offset en cero guardado no se vacía el log");
+
+        ack.delete();
+        box.append(2, "eva", "MSG|eva|dos");
+        assertEquals(List.of("MSG|eva|dos"), box.deliver(10, 1000).stream().map(e -> e.text).toList());
+        assertEquals(1, box.ack(2));
+        assertEquals(0, log.length());
+        assertEquals(0, Mailbox.open(TEST_DATA_DIR, "ana").size(), "Offset y log quedan de acuerdo");
+    }
+}
@@ -0,0 +1,111 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para PresenceService
+ */
+class PresenceServiceTest {
+
+    private Map<String, Set<String>> groups;
+    private Map<String, Set<String>> userGroups;
+    private Map<String, List<String>> delivered;
+    private PresenceService presence;
+
+    @BeforeEach
+    void setUp() {
+        groups = new ConcurrentHashMap<>();
+        userGroups = new ConcurrentHashMap<>();
+        delivered = new HashMap<>();
+        presence = new PresenceService(groups, userGroups, (user, line) ->
+                delivered.computeIfAbsent(user, u -> new ArrayList<>()).add(new String(line, StandardCharsets.UTF_8).trim()), 0);
+    }
+
+    private void join(String group, String user) {
+        groups.computeIfAbsent(group, g -> ConcurrentHashMap.newKeySet()).add(user);
+        userGroups.computeIfAbsent(user, u -> ConcurrentHashMap.newKeySet()).add(group);
+    }
+
+    @Test
+    @DisplayName("Sólo los contactos reciben el cambio de presencia")
+    void testOnlyContactsAreNotified() {
+        join("amigos", "ana");
+        join("amigos", "luis");
+        presence.online("luis");
+        presence.online("extraño");
+        presence.flush();
+        delivered.clear();
+
+        presence.online("ana");
+        presence.flush();
+
+        assertEquals(List.of("PRESENCE 2 +ana"), delivered.get("luis"));
+        assertFalse(delivered.containsKey("extraño"), "No comparte grupos ni conversaciones con ana");
+    }
+
+    @Test
+    @DisplayName("Varios cambios del mismo lote llegan en una sola línea")
+    void testChangesAreBatched() {
+        join("amigos", "ana");
+        join("amigos", "luis");
+        join("amigos", "eva");
+        presence.online("eva");
+        presence.flush();
+        delivered.clear();
+
+        presence.online("ana");
+        presence.online("luis");
+        presence.flush();
+
+        assertEquals(List.of("PRESENCE 2 +ana +luis"), delivered.get("eva"));
+
+        presence.offline("luis");
+        presence.flush();
+
+        assertEquals("PRESENCE 3 -luis", delivered.get("eva").get(1));
+    }
+
+    @Test
+    @DisplayName("Conectarse y desconectarse en el mismo lote no genera aviso")
+    void testFlapInsideBatchIsCancelled() {
+        join("amigos", "ana");
+        join("amigos", "luis");
+        presence.online("luis");
+        presence.flush();
+        delivered.clear();
+
+        presence.online("ana");
+        presence.offline("ana");
+        presence.flush();
+
+        assertTrue(delivered.isEmpty());
+        assertEquals(1, presence.getVersion(), "Un lote vacío no cambia la versión");
+    }
+
+    @Test
+    @DisplayName("Los interlocutores privados recientes ven la presencia y aparecen en el snapshot")
+    void testRecentPeersAndSnapshot() {
+        presence.online("luis");
+        presence.recordPeers("ana", "luis");
+        presence.online("ana");
+        presence.flush();
+
+        assertEquals(List.of("PRESENCE 1 +ana"), delivered.get("luis"));
+        PresenceService.Snapshot snapshot = presence.snapshot("ana");
+        assertEquals(1, snapshot.version);
+        assertEquals(Map.of("luis", true), snapshot.contacts);
+    }
+}
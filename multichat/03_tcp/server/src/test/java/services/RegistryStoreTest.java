@@ -0,0 +1,276 @@
+package services;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para RegistryStore
+ */
+class RegistryStoreTest {
+
+    private static final File TEST_DATA_DIR = new File("test-data/registry");
+
+    private Set<String> users;
+    private Map<String, Set<String>> groups;
+    private RegistryStore store;
+
+    @BeforeEach
+    void setUp() {
+        cleanTestData();
+        TEST_DATA_DIR.mkdirs();
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+        cleanTestData();
+    }
+
+    private RegistryStore open(int threshold) {
+        users = ConcurrentHashMap.newKeySet();
+        groups = new ConcurrentHashMap<>();
+        RegistryStore s = new RegistryStore(TEST_DATA_DIR, users, groups, threshold);
+        s.load();
+        return s;
+    }
+
+    private void cleanTestData() {
+        if (TEST_DATA_DIR.exists()) {
+            try {
+                Files.walk(TEST_DATA_DIR.toPath())
+                     .sorted(Comparator.reverseOrder())
+                     .map(Path::toFile)
+                     .forEach(File::delete);
+            } catch (Exception e) {
+                // Ignorar errores al limpiar
+            }
+        }
+    }
+
+    /** Aplica en memoria y registra, como hace ChatServicesImpl */
+    private void addMember(String group, String user) {
+        groups.computeIfAbsent(group, g -> ConcurrentHashMap.newKeySet()).add(user);
+        store.addMember(group, user);
+    }
+
+    @Test
+    @DisplayName("Los cambios se recuperan del log al reiniciar")
+    void testReplayLogOnRestart() {
+        users.add("ana");
+        store.addUser("ana");
+        users.add("luis");
+        store.addUser("luis");
+        addMember("amigos", "ana");
+        addMember("amigos", "luis");
+        store.close();
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertTrue(users.contains("ana"));
+        assertTrue(users.contains("luis"));
+        assertEquals(Set.of("ana", "luis"), groups.get("amigos"));
+        assertFalse(new File(TEST_DATA_DIR, "groups.txt").exists(), "Sin compactar no se reescribe el snapshot");
+    }
+
+    @Test
+    @DisplayName("Eliminar un usuario lo quita de todos los grupos al reaplicar")
+    void testDeleteUserReplay() {
+        users.add("ana");
+        store.addUser("ana");
+        addMember("amigos", "ana");
+        addMember("trabajo", "ana");
+        store.deleteUser("ana", Set.of("amigos", "trabajo"));
+        store.close();
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertFalse(users.contains("ana"));
+        assertFalse(groups.get("amigos").contains("ana"));
+        assertFalse(groups.get("trabajo").contains("ana"));
+    }
+
+    @Test
+    @DisplayName("Un DELETE_USER del formato anterior sigue quitando al usuario de todos los grupos")
+    void testLegacyDeleteUserReplay() throws Exception {
+        store.addUser("ana");
+        addMember("amigos", "ana");
+        addMember("trabajo", "ana");
+        store.close();
+        Files.writeString(new File(TEST_DATA_DIR, "registry.log").toPath(), "DELETE_USER\tana\n",
+                java.nio.file.StandardOpenOption.APPEND);
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertFalse(users.contains("ana"));
+        assertFalse(groups.get("amigos").contains("ana"));
+        assertFalse(groups.get("trabajo").contains("ana"));
+    }
+
+    @Test
+    @DisplayName("La compactación vuelca el estado al snapshot y vacía el log")
+    void testCompaction() {
+        for (int i = 0; i < 100; i++) {
+            users.add("user" + i);
+            store.addUser("user" + i);
+            addMember("grupo", "user" + i);
+        }
+        store.compact();
+        addMember("grupo", "tardio");
+        store.close();
+
+        assertEquals(1, store.getLogEntries(), "Sólo debería quedar el cambio posterior a la compactación");
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertEquals(100, users.size());
+        assertEquals(101, groups.get("grupo").size());
+    }
+
+    @Test
+    @DisplayName("Se compacta automáticamente al superar el umbral")
+    void testAutomaticCompaction() throws Exception {
+        store.close();
+        store = open(10);
+        for (int i = 0; i < 25; i++) {
+            users.add("user" + i);
+            store.addUser("user" + i);
+        }
+        Thread.sleep(200);
+
+        assertTrue(new File(TEST_DATA_DIR, "users.txt").exists(), "El snapshot debería haberse escrito");
+        assertTrue(store.getLogEntries() < 25);
+    }
+
+    @Test
+    @DisplayName("El snapshot incluye un pie con checksum verificable")
+    void testSnapshotChecksum() throws Exception {
+        File file = new File(TEST_DATA_DIR, "users.txt");
+        RegistryStore.writeSnapshotFile(file, List.of("ana", "luis", "josé"));
+
+        assertEquals(List.of("ana", "luis", "josé"), RegistryStore.readSnapshot(file));
+        assertFalse(new File(TEST_DATA_DIR, "users.txt.tmp").exists(), "No debería quedar el temporal");
+
+        // Cambiar un byte invalida el checksum
+        String content = Files.readString(file.toPath()).replace("luis", "lues");
+        Files.writeString(file.toPath(), content);
+        assertNull(RegistryStore.readSnapshot(file));
+    }
+
+    @Test
+    @DisplayName("Un snapshot truncado se detecta como dañado")
+    void testTruncatedSnapshotIsRejected() throws Exception {
+        File file = new File(TEST_DATA_DIR, "groups.txt");
+        RegistryStore.writeSnapshotFile(file, List.of("amigos:ana,luis", "trabajo:ana"));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), java.util.Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertNull(RegistryStore.readSnapshot(file));
+    }
+
+    @Test
+    @DisplayName("Los archivos del formato anterior se siguen cargando")
+    void testLegacySnapshotIsAccepted() throws Exception {
+        Files.writeString(new File(TEST_DATA_DIR, "users.txt").toPath(), "ana\nluis\n");
+        Files.writeString(new File(TEST_DATA_DIR, "groups.txt").toPath(), "amigos:ana,luis\n");
+        store.close();
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertEquals(Set.of("ana", "luis"), users);
+        assertEquals(Set.of("ana", "luis"), groups.get("amigos"));
+    }
+
+    @Test
+    @DisplayName("Si el snapshot está dañado se carga el anterior y se reaplica el log")
+    void testFallbackToPreviousSnapshot() throws Exception {
+        users.add("ana");
+        store.addUser("ana");
+        addMember("amigos", "ana");
+        store.compact();
+
+        users.add("luis");
+        store.addUser("luis");
+        addMember("amigos", "luis");
+        store.compact();
+
+        users.add("eva");
+        store.addUser("eva");
+        store.close();
+
+        // Simular un groups.txt dañado
+        Files.writeString(new File(TEST_DATA_DIR, "groups.txt").toPath(), "#snapshot v1\namigos:an");
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertEquals(Set.of("ana", "luis", "eva"), users);
+        assertEquals(Set.of("ana", "luis"), groups.get("amigos"), "No se debería perder ninguna membresía");
+    }
+
+    @Test
+    @DisplayName("El store aplica cada cambio a los mapas al registrarlo")
+    void testChangesAreAppliedByStore() {
+        assertTrue(store.addUser("ana"));
+        assertFalse(store.addUser("ana"), "Ya existía");
+        assertTrue(store.createGroup("amigos"));
+        store.addMember("amigos", "ana");
+        store.addMember("amigos", "josé");
+
+        assertEquals(Set.of("ana"), users);
+        assertEquals(Set.of("ana", "josé"), groups.get("amigos"));
+
+        store.deleteUser("ana", Set.of("amigos"));
+        assertFalse(users.contains("ana"));
+        assertEquals(Set.of("josé"), groups.get("amigos"));
+    }
+
+    @Test
+    @DisplayName("Un registro cortado al final del log no se aplica y se recorta")
+    void testTornRecordIsSkipped() throws Exception {
+        store.addUser("josé");
+        store.addMember("grupo", "josé");
+        store.close();
+        File log = new File(TEST_DATA_DIR, "registry.log");
+        Files.writeString(log.toPath(), "ADD_MEMBER\tgrupo\tus", java.nio.file.StandardOpenOption.APPEND);
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertEquals(Set.of("josé"), groups.get("grupo"), "Ni 'us' ni el registro cortado");
+        assertEquals(Set.of("josé"), users, "Los nombres UTF-8 se leen bien");
+        store.addMember("grupo", "luis");
+        store.close();
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+        assertEquals(Set.of("josé", "luis"), groups.get("grupo"), "El cambio siguiente no quedó pegado al cortado");
+    }
+
+    @Test
+    @DisplayName("Una línea con checksum incorrecto se descarta; las del formato anterior se aceptan")
+    void testChecksumIsVerified() throws Exception {
+        store.close();
+        String good = RegistryStore.formatRecord("ADD_MEMBER", "grupo", "ana");
+        String bad = RegistryStore.formatRecord("ADD_MEMBER", "grupo", "luis").replace("luis", "eva");
+        Files.writeString(new File(TEST_DATA_DIR, "registry.log").toPath(),
+                "ADD_USER\tviejo\n" + good + "\n" + bad + "\n");
+
+        store = open(RegistryStore.DEFAULT_COMPACT_THRESHOLD);
+
+        assertEquals(Set.of("viejo"), users);
+        assertEquals(Set.of("ana"), groups.get("grupo"));
+    }
+}
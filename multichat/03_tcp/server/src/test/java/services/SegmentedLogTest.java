@@ -0,0 +1,227 @@
+package services;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para SegmentedLog
+ */
+class SegmentedLogTest {
+
+    private static final File TEST_DATA_DIR = new File("test-data/segments");
+    private static final long HOUR = 60L * 60 * 1000;
+
+    @BeforeEach
+    void setUp() {
+        cleanTestData();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanTestData();
+    }
+
+    private void cleanTestData() {
+        if (TEST_DATA_DIR.exists()) {
+            try {
+                Files.walk(TEST_DATA_DIR.toPath())
+                     .sorted(Comparator.reverseOrder())
+                     .map(Path::toFile)
+                     .forEach(File::delete);
+            } catch (Exception e) {
+                // Ignorar errores al limpiar
+            }
+        }
+    }
+
+    private static byte[] record(long seq, long ts) {
+        return ("{type:text,id:" + seq + ",seq:" + seq + ",from:ana,target:luis,isGroup:false,msg:m" + seq
+                + ",ts:" + Instant.ofEpochMilli(ts) + "}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Los segmentos se cierran por edad y el manifest sobrevive a un reinicio")
+    void testRollsAndReloads() throws Exception {
+        SegmentedLog.Policy policy = new SegmentedLog.Policy(1024 * 1024, 24 * HOUR, 0, 0);
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, policy);
+        for (int day = 0; day < 3; day++) {
+            log.append(record(2 * day + 1, day * 24 * HOUR), 2 * day + 1, day * 24 * HOUR);
+            log.append(record(2 * day + 2, day * 24 * HOUR + HOUR), 2 * day + 2, day * 24 * HOUR + HOUR);
+        }
+        assertEquals(3, log.segmentCount());
+
+        SegmentedLog reopened = SegmentedLog.open(TEST_DATA_DIR, null, policy);
+        assertEquals(3, reopened.segmentCount());
+        assertEquals(6, reopened.lastSeq());
+        assertEquals(6, reopened.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(2, reopened.read(false, 4, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    @DisplayName("Una lectura por rango de tiempo no abre los segmentos de fuera")
+    void testSkipsSegmentsOutsideRange() throws Exception {
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, new SegmentedLog.Policy(1024 * 1024, 24 * HOUR, 0, 0));
+        log.append(record(1, 0), 1, 0);
+        log.append(record(2, 48 * HOUR), 2, 48 * HOUR);
+        log.append(record(3, 96 * HOUR), 3, 96 * HOUR);
+
+        // Un segmento que no se cruza con el rango ni siquiera tiene que existir
+        assertTrue(new File(TEST_DATA_DIR, "000000.jsonl").delete());
+        List<String> range = log.read(true, 0, 47 * HOUR, 49 * HOUR);
+        assertEquals(1, range.size());
+        assertTrue(range.get(0).contains("msg:m2"));
+    }
+
+    @Test
+    @DisplayName("La retención borra segmentos cerrados enteros y nunca el abierto")
+    void testRetentionDropsWholeSegments() throws Exception {
+        SegmentedLog.Policy policy = new SegmentedLog.Policy(1024 * 1024, 24 * HOUR, 48 * HOUR, 0);
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, policy);
+        log.append(record(1, 0), 1, 0);
+        log.append(record(2, 24 * HOUR), 2, 24 * HOUR);
+        log.append(record(3, 96 * HOUR), 3, 96 * HOUR); // Al rotar se aplica la retención
+
+        assertFalse(new File(TEST_DATA_DIR, "000000.jsonl").exists());
+        assertFalse(new File(TEST_DATA_DIR, "000001.jsonl").exists());
+        assertEquals(1, log.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(3, log.lastSeq());
+        assertEquals(0, log.retain(Long.MAX_VALUE), "El segmento abierto se conserva");
+        assertEquals(3, SegmentedLog.open(TEST_DATA_DIR, null, policy).lastSeq());
+    }
+
+    @Test
+    @DisplayName("La retención por tamaño deja el total por debajo del límite")
+    void testRetentionBySize() throws Exception {
+        long size = record(1, 0).length;
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, new SegmentedLog.Policy(size, Long.MAX_VALUE, 0, 2 * size));
+        for (int seq = 1; seq <= 5; seq++) {
+            log.append(record(seq, seq), seq, seq);
+        }
+        List<String> kept = log.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, kept.size());
+        assertTrue(kept.get(0).contains("msg:m4"));
+    }
+
+    @Test
+    @DisplayName("La compactación borra segmentos enteros bajo la lápida y recorta el que la cruza")
+    void testDropThrough() throws Exception {
+        SegmentedLog.Policy policy = new SegmentedLog.Policy(1024 * 1024, 24 * HOUR, 0, 0);
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, policy);
+        log.append(record(1, 0), 1, 0);
+        log.append(record(2, 48 * HOUR), 2, 48 * HOUR);
+        log.append(record(3, 49 * HOUR), 3, 49 * HOUR);
+        log.append(record(4, 96 * HOUR), 4, 96 * HOUR);
+
+        assertEquals(2, log.dropThrough(2));
+        assertFalse(new File(TEST_DATA_DIR, "000000.jsonl").exists());
+        assertEquals(1, Files.readAllLines(new File(TEST_DATA_DIR, "000001.jsonl").toPath()).size());
+        assertEquals(3, log.firstSeq());
+        assertEquals(2, SegmentedLog.open(TEST_DATA_DIR, null, policy).read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    @DisplayName("Los segmentos cerrados se comprimen por bloques y se leen sólo los bloques necesarios")
+    void testCompressesClosedSegments() throws Exception {
+        SegmentedLog.Policy policy = new SegmentedLog.Policy(1024 * 1024, 24 * HOUR, 0, 0);
+        SegmentCodec.Stats stats = new SegmentCodec.Stats();
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, policy, stats);
+        for (int seq = 1; seq <= 2000; seq++) {
+            log.append(record(seq, seq), seq, seq); // ~200 KB: varios bloques
+        }
+        log.append(record(2001, 48 * HOUR), 2001, 48 * HOUR); // Cierra el primer segmento
+        List<String> before = log.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertEquals(1, log.compressClosed());
+        assertFalse(new File(TEST_DATA_DIR, "000000.jsonl").exists());
+        assertTrue(new File(TEST_DATA_DIR, "000000.z").exists());
+        assertFalse(log.hasUncompressed());
+        assertTrue(stats.ratio() > 2, "El texto del historial se comprime bien");
+        assertEquals(before, log.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        long decodedBefore = (Long) stats.snapshot().get("blocksDecoded");
+        List<String> tail = log.read(false, 1990, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(11, tail.size());
+        assertEquals(1, (Long) stats.snapshot().get("blocksDecoded") - decodedBefore, "Sólo el último bloque");
+        assertTrue((Long) stats.snapshot().get("blocksSkipped") > 0);
+
+        SegmentedLog reopened = SegmentedLog.open(TEST_DATA_DIR, null, policy);
+        assertEquals(before, reopened.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(1001, reopened.dropThrough(1000), "Una lápida dentro de un segmento comprimido lo reescribe");
+        assertTrue(reopened.hasUncompressed());
+        assertEquals(1001, reopened.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(1, reopened.compressClosed());
+        assertEquals(1001, reopened.read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    @DisplayName("Recomprimir tras una compactación no cuenta dos veces el segmento en las estadísticas")
+    void testStatsAfterRecompression() throws Exception {
+        SegmentedLog.Policy policy = new SegmentedLog.Policy(1024 * 1024, 24 * HOUR, 0, 0);
+        SegmentCodec.Stats stats = new SegmentCodec.Stats();
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, policy, stats);
+        for (int seq = 1; seq <= 500; seq++) {
+            log.append(record(seq, seq), seq, seq);
+        }
+        log.append(record(501, 48 * HOUR), 501, 48 * HOUR);
+        log.compressClosed();
+
+        log.dropThrough(250);
+        assertEquals(0L, stats.snapshot().get("segmentsCompressed"), "Reescrito en texto: ya no cuenta");
+        assertEquals(0L, stats.snapshot().get("rawBytes"));
+        log.compressClosed();
+
+        long raw = (Long) stats.snapshot().get("rawBytes");
+        assertEquals(1L, stats.snapshot().get("segmentsCompressed"));
+        assertEquals(new File(TEST_DATA_DIR, "000000.z").length(), stats.snapshot().get("compressedBytes"));
+        assertTrue(raw > 0 && raw < 500L * record(1, 1).length, "Sólo lo que quedó después de la lápida");
+        assertFalse(new File(TEST_DATA_DIR, "000000.z.tmp").exists());
+        assertFalse(new File(TEST_DATA_DIR, "000000.idx.tmp").exists());
+    }
+
+    @Test
+    @DisplayName("Una caída a mitad de la compactación de un segmento comprimido no pierde registros")
+    void testCrashDuringCompressedDrop() throws Exception {
+        SegmentedLog.Policy policy = new SegmentedLog.Policy(1024 * 1024, 24 * HOUR, 0, 0);
+        SegmentedLog log = SegmentedLog.open(TEST_DATA_DIR, null, policy);
+        for (int seq = 1; seq <= 500; seq++) {
+            log.append(record(seq, seq), seq, seq);
+        }
+        log.append(record(501, 48 * HOUR), 501, 48 * HOUR);
+        log.compressClosed();
+        Path manifest = new File(TEST_DATA_DIR, "manifest").toPath();
+        Path z = new File(TEST_DATA_DIR, "000000.z").toPath();
+        Path idx = new File(TEST_DATA_DIR, "000000.idx").toPath();
+        byte[] oldManifest = Files.readAllBytes(manifest);
+        byte[] oldZ = Files.readAllBytes(z);
+        byte[] oldIdx = Files.readAllBytes(idx);
+
+        log.dropThrough(250);
+        byte[] newManifest = Files.readAllBytes(manifest);
+        assertTrue(new File(TEST_DATA_DIR, "000000.jsonl").exists());
+        Files.write(z, oldZ);
+        Files.write(idx, oldIdx);
+
+        // Caída después de mover el texto y antes del manifest: sigue valiendo el .z
+        Files.write(manifest, oldManifest);
+        assertEquals(501, SegmentedLog.open(TEST_DATA_DIR, null, policy).read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        // Caída después del manifest y antes de borrar .z/.idx: vale el texto recortado
+        Files.write(manifest, newManifest);
+        List<String> rows = SegmentedLog.open(TEST_DATA_DIR, null, policy).read(true, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(251, rows.size());
+        assertEquals(251, ConversationSeqs.seqOf(rows.get(0)));
+    }
+}
@@ -0,0 +1,194 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Tests para SessionOutbound
+ */
+class SessionOutboundTest {
+
+    private ServerSocket server;
+    private Socket serverSide;
+    private Socket client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new ServerSocket(0);
+        client = new Socket("127.0.0.1", server.getLocalPort());
+        serverSide = server.accept();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        serverSide.close();
+        server.close();
+    }
+
+    @Test
+    @DisplayName("Las líneas de varios hilos llegan completas, sin intercalarse")
+    void testConcurrentWritersDoNotInterleave() throws Exception {
+        SessionOutbound outbound = new SessionOutbound(serverSide, "test");
+        final int perThread = 1000;
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    outbound.writer().println("hilo" + id + " linea " + i + " " + "x".repeat(100));
+                }
+            });
+            writers[t].start();
+        }
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        for (int i = 0; i < perThread * writers.length; i++) {
+            String line = in.readLine();
+            assertTrue(line.matches("hilo\\d linea \\d+ x{100}"), "Línea corrupta: " + line);
+        }
+        for (Thread w : writers) {
+            w.join();
+        }
+        outbound.close();
+    }
+
+    @Test
+    @DisplayName("Un receptor que no lee no bloquea al remitente y se desconecta al desbordar")
+    void testSlowReceiverIsDisconnected() {
+        SessionOutbound outbound = new SessionOutbound(serverSide, "lento");
+        byte[] frame = new byte[64 * 1024];
+        int accepted = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000 && outbound.send(frame); i++) {
+            accepted++;
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(outbound.isClosed(), "La sesión debería cerrarse al superar el límite");
+        assertTrue(accepted < 1000);
+        assertFalse(outbound.send(frame), "Una sesión cerrada no acepta más frames");
+        assertTrue(elapsedMs < 1000, "El remitente no debería bloquearse: " + elapsedMs + "ms");
+        assertTrue(serverSide.isClosed());
+    }
+
+    /** Destino en memoria que cuenta cuántas escrituras llegarían al socket */
+    private static class CountingSink extends OutputStream {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+
+        @Override
+        public void write(int b) {
+            writes.incrementAndGet();
+            bytes.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes.incrementAndGet();
+            bytes.addAndGet(len);
+        }
+    }
+
+    /** Destino cuya primera escritura se queda bloqueada hasta release */
+    private static class BlockingSink extends CountingSink {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(b, off, len);
+        }
+    }
+
+    @Test
+    @DisplayName("Lo que se encola mientras el escritor está ocupado sale en una sola escritura")
+    void testQueuedLinesAreCoalesced() throws Exception {
+        BlockingSink sink = new BlockingSink();
+        SessionOutbound outbound = new SessionOutbound("lote", () -> {}, () -> sink);
+        byte[] line = "SYS ana joined\n".getBytes(StandardCharsets.UTF_8);
+
+        outbound.send(line);
+        assertTrue(sink.entered.await(5, TimeUnit.SECONDS), "El escritor debería estar escribiendo la primera línea");
+        for (int i = 0; i < 10; i++) {
+            outbound.send(line); // Se encolan con el escritor bloqueado en el socket
+        }
+        sink.release.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.bytes.get() < 11L * line.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(11L * line.length, sink.bytes.get());
+        assertEquals(2, sink.writes.get(), "Una escritura para la primera línea y otra para las diez encoladas");
+        outbound.close();
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "bench", matches = "true")
+    @DisplayName("Benchmark: broadcast de líneas SYS a 10k conexiones")
+    void benchBroadcast() throws Exception {
+        final int sessions = 10_000;
+        final int lines = 50;
+        CountingSink[] sinks = new CountingSink[sessions];
+        SessionOutbound[] outbounds = new SessionOutbound[sessions];
+        for (int i = 0; i < sessions; i++) {
+            CountingSink sink = new CountingSink();
+            sinks[i] = sink;
+            outbounds[i] = new SessionOutbound("bench" + i, () -> {}, () -> sink);
+        }
+
+        long start = System.nanoTime();
+        long expectedBytes = 0;
+        for (int l = 0; l < lines; l++) {
+            byte[] line = ("SYS usuario" + l + " joined\n").getBytes(StandardCharsets.UTF_8);
+            expectedBytes += line.length;
+            for (SessionOutbound o : outbounds) {
+                o.send(line); // Mismos bytes para todas las sesiones, como ChatServicesImpl.broadcast
+            }
+        }
+        long enqueued = System.nanoTime() - start;
+
+        long writes = 0;
+        for (CountingSink sink : sinks) {
+            while (sink.bytes.get() < expectedBytes) {
+                Thread.sleep(1);
+            }
+        }
+        long delivered = System.nanoTime() - start;
+        for (CountingSink sink : sinks) {
+            assertEquals(expectedBytes, sink.bytes.get());
+            writes += sink.writes.get();
+        }
+        for (SessionOutbound o : outbounds) {
+            o.close();
+        }
+
+        long frames = (long) sessions * lines;
+        System.out.printf("[BENCH] broadcast %d lines x %d sessions: %.0f lines/sec delivered (enqueue %.1fms, total %.1fms), %d socket writes for %d lines (%.2f writes/line)%n",
+                lines, sessions, frames / (delivered / 1e9), enqueued / 1e6, delivered / 1e6, writes, frames, (double) writes / frames);
+    }
+}
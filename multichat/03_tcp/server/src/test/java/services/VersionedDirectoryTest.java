@@ -0,0 +1,79 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests para VersionedDirectory
+ */
+class VersionedDirectoryTest {
+
+    @Test
+    @DisplayName("El snapshot sólo se reconstruye cuando la vista cambia")
+    void testSnapshotIsCached() {
+        VersionedDirectory dir = new VersionedDirectory();
+        List<String> state = new ArrayList<>(List.of("ana"));
+        AtomicInteger builds = new AtomicInteger();
+        VersionedDirectory.View<List<String>> view = dir.view(() -> {
+            builds.incrementAndGet();
+            return List.copyOf(state);
+        });
+        VersionedDirectory.View<List<String>> other = dir.view(List::of);
+
+        VersionedDirectory.Snapshot<List<String>> first = view.snapshot();
+        assertSame(first, view.snapshot());
+        other.put("x", true); // Un cambio en otra vista no invalida esta
+        assertSame(first, view.snapshot());
+
+        state.add("luis");
+        view.put("luis", true);
+
+        assertEquals(List.of("ana", "luis"), view.snapshot().data);
+        assertEquals(2, builds.get());
+    }
+
+    @Test
+    @DisplayName("Desde la última versión no hay cambios; desde antes llega sólo el delta")
+    void testDeltaSinceVersion() {
+        VersionedDirectory dir = new VersionedDirectory();
+        VersionedDirectory.View<List<String>> view = dir.view(List::of);
+        view.put("ana", true);
+        long seen = dir.getVersion();
+
+        assertTrue(view.since(seen).isEmpty());
+
+        view.put("luis", false);
+        view.put("luis", true);
+        view.put("eva", true);
+        view.remove("eva");
+        view.remove("ana");
+        VersionedDirectory.Delta delta = view.since(seen);
+
+        assertEquals(Map.of("luis", true), delta.changed);
+        assertEquals(List.of("eva", "ana"), delta.removed);
+        assertEquals(dir.getVersion(), delta.version);
+    }
+
+    @Test
+    @DisplayName("Una versión que ya salió del diario pide el snapshot completo")
+    void testOldVersionNeedsSnapshot() {
+        VersionedDirectory dir = new VersionedDirectory();
+        VersionedDirectory.View<List<String>> view = dir.view(List::of);
+        for (int i = 0; i < VersionedDirectory.JOURNAL_SIZE + 10; i++) {
+            view.put("user" + i, true);
+        }
+
+        assertNull(view.since(1));
+        assertNull(view.since(dir.getVersion() + 5), "Versión de otra ejecución del servidor");
+        assertEquals(5, view.since(dir.getVersion() - 5).changed.size());
+    }
+}
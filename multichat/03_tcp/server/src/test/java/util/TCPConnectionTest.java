@@ -0,0 +1,132 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import services.ChatServicesImpl;
+
+/**
+ * Tests para TCPConnection usando el núcleo compartido ChatServicesImpl
+ */
+class TCPConnectionTest {
+
+    private static final File TEST_DATA_DIR = new File("test-data/tcp");
+    private static ChatServicesImpl chatServices;
+    private static int port;
+
+    private Socket socket;
+    private BufferedReader in;
+    private PrintWriter out;
+
+    /** TCPConnection es un singleton: se arranca una sola vez para todos los tests */
+    private static synchronized void startServer() {
+        if (chatServices != null) return;
+        cleanTestData();
+        chatServices = new ChatServicesImpl(TEST_DATA_DIR);
+        TCPConnection srv = TCPConnection.getInstance();
+        srv.initAsServer(0);
+        srv.setChatServices(chatServices);
+        port = srv.getPort();
+        srv.setDaemon(true);
+        srv.start();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        startServer();
+        socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(2000);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new PrintWriter(socket.getOutputStream(), true);
+        assertTrue(in.readLine().startsWith("HELLO"));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        socket.close();
+    }
+
+    private static void cleanTestData() {
+        if (TEST_DATA_DIR.exists()) {
+            try {
+                Files.walk(TEST_DATA_DIR.toPath())
+                     .sorted(Comparator.reverseOrder())
+                     .map(Path::toFile)
+                     .forEach(File::delete);
+            } catch (Exception e) {
+                // Ignorar errores al limpiar
+            }
+        }
+    }
+
+    /** Lee líneas hasta encontrar una que empiece con el prefijo */
+    private String readUntil(String prefix) throws Exception {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) return line;
+        }
+        throw new SocketTimeoutException("No llegó " + prefix);
+    }
+
+    @Test
+    @DisplayName("Un cliente web (sin socket) y uno nativo se alcanzan por el mismo núcleo")
+    void testNativeAndWebClientsReachEachOther() throws Exception {
+        chatServices.login("web", 0, null);
+        out.println("LOGIN nativo");
+        assertEquals("OK LOGIN", readUntil("OK"));
+
+        // Web -> nativo: se empuja por el socket
+        chatServices.sendMessageToUser("web", "nativo", "hola nativo");
+        assertEquals("MSG web: hola nativo", readUntil("MSG"));
+
+        // Nativo -> web: queda pendiente para el polling de TCP-JSON
+        out.println("MSG_USER web hola web");
+        assertTrue(readUntil("OK").matches("OK \\d+"), "El OK incluye el id del mensaje");
+        assertEquals("MSG|nativo|hola web", chatServices.getPendingMessages("web").get(0));
+    }
+
+    @Test
+    @DisplayName("Los grupos creados por el cliente nativo son los del núcleo")
+    void testGroupsAreShared() throws Exception {
+        out.println("LOGIN owner");
+        readUntil("OK LOGIN");
+        out.println("CREATE_GROUP sala");
+        readUntil("OK GROUP");
+        out.println("ADD_TO_GROUP sala web2");
+        readUntil("OK ADDED");
+
+        assertTrue(chatServices.getUserGroups("web2").contains("sala"));
+        out.println("MSG_GROUP sala hola sala");
+        readUntil("OK");
+        assertEquals("GROUP|sala|owner|hola sala", chatServices.getPendingMessages("web2").get(0));
+    }
+
+    @Test
+    @DisplayName("Al desconectarse el socket se cierra la sesión nativa")
+    void testDisconnectLogsOut() throws Exception {
+        out.println("LOGIN efimero");
+        readUntil("OK LOGIN");
+        assertTrue(chatServices.getOnlineUsers().contains("efimero"));
+
+        socket.close();
+        for (int i = 0; i < 50 && chatServices.getOnlineUsers().contains("efimero"); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(!chatServices.getOnlineUsers().contains("efimero"), "La sesión debería cerrarse");
+    }
+}
@@ -0,0 +1,259 @@
+package util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Tests para UdpRelay
+ */
+class UdpRelayTest {
+
+    private UdpRelay relay;
+    private DatagramChannel alice;
+    private DatagramChannel bob;
+    private SocketAddress relayAddress;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        relay = new UdpRelay(0);
+        relay.start();
+        relayAddress = new InetSocketAddress("127.0.0.1", relay.getPort());
+        alice = open();
+        bob = open();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        alice.close();
+        bob.close();
+        relay.shutdown();
+    }
+
+    private static DatagramChannel open() throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        ch.bind(new InetSocketAddress("127.0.0.1", 0));
+        ch.configureBlocking(false);
+        return ch;
+    }
+
+    private void send(DatagramChannel ch, long token, byte[] payload) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(UdpRelay.TOKEN_BYTES + payload.length);
+        buf.putLong(token).put(payload).flip();
+        ch.send(buf, relayAddress);
+    }
+
+    private static byte[] receive(DatagramChannel ch, long timeoutMs) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(2048);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            buf.clear();
+            if (ch.receive(buf) != null) {
+                buf.flip();
+                byte[] out = new byte[buf.remaining()];
+                buf.get(out);
+                return out;
+            }
+            Thread.sleep(1);
+        }
+        return null;
+    }
+
+    private void register(UdpRelay.RelaySession rs) throws Exception {
+        send(alice, rs.callerToken, new byte[0]);
+        send(bob, rs.calleeToken, new byte[0]);
+        Thread.sleep(50);
+    }
+
+    @Test
+    @DisplayName("Reenvía el payload al otro extremo sin el token")
+    void testForwardsBetweenRegisteredEndpoints() throws Exception {
+        UdpRelay.RelaySession rs = relay.allocate("alice", "bob");
+        register(rs);
+
+        send(alice, rs.callerToken, "hola".getBytes());
+        assertTrue(Arrays.equals("hola".getBytes(), receive(bob, 1000)));
+
+        send(bob, rs.calleeToken, "que tal".getBytes());
+        assertTrue(Arrays.equals("que tal".getBytes(), receive(alice, 1000)));
+    }
+
+    @Test
+    @DisplayName("Descarta paquetes con token desconocido")
+    void testUnknownTokenIsDropped() throws Exception {
+        UdpRelay.RelaySession rs = relay.allocate("alice", "bob");
+        register(rs);
+
+        send(alice, 12345L, "intruso".getBytes());
+
+        assertNull(receive(bob, 200));
+        assertTrue(relay.getDroppedPackets() >= 1);
+    }
+
+    @Test
+    @DisplayName("Liberar la sesión elimina ambos extremos")
+    void testReleaseRemovesBothLegs() {
+        UdpRelay.RelaySession rs = relay.allocate("alice", "bob");
+        assertEquals(2, relay.getActiveLegs());
+
+        relay.release(rs.calleeToken);
+
+        assertEquals(0, relay.getActiveLegs());
+    }
+
+    @Test
+    @DisplayName("Reenvía una ráfaga corta completa y en orden, y cuenta paquetes y bytes")
+    void testForwardsBurstInOrder() throws Exception {
+        UdpRelay.RelaySession rs = relay.allocate("alice", "bob");
+        register(rs);
+
+        for (int i = 0; i < 5; i++) {
+            send(alice, rs.callerToken, new byte[] { (byte) i, 42 });
+        }
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(new byte[] { (byte) i, 42 }, receive(bob, 1000));
+        }
+
+        assertEquals(5, relay.getForwardedPackets());
+        assertEquals(10, relay.getForwardedBytes());
+    }
+
+    @Test
+    @DisplayName("Colgar libera sólo esa llamada; cerrar sesión libera todas las del usuario")
+    void testReleaseUser() throws Exception {
+        UdpRelay.RelaySession withBob = relay.allocate("alice", "bob");
+        relay.allocate("carol", "alice");
+        relay.allocate("bob", "carol");
+        assertEquals(6, relay.getActiveLegs());
+
+        assertEquals(1, relay.releaseUser("alice", "bob"));
+        assertEquals(4, relay.getActiveLegs());
+        send(alice, withBob.callerToken, "tarde".getBytes());
+        assertNull(receive(bob, 200), "La sesión liberada ya no reenvía");
+
+        assertEquals(1, relay.releaseUser("alice", null));
+        assertEquals(2, relay.getActiveLegs(), "Queda la llamada entre bob y carol");
+    }
+
+    /** Ida y vuelta de un paquete de 160 bytes; devuelve la mediana en microsegundos */
+    private static double medianRoundTripUs(DatagramChannel from, DatagramChannel to, SocketAddress target,
+                                            SocketAddress back, long fromToken, long toToken, int rounds) throws Exception {
+        long[] samples = new long[rounds];
+        ByteBuffer out = ByteBuffer.allocate(UdpRelay.TOKEN_BYTES + 160);
+        ByteBuffer in = ByteBuffer.allocate(2048);
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            out.clear();
+            out.putLong(fromToken).position(out.capacity()).flip();
+            if (fromToken == 0) {
+                out.position(UdpRelay.TOKEN_BYTES); // Directo: sin token
+            }
+            from.send(out, target);
+            in.clear();
+            while (to.receive(in) == null) {
+                Thread.onSpinWait();
+            }
+            out.clear();
+            out.putLong(toToken).position(out.capacity()).flip();
+            if (toToken == 0) {
+                out.position(UdpRelay.TOKEN_BYTES);
+            }
+            to.send(out, back);
+            in.clear();
+            while (from.receive(in) == null) {
+                Thread.onSpinWait();
+            }
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[rounds / 2] / 1e3;
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "bench", matches = "true")
+    @DisplayName("Benchmark: paquetes por segundo del relay y latencia que agrega cada salto")
+    void benchThroughputAndHopLatency() throws Exception {
+        UdpRelay.RelaySession rs = relay.allocate("alice", "bob");
+        register(rs);
+
+        // Latencia: ida y vuelta directa contra ida y vuelta por el relay (dos saltos por ida y vuelta)
+        final int rounds = 5_000;
+        medianRoundTripUs(alice, bob, relayAddress, relayAddress, rs.callerToken, rs.calleeToken, 500); // Calentamiento
+        double relayed = medianRoundTripUs(alice, bob, relayAddress, relayAddress, rs.callerToken, rs.calleeToken, rounds);
+        double direct = medianRoundTripUs(alice, bob, bob.getLocalAddress(), alice.getLocalAddress(), 0, 0, rounds);
+
+        // Throughput: alice envía con una ventana acotada para no desbordar el buffer del socket
+        final int packets = 200_000;
+        final int window = 256;
+        AtomicLong received = new AtomicLong();
+        AtomicLong lastArrival = new AtomicLong();
+        Thread receiver = new Thread(() -> {
+            ByteBuffer in = ByteBuffer.allocate(2048);
+            try {
+                while (received.get() < packets && !Thread.currentThread().isInterrupted()) {
+                    in.clear();
+                    if (bob.receive(in) != null) {
+                        lastArrival.set(System.nanoTime());
+                        received.incrementAndGet();
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                }
+            } catch (IOException e) {
+                // Canal cerrado: termina
+            }
+        });
+        receiver.start();
+        ByteBuffer out = ByteBuffer.allocate(UdpRelay.TOKEN_BYTES + 160);
+        long start = System.nanoTime();
+        long deadline = start + 10_000_000_000L;
+        long lost = 0; // Paquetes que no llegaron: dejan de contar para la ventana
+        long lastProgress = start;
+        long lastSeen = 0;
+        int sent = 0;
+        while (sent < packets && System.nanoTime() < deadline) {
+            long got = received.get();
+            if (got != lastSeen) {
+                lastSeen = got;
+                lastProgress = System.nanoTime();
+            }
+            if (sent - got - lost >= window) {
+                if (System.nanoTime() - lastProgress > 100_000_000L) {
+                    lost = sent - got; // La ventana no avanza: lo que falta se perdió
+                }
+                Thread.onSpinWait();
+                continue;
+            }
+            out.clear();
+            out.putLong(rs.callerToken).position(out.capacity()).flip();
+            alice.send(out, relayAddress);
+            sent++;
+        }
+        long end = System.nanoTime();
+        while (received.get() < sent && System.nanoTime() - end < 200_000_000L) {
+            Thread.sleep(1);
+        }
+        long elapsed = Math.max(1, lastArrival.get() - start);
+        receiver.interrupt();
+        receiver.join(1000);
+
+        System.out.printf("[BENCH] relay: %.0f paquetes/s (%d de %d recibidos, %d descartados)%n",
+                received.get() / (elapsed / 1e9), received.get(), sent, relay.getDroppedPackets());
+        System.out.printf("[BENCH] ida y vuelta: %.1fus por el relay vs %.1fus directo, %.1fus agregados por salto%n",
+                relayed, direct, (relayed - direct) / 2);
+    }
+}
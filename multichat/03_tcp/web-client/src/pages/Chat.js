@@ -492,22 +492,43 @@ async function loadMessageHistory(username) {
 }
 
 let pollingInterval = null;
+let pendingAckSeq = undefined; // lastSeq procesado; se confirma en la siguiente consulta
+const processedSeqs = new Set(); // El servidor reenvía lo no confirmado: evitar duplicados
 
 function startMessagePolling(username) {
     // Clear any existing interval
     if (pollingInterval) {
         clearInterval(pollingInterval);
     }
+    pendingAckSeq = undefined;
+    processedSeqs.clear();
 
     // Poll every 2 seconds
     pollingInterval = setInterval(async () => {
         try {
-            const result = await getPendingMessages(username);
-            if (result.success && result.messages && result.messages.length > 0) {
-                result.messages.forEach(msg => {
+            const result = await getPendingMessages(username, pendingAckSeq);
+            if (!result.success) {
+                return;
+            }
+            if (pendingAckSeq !== undefined) {
+                // El servidor ya confirmó todo hasta pendingAckSeq
+                processedSeqs.forEach(seq => { if (seq <= pendingAckSeq) processedSeqs.delete(seq); });
+            }
+            if (result.messages && result.messages.length > 0) {
+                result.messages.forEach((msg, i) => {
+                    const seq = result.seqs ? result.seqs[i] : undefined;
+                    if (seq !== undefined && processedSeqs.has(seq)) {
+                        return;
+                    }
                     processIncomingMessage(msg);
+                    if (seq !== undefined) {
+                        processedSeqs.add(seq);
+                    }
                 });
             }
+            if (typeof result.lastSeq === 'number' && result.lastSeq >= 0) {
+                pendingAckSeq = Math.max(pendingAckSeq ?? -1, result.lastSeq);
+            }
         } catch (error) {
             console.error('Error polling messages:', error);
         }
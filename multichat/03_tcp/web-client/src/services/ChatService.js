@@ -74,6 +74,29 @@
 
     Slice.defineStruct(chat.Message, true, true);
 
+    chat.SequencedMessage = class {
+        constructor(msg = new chat.Message(), seq = new Ice.Long(0, 0)) {
+            this.msg = msg;
+            this.seq = seq;
+        }
+
+        _write(ostr) {
+            chat.Message.write(ostr, this.msg);
+            ostr.writeLong(this.seq);
+        }
+
+        _read(istr) {
+            this.msg = chat.Message.read(istr, this.msg);
+            this.seq = istr.readLong();
+        }
+
+        static get minWireSize() {
+            return 21;
+        }
+    };
+
+    Slice.defineStruct(chat.SequencedMessage, true, true);
+
     chat.Call = class {
         constructor(callId = "", caller = "", callee = "", active = false, startedAt = new Ice.Long(0, 0)) {
             this.callId = callId;
@@ -108,6 +131,8 @@
 
     Slice.defineSequence(chat, "MessageSeqHelper", "chat.Message", false);
 
+    Slice.defineSequence(chat, "SequencedMessageSeqHelper", "chat.SequencedMessage", false);
+
     Slice.defineSequence(chat, "CallSeqHelper", "chat.Call", false);
 
     const iceC_chat_ChatCallback_ids = [
@@ -142,6 +167,7 @@
     Slice.defineOperations(chat.ChatService, chat.ChatServicePrx, iceC_chat_ChatService_ids, 1,
         {
             "getHistory": [, , , , ["chat.MessageSeqHelper"], [[7]], , , ,],
+            "getMessagesSince": [, , , , ["chat.SequencedMessageSeqHelper"], [[7], [4]], , , ,],
             "sendMessage": [, , , , , [[7], [7]], , , ,],
             "sendAudio": [, , , , , [[7], [7]], , , ,],
             "startCall": [, , , , [chat.Call], [[7], [7]], , , ,],
@@ -283,6 +283,24 @@ export async function getHistoryViaICE(userOrGroupId) {
     }
 }
 
+/**
+ * Mensajes de una conversación (usuario o #grupo) posteriores a la última secuencia vista,
+ * para cubrir los pushes perdidos sin volver a pedir todo el historial
+ */
+export async function getMessagesSinceViaICE(conversation, seq) {
+    try {
+        const proxy = await getProxy();
+        const ctx = buildUserCtx();
+        const since = new Ice.Ice.Long(Number(seq) || 0);
+        const messages = await invokeWithCtxFallback(proxy, ctx, async (prx) => await prx.getMessagesSince(conversation, since));
+        // Cada elemento es {msg, seq}: se devuelve el mensaje con su secuencia al lado
+        return (messages || []).map((m) => Object.assign(m.msg, { seq: m.seq.toNumber() }));
+    } catch (error) {
+        console.error('[ICE] Get messages since error:', error);
+        return [];
+    }
+}
+
 /**
  * Send message
  */
@@ -320,13 +338,8 @@ export async function sendAudioViaICE(receiver, audioBase64) {
         const ctx = buildUserCtx();
         console.log('[iceDelegate] sendAudioViaICE using context ->', ctx);
 
-        // WORKAROUND: Embed sender in payload because Ice context propagation is failing
-        const payload = JSON.stringify({
-            sender: currentUserId,
-            data: audioBase64
-        });
-
-        await invokeWithCtxFallback(proxy, ctx, async (prx) => await prx.sendAudio(receiver, payload));
+        // El servidor liga la identidad a la conexión ICE; el audio va sin envoltorio
+        await invokeWithCtxFallback(proxy, ctx, async (prx) => await prx.sendAudio(receiver, audioBase64));
         console.log(`[ICE] Audio sent to ${receiver}`);
     } catch (error) {
         console.error('[ICE] Send audio error:', error);
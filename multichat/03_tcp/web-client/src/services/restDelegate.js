@@ -221,11 +221,17 @@ export async function getUserGroups(username) {
 /**
  * Obtener historial de mensajes
  * @param {string} username 
+ * @param {number} [from] - Desde este instante (epoch ms)
+ * @param {number} [to] - Hasta este instante (epoch ms)
  * @returns {Promise<{success: boolean, messages?: Array, message?: string}>}
  */
-export async function getHistory(username) {
+export async function getHistory(username, from, to) {
     try {
-        const response = await fetch(`${API_BASE_URL}/history/${username}`);
+        const params = new URLSearchParams();
+        if (from !== undefined) params.set('from', from);
+        if (to !== undefined) params.set('to', to);
+        const query = params.toString();
+        const response = await fetch(`${API_BASE_URL}/history/${username}${query ? `?${query}` : ''}`);
         
         if (!response.ok) {
             throw new Error(`HTTP error! status: ${response.status}`);
@@ -239,13 +245,15 @@ export async function getHistory(username) {
 }
 
 /**
- * Obtener mensajes pendientes (polling)
+ * Obtener mensajes pendientes (polling) con entrega confirmada
  * @param {string} username 
- * @returns {Promise<{success: boolean, messages?: string[], message?: string}>}
+ * @param {number} [ackSeq] - lastSeq de la respuesta anterior ya procesada; confirma esos mensajes
+ * @returns {Promise<{success: boolean, messages?: string[], seqs?: number[], lastSeq?: number, message?: string}>}
  */
-export async function getPendingMessages(username) {
+export async function getPendingMessages(username, ackSeq) {
     try {
-        const response = await fetch(`${API_BASE_URL}/messages/pending/${username}`);
+        const query = ackSeq !== undefined && ackSeq >= 0 ? `?ack=${ackSeq}` : '?acked=1';
+        const response = await fetch(`${API_BASE_URL}/messages/pending/${username}${query}`);
         
         if (!response.ok) {
             throw new Error(`HTTP error! status: ${response.status}`);
@@ -258,6 +266,52 @@ export async function getPendingMessages(username) {
     }
 }
 
+/**
+ * Lista de conversaciones con último mensaje y no leídos, la más reciente primero
+ * @param {string} username 
+ * @returns {Promise<{success: boolean, conversations?: Array<{conversation: string, isGroup: boolean, lastSeq: number, preview: string, ts: number, unread: number}>, message?: string}>}
+ */
+export async function getConversations(username) {
+    try {
+        const response = await fetch(`${API_BASE_URL}/conversations/${username}`);
+
+        if (!response.ok) {
+            throw new Error(`HTTP error! status: ${response.status}`);
+        }
+
+        return await response.json();
+    } catch (error) {
+        console.error('Error al obtener conversaciones:', error);
+        return { success: false, message: error.message };
+    }
+}
+
+/**
+ * Marcar una conversación como leída hasta una secuencia
+ * @param {string} username 
+ * @param {string} conversation - usuario o #grupo
+ * @param {number} seq 
+ * @returns {Promise<{success: boolean, unread?: number, message?: string}>}
+ */
+export async function markRead(username, conversation, seq) {
+    try {
+        const response = await fetch(`${API_BASE_URL}/conversations/read`, {
+            method: 'POST',
+            headers: { 'Content-Type': 'application/json' },
+            body: JSON.stringify({ username, conversation, seq })
+        });
+
+        if (!response.ok) {
+            throw new Error(`HTTP error! status: ${response.status}`);
+        }
+
+        return await response.json();
+    } catch (error) {
+        console.error('Error al marcar como leído:', error);
+        return { success: false, message: error.message };
+    }
+}
+
 /**
  * Limpiar historial de chat entre dos usuarios
  * @param {string} user1 